@@ -0,0 +1,120 @@
+package org.example.benchmark;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 运行基准测试，参数与JMH的命令行一致。没有指定-rf和-rff时结果写入jmh-result.json，可以直接用JMH的结果对比工具比较两次运行。
+ * <p>额外的参数{@code -threads 1,2,4,8,max}按每个线程数各运行一次（覆盖{@code @Threads}和-t），结果分别写入jmh-result-t{线程数}.json，最后输出吞吐量随线程数变化的表格。
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+public class BenchmarkMain {
+    private static final String THREADS_OPTION = "-threads";
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        List<String> jmhArgs = new ArrayList<>(Arrays.asList(args));
+        List<Integer> threadCounts = removeThreadCounts(jmhArgs);
+        CommandLineOptions commandLineOptions = new CommandLineOptions(jmhArgs.toArray(new String[0]));
+        if (commandLineOptions.shouldHelp()) {
+            commandLineOptions.showHelp();
+            return;
+        }
+        if (commandLineOptions.shouldList()) {
+            new Runner(commandLineOptions).list();
+            return;
+        }
+        if (threadCounts.isEmpty()) {
+            new Runner(options(commandLineOptions, "").build()).run();
+            return;
+        }
+        // 每行是一个测试方法和参数，每列是一个线程数
+        Map<String, Map<Integer, String>> table = new LinkedHashMap<>();
+        for (int threads : threadCounts) {
+            for (RunResult result : new Runner(options(commandLineOptions, "-t" + threads).threads(threads).build()).run()) {
+                String score = String.format("%.3f %s", result.getPrimaryResult().getScore(), result.getPrimaryResult().getScoreUnit());
+                table.computeIfAbsent(name(result.getParams()), k -> new LinkedHashMap<>()).put(threads, score);
+            }
+        }
+        printTable(threadCounts, table);
+    }
+
+    /**
+     * 取出-threads参数，max为可用的处理器数量，重复的线程数忽略
+     */
+    private static List<Integer> removeThreadCounts(List<String> args) {
+        List<Integer> threadCounts = new ArrayList<>();
+        int index = args.indexOf(THREADS_OPTION);
+        if (index < 0) {
+            return threadCounts;
+        }
+        if (index == args.size() - 1) {
+            throw new IllegalArgumentException(THREADS_OPTION + " requires a list of thread counts, e.g. 1,2,4,8,max");
+        }
+        for (String value : args.get(index + 1).split(",")) {
+            String threads = value.trim();
+            int count = "max".equalsIgnoreCase(threads) ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(threads);
+            // max与指定的线程数相同时只运行一次
+            if (!threadCounts.contains(count)) {
+                threadCounts.add(count);
+            }
+        }
+        args.remove(index + 1);
+        args.remove(index);
+        return threadCounts;
+    }
+
+    private static ChainedOptionsBuilder options(CommandLineOptions commandLineOptions, String suffix) {
+        ChainedOptionsBuilder builder = new OptionsBuilder().parent(commandLineOptions);
+        if (!commandLineOptions.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        String result = commandLineOptions.getResult().hasValue() ? commandLineOptions.getResult().get() : "jmh-result.json";
+        int extension = result.lastIndexOf('.');
+        builder.result(extension < 0 ? result + suffix : result.substring(0, extension) + suffix + result.substring(extension));
+        return builder;
+    }
+
+    private static String name(BenchmarkParams params) {
+        String benchmark = params.getBenchmark();
+        StringBuilder name = new StringBuilder(benchmark.substring(benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1) + 1));
+        for (String key : params.getParamsKeys()) {
+            name.append(' ').append(key).append('=').append(params.getParam(key));
+        }
+        return name.toString();
+    }
+
+    private static void printTable(List<Integer> threadCounts, Map<String, Map<Integer, String>> table) {
+        StringBuilder header = new StringBuilder("| Benchmark |");
+        StringBuilder separator = new StringBuilder("|---|");
+        for (int threads : threadCounts) {
+            header.append(' ').append(threads).append(" threads |");
+            separator.append("---:|");
+        }
+        System.out.println();
+        System.out.println(header);
+        System.out.println(separator);
+        for (Map.Entry<String, Map<Integer, String>> row : table.entrySet()) {
+            StringBuilder line = new StringBuilder("| ").append(row.getKey()).append(" |");
+            for (int threads : threadCounts) {
+                line.append(' ').append(row.getValue().getOrDefault(threads, "")).append(" |");
+            }
+            System.out.println(line);
+        }
+    }
+}
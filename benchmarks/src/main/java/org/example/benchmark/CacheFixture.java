@@ -0,0 +1,59 @@
+package org.example.benchmark;
+
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheManager;
+import org.example.CaffeineRedisCacheSpec;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.util.Map;
+
+/**
+ * 使用{@link FakeRedisConnectionFactory}创建缓存管理器，配置与自动配置一致，不启动事件订阅
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+final class CacheFixture {
+    final FakeRedisConnectionFactory redisConnectionFactory = new FakeRedisConnectionFactory();
+    final CaffeineRedisCacheManager cacheManager;
+
+    /**
+     * @param cacheSpecs 缓存名称和配置
+     */
+    CacheFixture(Map<String, CaffeineRedisCacheSpec> cacheSpecs) {
+        RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        RedisMessageListenerContainer redisMessageListenerContainer = new RedisMessageListenerContainer();
+        redisMessageListenerContainer.setConnectionFactory(redisConnectionFactory);
+        RedisCacheConfiguration redisCacheConfiguration = RedisCacheConfiguration.defaultCacheConfig().serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer()));
+        this.cacheManager = new CaffeineRedisCacheManager(redisCacheConfiguration, redisConnectionFactory, redisTemplate, redisMessageListenerContainer, null);
+        this.cacheManager.setCacheSpecs(cacheSpecs);
+    }
+
+    CaffeineRedisCache getCache(String name) {
+        return (CaffeineRedisCache) cacheManager.getCache(name);
+    }
+
+    void close() {
+        cacheManager.destroy();
+        redisConnectionFactory.flushAll();
+    }
+
+    /**
+     * 约100字节的value
+     */
+    static String value(int i) {
+        StringBuilder builder = new StringBuilder(100);
+        while (builder.length() < 100) {
+            builder.append("value-").append(i).append(';');
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package org.example.benchmark;
+
+import org.example.CacheMode;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 读取：一级缓存命中、二级缓存命中（只使用redis，每次都经过redis的读取和value解码）、二级缓存批量读取
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheReadBenchmark {
+    @Param({"10000"})
+    private int keyCount;
+    private CacheFixture fixture;
+    private CaffeineRedisCache l1Cache;
+    private CaffeineRedisCache l2Cache;
+    private List<List<Object>> batches;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Map<String, CaffeineRedisCacheSpec> specs = new HashMap<>();
+        specs.put("l1", CaffeineRedisCacheSpec.builder().maximumSize(keyCount * 2L).build());
+        specs.put("l2", CaffeineRedisCacheSpec.builder().mode(CacheMode.L2_ONLY).build());
+        fixture = new CacheFixture(specs);
+        l1Cache = fixture.getCache("l1");
+        l2Cache = fixture.getCache("l2");
+        for (int i = 0; i < keyCount; i++) {
+            l1Cache.put(key(i), CacheFixture.value(i));
+            l2Cache.put(key(i), CacheFixture.value(i));
+        }
+        batches = new ArrayList<>();
+        for (int i = 0; i + 100 <= keyCount; i += 100) {
+            List<Object> batch = new ArrayList<>(100);
+            for (int j = i; j < i + 100; j++) {
+                batch.add(key(j));
+            }
+            batches.add(batch);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    private static String key(int i) {
+        return "key-" + i;
+    }
+
+    private String randomKey() {
+        return key(ThreadLocalRandom.current().nextInt(keyCount));
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper l1Hit() {
+        return l1Cache.get(randomKey());
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper l2Hit() {
+        return l2Cache.get(randomKey());
+    }
+
+    /**
+     * 一次MGET读取100个key
+     */
+    @Benchmark
+    public Map<Object, String> l2GetAll() {
+        return l2Cache.getAll(batches.get(ThreadLocalRandom.current().nextInt(batches.size())), String.class);
+    }
+}
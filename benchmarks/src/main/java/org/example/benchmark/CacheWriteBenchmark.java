@@ -0,0 +1,92 @@
+package org.example.benchmark;
+
+import org.example.CacheMode;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 并发写入：所有线程写同一个key，以及每个线程写自己的key。写入包括redis写入、caffeine cache的分段锁和缓存事件的编码发送。
+ * <p>默认4个线程，通过-t指定线程数，或者通过{@link BenchmarkMain}的-threads参数比较不同线程数下的吞吐量：
+ * <pre>
+ * java -jar target/benchmarks.jar CacheWriteBenchmark -threads 1,2,4,8,max
+ * </pre>
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class CacheWriteBenchmark {
+    private static final int KEYS_PER_THREAD = 1024;
+    @Param({"L1_ONLY", "L1_AND_L2"})
+    private CacheMode mode;
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+    private final String value = CacheFixture.value(0);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fixture = new CacheFixture(Collections.singletonMap("write", CaffeineRedisCacheSpec.builder().mode(mode).build()));
+        cache = fixture.getCache("write");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public void sameKey() {
+        cache.put("hot", value);
+    }
+
+    @Benchmark
+    public void distinctKeys(ThreadKeys keys) {
+        cache.put(keys.next(), value);
+    }
+
+    /**
+     * 每个线程使用不重叠的key
+     */
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        private static final AtomicInteger THREADS = new AtomicInteger();
+        private final String[] keys = new String[KEYS_PER_THREAD];
+        private int index;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            int thread = THREADS.getAndIncrement();
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "key-" + thread + "-" + i;
+            }
+        }
+
+        String next() {
+            return keys[index++ & (KEYS_PER_THREAD - 1)];
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.example.benchmark;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventBatch;
+import org.example.event.CacheEventCodec;
+import org.example.event.CacheEventEnum;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存事件的编码和解码，二进制编码与旧版本使用的jdk序列化对比：单个更新事件，以及100个删除事件的批量消息
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventCodecBenchmark {
+    private final RedisSerializer<Object> jdkSerializer = RedisSerializer.java();
+    private final CacheEventCodec codec = new CacheEventCodec("bench", RedisSerializationContext.SerializationPair.fromSerializer(jdkSerializer));
+    private CacheEvent updateEvent;
+    private List<CacheEvent> evictEvents;
+    private byte[] encodedUpdate;
+    private byte[] encodedBatch;
+    private byte[] jdkUpdate;
+    private byte[] jdkBatch;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        updateEvent = event(new CacheEvent("key-1", CacheFixture.value(1), CacheEventEnum.UPDATE_KEY.name()));
+        evictEvents = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            evictEvents.add(event(new CacheEvent("key-" + i, CacheEventEnum.EVICT_KEY.name())));
+        }
+        encodedUpdate = codec.encode(updateEvent);
+        encodedBatch = codec.encode(evictEvents);
+        jdkUpdate = jdkSerializer.serialize(updateEvent);
+        jdkBatch = jdkSerializer.serialize(new CacheEventBatch(evictEvents));
+        System.out.printf("%nmessage size: update %d bytes (jdk %d), batch %d bytes (jdk %d)%n", encodedUpdate.length, jdkUpdate.length, encodedBatch.length, jdkBatch.length);
+    }
+
+    private static CacheEvent event(CacheEvent event) {
+        event.setCacheName("bench");
+        event.setVersion(1);
+        return event;
+    }
+
+    @Benchmark
+    public byte[] encodeUpdate() {
+        return codec.encode(updateEvent);
+    }
+
+    @Benchmark
+    public List<CacheEvent> decodeUpdate() {
+        return codec.decode(encodedUpdate);
+    }
+
+    @Benchmark
+    public byte[] encodeBatch() {
+        return codec.encode(evictEvents);
+    }
+
+    @Benchmark
+    public List<CacheEvent> decodeBatch() {
+        return codec.decode(encodedBatch);
+    }
+
+    @Benchmark
+    public byte[] jdkEncodeUpdate() {
+        return jdkSerializer.serialize(updateEvent);
+    }
+
+    @Benchmark
+    public Object jdkDecodeUpdate() {
+        return jdkSerializer.deserialize(jdkUpdate);
+    }
+
+    @Benchmark
+    public byte[] jdkEncodeBatch() {
+        return jdkSerializer.serialize(new CacheEventBatch(evictEvents));
+    }
+
+    @Benchmark
+    public Object jdkDecodeBatch() {
+        return jdkSerializer.deserialize(jdkBatch);
+    }
+}
@@ -0,0 +1,152 @@
+package org.example.benchmark;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的redis替身，只实现缓存用到的命令：GET、SET、MGET、DEL、EXISTS、PUBLISH、释放租约的EVAL和PING。
+ * <p>没有网络和协议编解码，二级缓存的测试结果只包含缓存自身的开销，不代表真实redis的延迟。过期时间被忽略。
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+public class FakeRedisConnectionFactory implements RedisConnectionFactory {
+    private final ConcurrentHashMap<ByteBuffer, byte[]> data = new ConcurrentHashMap<>();
+    private final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RedisConnection.class}, new Handler());
+
+    @Override
+    public RedisConnection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException("cluster is not supported");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return false;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException("sentinel is not supported");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    /**
+     * 当前保存的key数量
+     *
+     * @return
+     */
+    public int size() {
+        return data.size();
+    }
+
+    public void flushAll() {
+        data.clear();
+    }
+
+    /**
+     * 按方法名称分发命令，stringCommands()等方法返回连接自身
+     */
+    private final class Handler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "stringCommands":
+                case "keyCommands":
+                case "scriptingCommands":
+                case "serverCommands":
+                    return proxy;
+                case "get":
+                    return data.get(ByteBuffer.wrap((byte[]) args[0]));
+                case "set":
+                    return set((byte[]) args[0], (byte[]) args[1], args.length > 3 ? (RedisStringCommands.SetOption) args[3] : RedisStringCommands.SetOption.upsert());
+                case "mGet":
+                    return mGet((byte[][]) args[0]);
+                case "del":
+                    return del((byte[][]) args[0]);
+                case "exists":
+                    return method.getReturnType() == Boolean.class ? data.containsKey(ByteBuffer.wrap((byte[]) args[0])) : 0L;
+                case "publish":
+                    return 0L;
+                case "eval":
+                    return releaseLease((byte[][]) args[3]);
+                case "ping":
+                    return "PONG";
+                case "openPipeline":
+                case "close":
+                    return null;
+                case "closePipeline":
+                    return Collections.emptyList();
+                case "isPipelined":
+                case "isQueueing":
+                case "isClosed":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeRedisConnection";
+                default:
+                    throw new UnsupportedOperationException("command is not supported: " + method.getName());
+            }
+        }
+
+        private Boolean set(byte[] key, byte[] value, RedisStringCommands.SetOption option) {
+            if (option == RedisStringCommands.SetOption.SET_IF_ABSENT) {
+                return data.putIfAbsent(ByteBuffer.wrap(key), value) == null;
+            }
+            data.put(ByteBuffer.wrap(key), value);
+            return true;
+        }
+
+        private List<byte[]> mGet(byte[][] keys) {
+            List<byte[]> values = new ArrayList<>(keys.length);
+            for (byte[] key : keys) {
+                values.add(data.get(ByteBuffer.wrap(key)));
+            }
+            return values;
+        }
+
+        private Long del(byte[][] keys) {
+            long deleted = 0;
+            for (byte[] key : keys) {
+                if (data.remove(ByteBuffer.wrap(key)) != null) {
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+
+        /**
+         * 只支持释放加载租约的脚本：key和token一致时删除
+         */
+        private Long releaseLease(byte[][] keysAndArgs) {
+            ByteBuffer key = ByteBuffer.wrap(keysAndArgs[0]);
+            byte[] token = data.get(key);
+            return token != null && Arrays.equals(token, keysAndArgs[1]) && data.remove(key, token) ? 1L : 0L;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.example.benchmark;
+
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.example.listener.DefaultCacheEventListener;
+import org.example.listener.Topic;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.connection.Message;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 事件监听器处理其他节点消息的吞吐量：单个更新事件、100个删除事件的批量消息，以及本节点自己发出的消息
+ *
+ * @author lihui
+ * @since 2024/3/11
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ListenerBenchmark {
+    private CacheFixture fixture;
+    private DefaultCacheEventListener listener;
+    private Message updateMessage;
+    private Message evictBatchMessage;
+    private Message localMessage;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        fixture = new CacheFixture(Collections.singletonMap("listener", CaffeineRedisCacheSpec.defaultSpec()));
+        CaffeineRedisCache cache = fixture.getCache("listener");
+        listener = fixture.cacheManager.getCacheEventListener();
+        CacheEventCodec codec = cache.getCacheEventCodec();
+        byte[] channel = Topic.cacheChannel(cache.getName()).getBytes(StandardCharsets.UTF_8);
+        List<CacheEvent> evictEvents = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            evictEvents.add(event(new CacheEvent("key-" + i, CacheEventEnum.EVICT_KEY.name())));
+        }
+        byte[] update = codec.encode(event(new CacheEvent("key-1", CacheFixture.value(1), CacheEventEnum.UPDATE_KEY.name())));
+        updateMessage = new DefaultMessage(channel, fromOtherNode(update));
+        evictBatchMessage = new DefaultMessage(channel, fromOtherNode(codec.encode(evictEvents)));
+        localMessage = new DefaultMessage(channel, update);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    private static CacheEvent event(CacheEvent event) {
+        event.setVersion(CacheNode.nextVersion());
+        return event;
+    }
+
+    /**
+     * 复制消息并替换消息头中的节点id，否则消息会被当作本节点发出的消息忽略
+     */
+    private static byte[] fromOtherNode(byte[] local) {
+        byte[] message = local.clone();
+        UUID node = UUID.randomUUID();
+        ByteBuffer.wrap(message).putLong(CacheEventCodec.ORIGIN_OFFSET, node.getMostSignificantBits()).putLong(CacheEventCodec.ORIGIN_OFFSET + 8, node.getLeastSignificantBits());
+        return message;
+    }
+
+    @Benchmark
+    public void applyUpdate() {
+        listener.onMessage(updateMessage, null);
+    }
+
+    @Benchmark
+    public void applyEvictBatch() {
+        listener.onMessage(evictBatchMessage, null);
+    }
+
+    @Benchmark
+    public void ignoreLocalOrigin() {
+        listener.onMessage(localMessage, null);
+    }
+}
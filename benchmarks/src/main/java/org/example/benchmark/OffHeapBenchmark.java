@@ -0,0 +1,115 @@
+package org.example.benchmark;
+
+import org.example.CacheMode;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cache.Cache;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一级缓存的堆内存储与堆外存储对比：缓存中保留大量较大的value时的读取、写入和读写混合吞吐量。
+ * <p>GC停顿需要同时开启JMH的GC分析器，比较结果中的gc.time和gc.count：
+ * <pre>
+ * java -jar target/benchmarks.jar OffHeapBenchmark -prof gc
+ * </pre>
+ * 默认4个线程，通过-t指定线程数，或者通过{@link BenchmarkMain}的-threads参数比较不同线程数下的吞吐量。
+ *
+ * @author lihui
+ * @since 2024/3/15
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g", "-XX:MaxDirectMemorySize=512m"})
+@Threads(4)
+public class OffHeapBenchmark {
+    @Param({"ON_HEAP", "OFF_HEAP"})
+    private String storage;
+    @Param({"100000"})
+    private int keyCount;
+    /**
+     * value的字符数，jdk序列化后不超过2KB，堆外存储每个value占用一个2KB的块
+     */
+    @Param({"1500"})
+    private int valueSize;
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+    private String template;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        CaffeineRedisCacheSpec.CaffeineRedisCacheSpecBuilder builder = CaffeineRedisCacheSpec.builder().mode(CacheMode.L1_ONLY).maximumSize(keyCount);
+        if ("OFF_HEAP".equals(storage)) {
+            builder.offHeapCapacity(keyCount * 2048L * 5 / 4);
+        }
+        fixture = new CacheFixture(Collections.singletonMap("offheap", builder.build()));
+        cache = fixture.getCache("offheap");
+        StringBuilder value = new StringBuilder(valueSize);
+        while (value.length() < valueSize) {
+            value.append("value;");
+        }
+        template = value.substring(0, valueSize);
+        for (int i = 0; i < keyCount; i++) {
+            cache.put(key(i), newValue());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    private static String key(int i) {
+        return "key-" + i;
+    }
+
+    /**
+     * 每次写入新的对象，与从redis读取后反序列化的value一样，堆内存储时保留在堆中
+     */
+    private String newValue() {
+        return new String(template.toCharArray());
+    }
+
+    @Benchmark
+    public Cache.ValueWrapper read() {
+        return cache.get(key(ThreadLocalRandom.current().nextInt(keyCount)));
+    }
+
+    @Benchmark
+    public void write() {
+        cache.put(key(ThreadLocalRandom.current().nextInt(keyCount)), newValue());
+    }
+
+    /**
+     * 90%读取，10%写入
+     */
+    @Benchmark
+    public Object mixed() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String key = key(random.nextInt(keyCount));
+        if (random.nextInt(10) == 0) {
+            cache.put(key, newValue());
+            return null;
+        }
+        return cache.get(key);
+    }
+}
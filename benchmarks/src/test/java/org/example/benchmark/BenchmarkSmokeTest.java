@@ -0,0 +1,39 @@
+package org.example.benchmark;
+
+import org.junit.jupiter.api.Test;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.Collection;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * 每个基准测试在当前进程中只运行一次很短的迭代，只检查准备数据和测试方法能够执行，不代表性能
+ *
+ * @author lihui
+ * @since 2024/3/16
+ */
+class BenchmarkSmokeTest {
+    @Test
+    void allBenchmarksRun() throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include("org\\.example\\.benchmark\\..*")
+                .forks(0)
+                .threads(1)
+                .warmupIterations(0)
+                .measurementIterations(1)
+                .measurementTime(TimeValue.milliseconds(50))
+                // 减少准备的数据量
+                .param("keyCount", "1000")
+                .shouldFailOnError(true)
+                .build();
+        Collection<RunResult> results = new Runner(options).run();
+
+        assertFalse(results.isEmpty());
+    }
+}
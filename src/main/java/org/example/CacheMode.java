@@ -0,0 +1,22 @@
+package org.example;
+
+/**
+ * 缓存使用的层级
+ *
+ * @author lihui
+ * @since 2024/2/7
+ */
+public enum CacheMode {
+    /**
+     * 同时使用caffeine cache和redis
+     */
+    L1_AND_L2,
+    /**
+     * 只使用caffeine cache，写入和删除时仍然通知其他节点
+     */
+    L1_ONLY,
+    /**
+     * 只使用redis，不使用caffeine cache，也不发送缓存事件
+     */
+    L2_ONLY
+}
@@ -1,90 +1,337 @@
 package org.example;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Policy;
 import lombok.Getter;
 import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
 import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
 import org.example.event.CacheEventEnum;
+import org.example.event.CacheEventMode;
+import org.example.event.CacheNode;
 import org.example.listener.KeyExpirationEventListener;
 import org.example.publisher.CacheEventPublisher;
+import org.example.serializer.ValueCodec;
+import org.example.support.BloomFilter;
+import org.example.support.CacheMetricsRecorder;
+import org.example.support.CaffeineExpiry;
+import org.example.support.CircuitBreaker;
+import org.example.support.DegradationStatistics;
+import org.example.support.LoadStatistics;
+import org.example.support.NegativeLookupStatistics;
+import org.example.support.OffHeapStore;
+import org.example.support.StripedLock;
 import org.springframework.cache.caffeine.CaffeineCache;
 import org.springframework.cache.support.AbstractValueAdaptingCache;
+import org.springframework.cache.support.NullValue;
+import org.springframework.core.convert.ConversionService;
+import org.springframework.dao.DataAccessException;
 import org.springframework.data.redis.cache.RedisCache;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.util.ByteUtils;
 import org.springframework.lang.NonNull;
 import org.springframework.lang.Nullable;
 import org.springframework.util.Assert;
+import org.springframework.util.ObjectUtils;
+import reactor.core.publisher.Mono;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * @author lihui
  * @since 2024/1/11
  */
+@Slf4j
 public class CaffeineRedisCache extends AbstractValueAdaptingCache {
-    public static final ConcurrentHashMap<Object, Object> LOCKS = new ConcurrentHashMap<>();
+    private static final byte[] BINARY_NULL_VALUE = RedisSerializer.java().serialize(NullValue.INSTANCE);
+    private static final String LEASE_SUFFIX = "::lease";
+    /**
+     * 重放队列中清空缓存的key
+     */
+    private static final Object CLEAR_KEY = new Object();
+    private static final byte[] RELEASE_LEASE_SCRIPT = "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) else return 0 end".getBytes(StandardCharsets.UTF_8);
     private final String name;
     @Getter
     private final CaffeineCache caffeineCache;
     @Getter
     private final RedisCache redisCache;
+    private final RedisConnectionFactory redisConnectionFactory;
+    /**
+     * caffeine cache的过期策略，为null时caffeine cache没有按key设置的过期时间
+     */
+    @Nullable
+    private final CaffeineExpiry caffeineExpiry;
+    /**
+     * 本地缓存的分段锁，只保护caffeine cache的修改，不在持有锁期间访问redis
+     */
+    private final StripedLock keyLocks = new StripedLock();
+    /**
+     * 本节点正在加载的key，用于合并同一个key的并发加载
+     */
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> loadings = new ConcurrentHashMap<>();
+    /**
+     * 本节点正在异步读取redis的key，用于合并同一个key的并发读取
+     */
+    private final ConcurrentHashMap<Object, CompletableFuture<Object>> redisReads = new ConcurrentHashMap<>();
+    @Getter
+    private final LoadStatistics loadStatistics = new LoadStatistics();
+    /**
+     * 加载租约的有效期，也是等待其他节点加载的最长时间
+     */
+    @Getter
+    @Setter
+    private Duration loadLeaseTime = Duration.ofSeconds(10);
+    /**
+     * 等待其他节点加载时轮询redis的间隔
+     */
+    @Getter
+    @Setter
+    private Duration loadPollInterval = Duration.ofMillis(50);
+    /**
+     * 缓存事件的二进制编码，value的序列化方式与redis一致
+     */
+    @Getter
+    private final CacheEventCodec cacheEventCodec;
+    /**
+     * redis中key的前缀
+     */
+    private final String redisKeyPrefix;
+    /**
+     * 序列化后的key前缀，key的序列化方式不能保证前缀不变时为null
+     */
+    @Nullable
+    private final byte[] redisKeyPrefixBytes;
     @Getter
     @Setter
     private CacheEventPublisher cacheEventPublisher;
     @Getter
     @Setter
     private KeyExpirationEventListener keyExpirationEventListener;
+    /**
+     * 缓存事件的传播方式，默认使用缓存配置中的传播方式
+     */
+    @Getter
+    @Setter
+    private CacheEventMode cacheEventMode;
+    @Getter
+    private final CaffeineRedisCacheSpec cacheSpec;
+    /**
+     * redis中value的编码，直接读写字节数组，不经过SerializationPair的ByteBuffer复制
+     */
+    @Getter
+    private final ValueCodec valueCodec;
+    /**
+     * 通过valueLoader加载的key，用于提前刷新，没有开启提前刷新时为null
+     */
+    @Nullable
+    private final Cache<Object, RefreshEntry> refreshEntries;
+    /**
+     * key写入后超过该时间被读取时提前刷新
+     */
+    private final long refreshAheadNanos;
+    /**
+     * 执行提前刷新的线程池，应当是有界的，队列已满时放弃本次刷新
+     */
+    @Setter
+    private Executor refreshExecutor;
+    /**
+     * 连接工厂不支持响应式连接时（例如jedis）执行异步API中阻塞的redis访问的线程池，应当是有界的，队列已满时异步API的结果异常完成。
+     * 为null时在调用线程中执行
+     */
+    @Setter
+    @Nullable
+    private Executor asyncExecutor;
+    /**
+     * 两级缓存都未命中的key，没有配置negativeTtl时为null
+     */
+    @Nullable
+    private final Cache<Object, Boolean> tombstones;
+    /**
+     * redis中已知的key，为null时还没有完成第一次重建，不能用于判断key不存在
+     */
+    @Nullable
+    private volatile BloomFilter bloomFilter;
+    /**
+     * 正在重建的布隆过滤器，重建期间写入的key同时添加到新的布隆过滤器
+     */
+    @Nullable
+    private volatile BloomFilter rebuildingBloomFilter;
+    private final boolean bloomFilterEnabled;
+    private final AtomicBoolean bloomFilterRebuilding = new AtomicBoolean();
+    private volatile long bloomFilterRebuiltAt;
+    @Getter
+    private final NegativeLookupStatistics negativeLookupStatistics = new NegativeLookupStatistics();
+    /**
+     * redis访问的熔断器，没有配置时为null，redis异常直接抛出
+     */
+    @Getter
+    @Nullable
+    private final CircuitBreaker circuitBreaker;
+    /**
+     * caffeine cache中已经过期的值，熔断期间代替redis返回，没有配置时为null
+     */
+    @Nullable
+    private final Cache<Object, Object> staleEntries;
+    /**
+     * 熔断期间没有写入redis的key，按key保留最后一次写入，value为null时表示删除
+     */
+    private final LinkedHashMap<Object, PendingWrite> pendingWrites = new LinkedHashMap<>();
+    @Getter
+    private final DegradationStatistics degradationStatistics = new DegradationStatistics();
+    /**
+     * 二级缓存、加载和缓存事件的指标，一级缓存的指标来自caffeine cache的统计信息
+     */
+    @Getter
+    private volatile CacheMetricsRecorder metricsRecorder = CacheMetricsRecorder.NOOP;
+    /**
+     * caffeine cache中每个key最后一次写入或应用事件的版本号，用于拒绝乱序到达的旧事件，没有配置时为null
+     */
+    @Nullable
+    private final Cache<Object, Long> keyVersions;
+    /**
+     * caffeine cache的堆外存储，caffeine cache中保存{@link OffHeapStore.Slot}，读取时反序列化，没有配置时为null
+     */
+    @Getter
+    @Nullable
+    private OffHeapStore offHeapStore;
+    /**
+     * 最后一次清空缓存的版本号，更早的事件不再应用
+     */
+    private volatile long clearedVersion;
+    /**
+     * caffeine cache中不是String的key，按转换后的字符串（redis key去掉前缀）索引，用于把redis的key过期事件还原为原来的key，
+     * 只使用本地缓存时为null。key离开caffeine cache后不删除，按容量淘汰，删除不存在的key没有影响
+     */
+    @Nullable
+    private final Cache<String, Object> localKeys;
+
+    public CaffeineRedisCache(String name, CaffeineCache caffeineCache, RedisCache redisCache, RedisConnectionFactory redisConnectionFactory, CaffeineRedisCacheSpec cacheSpec, @Nullable CaffeineExpiry caffeineExpiry, CacheEventPublisher cacheEventPublisher, KeyExpirationEventListener keyExpirationEventListener) {
+        this(name, caffeineCache, redisCache, redisConnectionFactory, cacheSpec, caffeineExpiry, ValueCodec.of(redisCache.getCacheConfiguration().getValueSerializationPair()), cacheEventPublisher, keyExpirationEventListener);
+    }
 
-    public CaffeineRedisCache(String name, CaffeineCache caffeineCache, RedisCache redisCache, CacheEventPublisher cacheEventPublisher, KeyExpirationEventListener keyExpirationEventListener) {
-        super(true);
+    /**
+     * @param valueCodec redis中value的编码，应当与redisCache配置的value序列化方式一致
+     */
+    public CaffeineRedisCache(String name, CaffeineCache caffeineCache, RedisCache redisCache, RedisConnectionFactory redisConnectionFactory, CaffeineRedisCacheSpec cacheSpec, @Nullable CaffeineExpiry caffeineExpiry, ValueCodec valueCodec, CacheEventPublisher cacheEventPublisher, KeyExpirationEventListener keyExpirationEventListener) {
+        super(redisCache.getCacheConfiguration().getAllowCacheNullValues());
+        this.valueCodec = valueCodec;
         this.name = name;
         this.caffeineCache = caffeineCache;
         this.redisCache = redisCache;
+        this.redisConnectionFactory = redisConnectionFactory;
+        this.cacheSpec = cacheSpec;
+        this.caffeineExpiry = caffeineExpiry;
+        this.cacheEventMode = cacheSpec.getEventMode();
+        this.cacheEventCodec = new CacheEventCodec(name, redisCache.getCacheConfiguration().getValueSerializationPair());
+        this.redisKeyPrefix = redisCache.getCacheConfiguration().usePrefix() ? redisCache.getCacheConfiguration().getKeyPrefixFor(name) : "";
+        byte[] prefixBytes = serializeKey(redisKeyPrefix);
+        this.redisKeyPrefixBytes = ByteUtils.startsWith(serializeKey(redisKeyPrefix + "_"), prefixBytes) ? prefixBytes : null;
         this.cacheEventPublisher = cacheEventPublisher;
         this.keyExpirationEventListener = keyExpirationEventListener;
-    }
-
-    @Override
-    public <T> T get(@NonNull Object key, Class<T> type) {
-        return lookup(key, type);
-    }
-
-    private <T> T lookup(@NonNull Object key, Class<T> type) {
-        Assert.notNull(caffeineCache, "caffeine cache not found");
-        T value = caffeineCache.get(key, type);
-        if (value != null) {
-            return value;
+        Duration ttl = redisCache.getCacheConfiguration().getTtl();
+        Double refreshAheadFactor = cacheSpec.getRefreshAheadFactor();
+        if (refreshAheadFactor != null && refreshAheadFactor > 0 && refreshAheadFactor < 1 && !ttl.isZero() && !ttl.isNegative()) {
+            this.refreshAheadNanos = (long) (ttl.toNanos() * refreshAheadFactor);
+            // 超过一个过期时间没有被读取的key不再是热点key，不再刷新
+            this.refreshEntries = Caffeine.newBuilder().maximumSize(cacheSpec.getMaximumSize()).expireAfterAccess(ttl).build();
+        } else {
+            this.refreshAheadNanos = 0;
+            this.refreshEntries = null;
         }
-        Assert.notNull(redisCache, "redis cache not found");
-        value = redisCache.get(key, type);
-        if (value != null) {
-            // 设置到一级缓存里
-            caffeineCache.put(key, value);
-            // 发送事件通知，更新其他节点的caffeine cache
-            cacheEventPublisher.publish(new CacheEvent(key, value, CacheEventEnum.UPDATE_KEY.name()));
-            return value;
+        // 只有两级缓存都使用时才能通过缓存事件维护未命中记录和布隆过滤器
+        Duration negativeTtl = cacheSpec.getNegativeTtl();
+        if (negativeTtl != null && !negativeTtl.isZero() && !negativeTtl.isNegative() && cacheSpec.getMode() == CacheMode.L1_AND_L2) {
+            this.tombstones = Caffeine.newBuilder().maximumSize(cacheSpec.getMaximumSize()).expireAfterWrite(negativeTtl).build();
+        } else {
+            this.tombstones = null;
+        }
+        this.bloomFilterEnabled = cacheSpec.getBloomFilterExpectedInsertions() != null && cacheSpec.getMode() == CacheMode.L1_AND_L2;
+        if (cacheSpec.getCircuitBreakerFailureThreshold() != null && cacheSpec.getMode() != CacheMode.L1_ONLY) {
+            this.circuitBreaker = new CircuitBreaker(name, cacheSpec.getCircuitBreakerFailureThreshold(), cacheSpec.getCircuitBreakerSlowCallThreshold(), cacheSpec.getCircuitBreakerProbeInterval());
+        } else {
+            this.circuitBreaker = null;
+        }
+        Duration versionRetention = cacheSpec.getVersionRetention();
+        if (versionRetention != null && !versionRetention.isZero() && !versionRetention.isNegative() && useLocal()) {
+            this.keyVersions = Caffeine.newBuilder().maximumSize(cacheSpec.getMaximumSize()).expireAfterWrite(versionRetention).build();
+        } else {
+            this.keyVersions = null;
+        }
+        this.localKeys = cacheSpec.getMode() == CacheMode.L1_AND_L2 ? Caffeine.newBuilder().maximumSize(cacheSpec.getMaximumSize()).build() : null;
+        Duration staleGracePeriod = cacheSpec.getStaleGracePeriod();
+        if (circuitBreaker != null && staleGracePeriod != null && cacheSpec.getMode() == CacheMode.L1_AND_L2) {
+            this.staleEntries = Caffeine.newBuilder().maximumSize(cacheSpec.getMaximumSize()).expireAfterWrite(staleGracePeriod).build();
+        } else {
+            this.staleEntries = null;
         }
-        return null;
     }
 
     @Override
     protected Object lookup(@NonNull Object key) {
-        Assert.notNull(caffeineCache, "caffeine cache not found");
-        Object value = caffeineCache.get(key, Object.class);
+        Object value = lookupLocal(key);
         if (value != null) {
+            refreshAheadIfNecessary(key);
             return value;
         }
-        Assert.notNull(redisCache, "redis cache not found");
-        value = redisCache.get(key, Object.class);
+        if (isKnownMissing(key)) {
+            return null;
+        }
+        // 读取前生成版本号，读取期间开始的写入版本号更大，不会被这次读取的值覆盖
+        long version = CacheNode.nextVersion();
+        long ticket = keyLocks.readTicket(key);
+        try {
+            value = lookupRedis(key);
+        } catch (DataAccessException e) {
+            if (circuitBreaker == null) {
+                throw e;
+            }
+            return lookupStale(key);
+        }
         if (value != null) {
             // 设置到一级缓存里
-            caffeineCache.put(key, value);
-            // 发送事件通知，更新其他节点的caffeine cache
-            cacheEventPublisher.publish(new CacheEvent(key, value, CacheEventEnum.UPDATE_KEY.name()));
-            return value;
+            fillLocal(key, value, version, ticket);
+            publishRedisHit(key, fromStoreValue(value), version);
+        } else {
+            recordMissing(key);
         }
-        return null;
+        return value;
     }
 
     @NonNull
@@ -104,19 +351,204 @@ public class CaffeineRedisCache extends AbstractValueAdaptingCache {
         return lookup(key, valueLoader);
     }
 
+    /**
+     * 依次读取caffeine cache、redis，都未命中时执行valueLoader。
+     * <p>本节点同一个key的并发请求合并为一次加载，多个节点之间通过redis租约保证同一时间只有一个节点执行valueLoader，其他节点轮询redis等待结果。
+     */
+    @SuppressWarnings("unchecked")
     private <T> T lookup(@NonNull Object key, @NonNull Callable<T> valueLoader) {
-        T call = caffeineCache.get(key, valueLoader);
-        if (call != null) {
-            return call;
+        Object value = lookupLocal(key);
+        if (value != null) {
+            refreshAheadIfNecessary(key);
+            return (T) fromStoreValue(value);
         }
-        call = redisCache.get(key, valueLoader);
-        if (call != null) {
-            // 设置到一级缓存里
-            caffeineCache.put(key, call);
-            // 发送事件通知，更新其他节点的caffeine cache
-            cacheEventPublisher.publish(new CacheEvent(key, call, CacheEventEnum.UPDATE_KEY.name()));
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = loadings.putIfAbsent(key, future);
+        if (loading != null) {
+            loadStatistics.recordCoalesced();
+            try {
+                return (T) loading.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof ValueRetrievalException) {
+                    throw (ValueRetrievalException) e.getCause();
+                }
+                throw new ValueRetrievalException(key, valueLoader, e.getCause());
+            }
+        }
+        try {
+            value = load(key, valueLoader);
+            registerRefresh(key, valueLoader);
+            future.complete(value);
+            return (T) value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadings.remove(key, future);
+        }
+    }
+
+    private Object load(Object key, Callable<?> valueLoader) {
+        if (!useRedis()) {
+            return loadAndPut(key, valueLoader);
+        }
+        try {
+            return loadWithLease(key, valueLoader);
+        } catch (DataAccessException e) {
+            if (circuitBreaker == null) {
+                throw e;
+            }
+            // redis不可用时优先返回过期保留的旧值，没有旧值时由本节点直接加载
+            Object stale = lookupStale(key);
+            return stale != null ? fromStoreValue(stale) : loadAndPut(key, valueLoader);
+        }
+    }
+
+    private Object loadWithLease(Object key, Callable<?> valueLoader) {
+        long version = CacheNode.nextVersion();
+        long ticket = keyLocks.readTicket(key);
+        Object value = isKnownMissing(key) ? null : lookupRedis(key);
+        if (value != null) {
+            loadStatistics.recordRedisHit();
+            fillLocal(key, value, version, ticket);
+            return fromStoreValue(value);
+        }
+        byte[] leaseKey = serializeKey(createRedisKey(key) + LEASE_SUFFIX);
+        byte[] leaseToken = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        long deadline = System.nanoTime() + loadLeaseTime.toNanos();
+        while (!acquireLease(leaseKey, leaseToken)) {
+            // 其他节点正在加载，轮询redis等待结果
+            sleep(key, valueLoader);
+            version = CacheNode.nextVersion();
+            ticket = keyLocks.readTicket(key);
+            value = lookupRedis(key);
+            if (value != null) {
+                loadStatistics.recordLeaseWait();
+                fillLocal(key, value, version, ticket);
+                return fromStoreValue(value);
+            }
+            if (System.nanoTime() - deadline > 0) {
+                // 等待超时，由本节点自行加载
+                loadStatistics.recordLeaseTimeout();
+                return loadAndPut(key, valueLoader);
+            }
+        }
+        try {
+            // 获取租约后再检查一次，防止其他节点刚刚加载完成
+            version = CacheNode.nextVersion();
+            ticket = keyLocks.readTicket(key);
+            value = lookupRedis(key);
+            if (value != null) {
+                loadStatistics.recordLeaseWait();
+                fillLocal(key, value, version, ticket);
+                return fromStoreValue(value);
+            }
+            return loadAndPut(key, valueLoader);
+        } finally {
+            releaseLease(leaseKey, leaseToken);
+        }
+    }
+
+    private Object loadAndPut(Object key, Callable<?> valueLoader) {
+        Object value;
+        long start = System.nanoTime();
+        try {
+            value = valueLoader.call();
+        } catch (Exception e) {
+            metricsRecorder.recordLoad(false, System.nanoTime() - start);
+            throw new ValueRetrievalException(key, valueLoader, e);
+        }
+        metricsRecorder.recordLoad(true, System.nanoTime() - start);
+        loadStatistics.recordLoad();
+        put(key, value, null);
+        return value;
+    }
+
+    /**
+     * 记录key的valueLoader，key被再次读取时用于提前刷新
+     */
+    private void registerRefresh(Object key, Callable<?> valueLoader) {
+        if (refreshEntries != null) {
+            refreshEntries.put(key, new RefreshEntry(valueLoader));
+        }
+    }
+
+    /**
+     * 命中caffeine cache时，如果key已经超过提前刷新的时间，提交到线程池异步刷新，当前请求直接返回旧值
+     */
+    private void refreshAheadIfNecessary(Object key) {
+        if (refreshEntries == null || refreshExecutor == null || (circuitBreaker != null && circuitBreaker.getState() != CircuitBreaker.State.CLOSED)) {
+            return;
+        }
+        RefreshEntry entry = refreshEntries.getIfPresent(key);
+        if (entry == null || System.nanoTime() - entry.loadedAt < refreshAheadNanos || !entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> refresh(key, entry));
+        } catch (RejectedExecutionException e) {
+            loadStatistics.recordRefreshRejected();
+            entry.refreshing.set(false);
+        }
+    }
+
+    /**
+     * 重新执行valueLoader并写入redis和caffeine cache，多个节点之间通过加载租约保证同一时间只有一个节点刷新同一个key。
+     * <p>没有获取到租约时说明其他节点正在加载或刷新，新的值通过缓存事件同步到本节点。
+     */
+    private void refresh(Object key, RefreshEntry entry) {
+        byte[] leaseKey = null;
+        byte[] leaseToken = null;
+        try {
+            if (useRedis()) {
+                leaseKey = serializeKey(createRedisKey(key) + LEASE_SUFFIX);
+                leaseToken = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+                if (!acquireLease(leaseKey, leaseToken)) {
+                    leaseKey = null;
+                    loadStatistics.recordRefreshSkipped();
+                    return;
+                }
+            }
+            Object value = entry.valueLoader.call();
+            // 刷新期间key被删除时不再写回
+            if (refreshEntries.getIfPresent(key) != entry) {
+                return;
+            }
+            put(key, value, null);
+            loadStatistics.recordRefresh();
+        } catch (Exception e) {
+            log.warn("refresh cache key error, cache: {}, key: {}", name, key, e);
+        } finally {
+            if (leaseKey != null) {
+                releaseLease(leaseKey, leaseToken);
+            }
+            entry.loadedAt = System.nanoTime();
+            entry.refreshing.set(false);
+        }
+    }
+
+    private boolean acquireLease(byte[] leaseKey, byte[] leaseToken) {
+        Boolean acquired = execute(connection -> connection.stringCommands().set(leaseKey, leaseToken, Expiration.from(loadLeaseTime), RedisStringCommands.SetOption.ifAbsent()));
+        return Boolean.TRUE.equals(acquired);
+    }
+
+    private void releaseLease(byte[] leaseKey, byte[] leaseToken) {
+        try {
+            // 只删除自己持有的租约
+            execute(connection -> connection.scriptingCommands().eval(RELEASE_LEASE_SCRIPT, ReturnType.INTEGER, 1, leaseKey, leaseToken));
+        } catch (DataAccessException e) {
+            // 租约有过期时间，释放失败不影响已经加载的值
+            log.warn("release load lease error, cache: {}", name, e);
+        }
+    }
+
+    private void sleep(Object key, Callable<?> valueLoader) {
+        try {
+            Thread.sleep(loadPollInterval.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ValueRetrievalException(key, valueLoader, e);
         }
-        return call;
     }
 
     @Override
@@ -125,46 +557,1755 @@ public class CaffeineRedisCache extends AbstractValueAdaptingCache {
     }
 
     /**
-     * 设置一个带有过期时间的缓存
+     * 设置一个带有过期时间的缓存，caffeine cache中的过期时间与redis一致
      *
      * @param key
      * @param value
-     * @param duration 过期时间
+     * @param duration 过期时间，为null时使用缓存配置的过期时间
      */
     public void put(Object key, Object value, @Nullable Duration duration) {
-        try {
-            synchronized (LOCKS.computeIfAbsent(key, o -> new Object())) {
-                caffeineCache.put(key, value);
-                ByteBuffer keyWrite = redisCache.getCacheConfiguration().getKeySerializationPair().write(key.toString());
-                ByteBuffer valueWrite = redisCache.getCacheConfiguration().getValueSerializationPair().write(value);
-                redisCache.getNativeCache().put(redisCache.getName(), keyWrite.array(), valueWrite.array(), duration);
-                // 发送事件通知，更新其他节点的caffeine cache
-                cacheEventPublisher.publish(new CacheEvent(key, value, CacheEventEnum.UPDATE_KEY.name()));
+        Duration ttl = resolveTtl(duration);
+        Object storeValue = toStoreValue(value);
+        // 同一次写入在本节点记录的版本号和事件的版本号相同
+        long version = CacheNode.nextVersion();
+        long ticket = 0;
+        // 先写redis，写入失败时不修改本地缓存
+        if (useRedis()) {
+            byte[] redisKey = serializeKey(key);
+            byte[] redisValue = serializeValue(storeValue);
+            long start = System.nanoTime();
+            ticket = beginWrite(key);
+            try {
+                callRedis(() -> {
+                    redisCache.getNativeCache().put(name, redisKey, redisValue, ttl);
+                    return null;
+                });
+            } catch (DataAccessException e) {
+                if (circuitBreaker == null) {
+                    abortWrite(key, ticket);
+                    throw e;
+                }
+                // redis不可用时只写入本地缓存，redis写入和事件在redis恢复后重放
+                putLocal(key, storeValue, ttl, version, ticket);
+                enqueueWrite(new PendingWrite(key, value, redisKey, redisValue, ttl, version));
+                return;
+            } catch (RuntimeException e) {
+                abortWrite(key, ticket);
+                throw e;
             }
-        } finally {
-            LOCKS.remove(key);
+            metricsRecorder.recordL2Write(System.nanoTime() - start);
         }
+        putLocal(key, storeValue, ttl, version, ticket);
+        publishUpdate(key, value, version);
     }
 
     @Override
     public void evict(@NonNull Object key) {
+        discardKeyState(key);
+        long version = CacheNode.nextVersion();
+        long ticket = 0;
+        if (useRedis()) {
+            byte[] redisKey = serializeKey(key);
+            long start = System.nanoTime();
+            ticket = beginWrite(key);
+            try {
+                callRedis(() -> {
+                    redisCache.getNativeCache().remove(name, redisKey);
+                    return null;
+                });
+            } catch (DataAccessException e) {
+                if (circuitBreaker == null) {
+                    abortWrite(key, ticket);
+                    throw e;
+                }
+                evictLocal(key, version, ticket);
+                enqueueWrite(new PendingWrite(key, null, redisKey, null, null, version));
+                return;
+            } catch (RuntimeException e) {
+                abortWrite(key, ticket);
+                throw e;
+            }
+            metricsRecorder.recordL2Write(System.nanoTime() - start);
+        }
+        evictLocal(key, version, ticket);
+        // 发送事件通知，删除其他节点的key
+        publish(new CacheEvent(key, CacheEventEnum.EVICT_KEY.name()), version);
+    }
+
+    /**
+     * 读取本节点的caffeine cache，不会触发caffeine cache的加载
+     *
+     * @return 缓存的值，缓存的null值为{@link NullValue}，未命中时为null
+     */
+    @Nullable
+    private Object lookupLocal(Object key) {
+        return useLocal() ? fromLocalValue(caffeineCache.getNativeCache().getIfPresent(key)) : null;
+    }
+
+    /**
+     * 转换为caffeine cache中保存的值，堆外存储时序列化后保存到直接内存
+     *
+     * @return value超过堆外存储的最大长度时为null
+     */
+    @Nullable
+    private Object toLocalValue(Object key, Object storeValue) {
+        OffHeapStore store = this.offHeapStore;
+        return store == null ? storeValue : store.put(key, serializeValue(storeValue));
+    }
+
+    /**
+     * 还原caffeine cache中保存的值，堆外存储时在读取时反序列化
+     *
+     * @return 缓存的值，缓存的null值为{@link NullValue}，未命中或堆外存储的块已经被重新使用时为null
+     */
+    @Nullable
+    private Object fromLocalValue(@Nullable Object localValue) {
+        OffHeapStore store = this.offHeapStore;
+        if (store == null || !(localValue instanceof OffHeapStore.Slot)) {
+            return localValue;
+        }
+        byte[] bytes = store.get((OffHeapStore.Slot) localValue);
+        return bytes == null ? null : deserializeValue(bytes);
+    }
+
+    /**
+     * 写入caffeine cache，使用默认的过期时间，value超过堆外存储的最大长度时删除key，不保留旧值
+     */
+    private void storeLocal(Object key, Object storeValue) {
+        Object localValue = toLocalValue(key, storeValue);
+        if (localValue == null) {
+            caffeineCache.evict(key);
+        } else {
+            caffeineCache.getNativeCache().put(key, localValue);
+        }
+    }
+
+    /**
+     * 写入caffeine cache，使用指定的过期时间，value超过堆外存储的最大长度时删除key，不保留旧值
+     */
+    private void storeLocal(Object key, Object storeValue, @Nullable Duration ttl) {
+        Object localValue = toLocalValue(key, storeValue);
+        Optional<Policy.VarExpiration<Object, Object>> varExpiration = caffeineCache.getNativeCache().policy().expireVariably();
+        if (localValue == null) {
+            caffeineCache.evict(key);
+        } else if (caffeineExpiry != null && varExpiration.isPresent()) {
+            varExpiration.get().put(key, localValue, caffeineExpiry.expireNanos(ttl), TimeUnit.NANOSECONDS);
+        } else {
+            caffeineCache.getNativeCache().put(key, localValue);
+        }
+    }
+
+    /**
+     * 读取redis
+     *
+     * @return 缓存的值，缓存的null值为{@link NullValue}，未命中时为null
+     */
+    @Nullable
+    private Object lookupRedis(Object key) {
+        if (!useRedis()) {
+            return null;
+        }
+        byte[] redisKey = serializeKey(key);
+        long start = System.nanoTime();
+        byte[] value = execute(connection -> connection.stringCommands().get(redisKey));
+        metricsRecorder.recordL2Read(value != null, System.nanoTime() - start);
+        return value == null ? null : deserializeValue(value);
+    }
+
+    /**
+     * 把从redis读取的值写入本节点的caffeine cache，使用默认的过期时间。
+     * <p>读取期间本节点或其他节点写入了更新的版本时不写入，读取的值可能已经过期。不记录读取的版本号，
+     * 读取前开始、读取后才写入redis的修改仍然可以通过事件应用。
+     *
+     * <p>读取期间本节点同一分段有写入时也不写入，本节点的写入在redis中的顺序和写入本地缓存的顺序可能不同。
+     *
+     * @param version 读取redis之前生成的版本号
+     * @param ticket  读取redis之前{@link StripedLock#readTicket(Object)}返回的序号
+     */
+    private void fillLocal(Object key, Object storeValue, long version, long ticket) {
+        if (!useLocal()) {
+            return;
+        }
+        recordPresent(key);
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            if (keyLocks.unchangedSince(key, ticket) && isNewerVersion(key, version)) {
+                storeLocal(key, storeValue);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写入本节点的caffeine cache，过期时间与redis保持一致。
+     * <p>写入redis期间本节点同一分段有其他写入时，无法确定redis中最后写入的值，删除本地缓存中的key，下次读取时从redis加载。
+     *
+     * @param version 这次写入的版本号，与发送的事件相同
+     * @param ticket  {@link #beginWrite(Object)}返回的序号
+     */
+    private void putLocal(Object key, Object storeValue, @Nullable Duration ttl, long version, long ticket) {
+        if (!useLocal()) {
+            return;
+        }
+        recordPresent(key);
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
         try {
-            synchronized (LOCKS.computeIfAbsent(key, o -> new Object())) {
+            if (!endWrite(key, ticket)) {
                 caffeineCache.evict(key);
-                redisCache.evict(key);
-                // 发送事件通知，删除其他节点的key
-                cacheEventPublisher.publish(new CacheEvent(key, CacheEventEnum.EVICT_KEY.name()));
+                recordVersion(key, version);
+            } else if (acceptVersion(key, version)) {
+                // 已经应用了更新的事件时不覆盖
+                storeLocal(key, storeValue, ttl);
             }
         } finally {
-            LOCKS.remove(key);
+            lock.unlock();
         }
     }
 
-    @Override
-    public void clear() {
-        caffeineCache.clear();
-        redisCache.clear();
-        // 发送事件通知，清空其他节点的key
-        cacheEventPublisher.publish(new CacheEvent(CacheEventEnum.CLEAR.name()));
+    /**
+     * 开始一次同时修改redis和caffeine cache的写入，在写入redis之前调用
+     *
+     * @return 写入的序号，只使用一级或二级缓存时为0
+     */
+    private long beginWrite(Object key) {
+        return useLocal() && useRedis() ? keyLocks.beginWrite(key) : 0;
+    }
+
+    /**
+     * 结束一次写入，持有key的锁时调用
+     *
+     * @return 写入期间同一分段是否没有其他写入
+     */
+    private boolean endWrite(Object key, long ticket) {
+        return ticket == 0 || keyLocks.endWrite(key, ticket);
+    }
+
+    /**
+     * redis写入失败且不修改caffeine cache时结束写入。redis可能已经执行了写入，删除本地缓存中的key
+     */
+    private void abortWrite(Object key, long ticket) {
+        if (ticket == 0) {
+            return;
+        }
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            keyLocks.endWrite(key, ticket);
+            caffeineCache.evict(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void abortWrites(Collection<?> keys, long[] tickets) {
+        int i = 0;
+        for (Object key : keys) {
+            abortWrite(key, tickets[i++]);
+        }
+    }
+
+    /**
+     * 没有指定过期时间时使用缓存配置的过期时间
+     */
+    @Nullable
+    private Duration resolveTtl(@Nullable Duration duration) {
+        return duration != null ? duration : redisCache.getCacheConfiguration().getTtl();
+    }
+
+    /**
+     * caffeine cache未命中后判断key是否一定不在redis中，先检查未命中记录，再检查布隆过滤器
+     */
+    private boolean isKnownMissing(Object key) {
+        if (tombstones != null && tombstones.getIfPresent(key) != null) {
+            negativeLookupStatistics.recordTombstoneHit();
+            return true;
+        }
+        if (!bloomFilterEnabled) {
+            return false;
+        }
+        rebuildBloomFilterIfNecessary();
+        BloomFilter filter = bloomFilter;
+        if (filter != null && !filter.mightContain(createRedisKey(key))) {
+            negativeLookupStatistics.recordBloomNegative();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 记录两级缓存都未命中的key
+     */
+    private void recordMissing(Object key) {
+        if (tombstones != null) {
+            tombstones.put(key, Boolean.TRUE);
+        }
+        // 布隆过滤器判断可能存在而redis中不存在时才是误判，没有布隆过滤器时直接读取了redis
+        BloomFilter filter = bloomFilter;
+        if (filter != null && filter.mightContain(createRedisKey(key))) {
+            negativeLookupStatistics.recordBloomFalsePositive();
+        }
+    }
+
+    /**
+     * key已经写入redis，删除未命中记录并添加到布隆过滤器，不是String的key记录转换后的字符串
+     */
+    private void recordPresent(Object key) {
+        if (tombstones != null) {
+            tombstones.invalidate(key);
+        }
+        if (localKeys != null && !(key instanceof String)) {
+            localKeys.put(convertKey(key), key);
+        }
+        if (!bloomFilterEnabled) {
+            return;
+        }
+        String redisKey = createRedisKey(key);
+        // 先添加到正在重建的布隆过滤器：读取时重建已经结束，则重建后的布隆过滤器已经替换，下面会读取到；重建还没有开始，则SCAN能读取到已经写入redis的key
+        BloomFilter filter = rebuildingBloomFilter;
+        if (filter != null) {
+            filter.put(redisKey);
+        }
+        filter = bloomFilter;
+        if (filter != null) {
+            filter.put(redisKey);
+        }
+    }
+
+    /**
+     * 还没有布隆过滤器或者超过重建间隔时，提交到线程池异步重建
+     */
+    private void rebuildBloomFilterIfNecessary() {
+        if (refreshExecutor == null) {
+            return;
+        }
+        Duration interval = cacheSpec.getBloomFilterRebuildInterval();
+        if (bloomFilter != null && (interval == null || System.nanoTime() - bloomFilterRebuiltAt < interval.toNanos())) {
+            return;
+        }
+        if (!bloomFilterRebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    rebuildBloomFilter();
+                } catch (RuntimeException e) {
+                    log.warn("rebuild bloom filter error, cache: {}", name, e);
+                } finally {
+                    bloomFilterRebuilding.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            bloomFilterRebuilding.set(false);
+        }
+    }
+
+    /**
+     * 通过SCAN读取redis中本缓存的全部key，重建布隆过滤器，重建完成前继续使用原来的布隆过滤器
+     */
+    public void rebuildBloomFilter() {
+        if (!bloomFilterEnabled) {
+            return;
+        }
+        BloomFilter filter = new BloomFilter(cacheSpec.getBloomFilterExpectedInsertions(), cacheSpec.getBloomFilterFpp());
+        rebuildingBloomFilter = filter;
+        try {
+            ScanOptions options = ScanOptions.scanOptions().match(escapePattern(redisKeyPrefix) + "*").count(1000).build();
+            execute(connection -> {
+                try (Cursor<byte[]> cursor = connection.keyCommands().scan(options)) {
+                    while (cursor.hasNext()) {
+                        String redisKey = deserializeKey(cursor.next());
+                        if (redisKey != null && !redisKey.endsWith(LEASE_SUFFIX)) {
+                            filter.put(redisKey);
+                        }
+                    }
+                }
+                return null;
+            });
+            bloomFilter = filter;
+            bloomFilterRebuiltAt = System.nanoTime();
+            negativeLookupStatistics.recordBloomRebuild();
+        } finally {
+            rebuildingBloomFilter = null;
+        }
+    }
+
+    /**
+     * 当前使用的布隆过滤器，可以获取占用的内存和误判率
+     *
+     * @return 没有配置或者还没有完成第一次重建时为null
+     */
+    @Nullable
+    public BloomFilter getBloomFilter() {
+        return bloomFilter;
+    }
+
+    /**
+     * 本地记录的未命中的key的数量
+     */
+    public long getTombstoneCount() {
+        return tombstones == null ? 0 : tombstones.estimatedSize();
+    }
+
+    private static String escapePattern(String prefix) {
+        StringBuilder builder = new StringBuilder(prefix.length());
+        for (char c : prefix.toCharArray()) {
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                builder.append('\\');
+            }
+            builder.append(c);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * 删除key的提前刷新、未命中记录和过期保留的旧值
+     */
+    private void discardKeyState(Object key) {
+        if (refreshEntries != null) {
+            refreshEntries.invalidate(key);
+        }
+        if (tombstones != null) {
+            tombstones.invalidate(key);
+        }
+        if (staleEntries != null) {
+            staleEntries.invalidate(key);
+        }
+    }
+
+    private void discardAllKeyState() {
+        if (refreshEntries != null) {
+            refreshEntries.invalidateAll();
+        }
+        if (tombstones != null) {
+            tombstones.invalidateAll();
+        }
+        if (staleEntries != null) {
+            staleEntries.invalidateAll();
+        }
+    }
+
+    /**
+     * 保留caffeine cache中过期的值，熔断期间代替redis返回
+     *
+     * @param key
+     * @param localValue caffeine cache中保存的值，堆外存储时为{@link OffHeapStore.Slot}，在释放之前读取
+     */
+    public void retainStale(@NonNull Object key, @NonNull Object localValue) {
+        if (staleEntries != null) {
+            Object storeValue = fromLocalValue(localValue);
+            if (storeValue != null) {
+                staleEntries.put(key, storeValue);
+            }
+        }
+    }
+
+    /**
+     * redis不可用时读取过期保留的旧值
+     *
+     * @return 缓存的值，缓存的null值为{@link NullValue}，没有保留时为null
+     */
+    @Nullable
+    private Object lookupStale(Object key) {
+        Object value = staleEntries == null ? null : staleEntries.getIfPresent(key);
+        if (value != null) {
+            degradationStatistics.recordStaleHit();
+        }
+        return value;
+    }
+
+    private <T> void lookupAllStale(List<Object> keys, @Nullable Class<T> type, Map<Object, T> result) {
+        for (Object key : keys) {
+            Object value = fromStoreValue(lookupStale(key));
+            if (value != null) {
+                result.put(key, cast(value, type));
+            }
+        }
+    }
+
+    /**
+     * 熔断期间的redis写入进入重放队列，队列已满时放弃
+     */
+    private void enqueueWrite(PendingWrite write) {
+        synchronized (pendingWrites) {
+            if (pendingWrites.remove(write.key) != null || pendingWrites.size() < cacheSpec.getReplayQueueCapacity()) {
+                pendingWrites.put(write.key, write);
+                degradationStatistics.recordWriteQueued();
+                return;
+            }
+        }
+        degradationStatistics.recordWriteDropped();
+    }
+
+    /**
+     * 熔断期间的清空，之前没有重放的写入已经被清空，不再重放
+     */
+    private void enqueueClear(long version) {
+        synchronized (pendingWrites) {
+            if (cacheSpec.getReplayQueueCapacity() > 0) {
+                pendingWrites.clear();
+                pendingWrites.put(CLEAR_KEY, new PendingWrite(CLEAR_KEY, null, null, null, null, version));
+                degradationStatistics.recordWriteQueued();
+                return;
+            }
+        }
+        degradationStatistics.recordWriteDropped();
+    }
+
+    /**
+     * 熔断期间没有写入redis的key的数量
+     */
+    public int getPendingWriteCount() {
+        synchronized (pendingWrites) {
+            return pendingWrites.size();
+        }
+    }
+
+    /**
+     * 熔断器打开超过探测间隔后，在后台通过PING探测redis，探测成功后重放熔断期间的写入
+     */
+    private void probeIfNecessary() {
+        if (circuitBreaker == null || !circuitBreaker.tryStartProbe()) {
+            return;
+        }
+        Runnable probe = () -> {
+            try {
+                doExecute(RedisConnection::ping);
+            } catch (RuntimeException e) {
+                circuitBreaker.onProbeFailure();
+                return;
+            }
+            circuitBreaker.onProbeSuccess();
+            replayPendingWrites();
+        };
+        try {
+            if (refreshExecutor != null) {
+                refreshExecutor.execute(probe);
+            } else {
+                CompletableFuture.runAsync(probe);
+            }
+        } catch (RejectedExecutionException e) {
+            circuitBreaker.onProbeFailure();
+        }
+    }
+
+    /**
+     * 按写入顺序重放熔断期间的写入并发送事件，再次失败时剩余的写入放回队列
+     */
+    private void replayPendingWrites() {
+        List<PendingWrite> writes;
+        synchronized (pendingWrites) {
+            writes = new ArrayList<>(pendingWrites.values());
+            pendingWrites.clear();
+        }
+        for (int i = 0; i < writes.size(); i++) {
+            PendingWrite write = writes.get(i);
+            boolean clear = write.key == CLEAR_KEY;
+            // 本地缓存已经在熔断期间写入，重放期间本节点同一分段有其他写入时删除本地缓存中的key
+            long ticket = clear ? 0 : beginWrite(write.key);
+            if (clear && useLocal()) {
+                keyLocks.beginWriteAll();
+            }
+            boolean replayed = false;
+            try {
+                if (clear) {
+                    redisCache.clear();
+                } else if (write.redisValue != null) {
+                    Expiration expiration = write.ttl == null || write.ttl.isZero() || write.ttl.isNegative() ? Expiration.persistent() : Expiration.from(write.ttl);
+                    execute(connection -> connection.stringCommands().set(write.redisKey, write.redisValue, expiration, RedisStringCommands.SetOption.upsert()));
+                } else {
+                    execute(connection -> connection.keyCommands().del(write.redisKey));
+                }
+                replayed = true;
+            } catch (DataAccessException e) {
+                requeuePendingWrites(writes.subList(i, writes.size()));
+                return;
+            } finally {
+                if (clear) {
+                    if (useLocal()) {
+                        keyLocks.endWriteAll();
+                    }
+                } else {
+                    endReplay(write.key, ticket, replayed);
+                }
+            }
+            if (clear) {
+                // 熔断期间发送的清空事件可能早于redis的清空，其他节点在此期间可能从redis重新读取了旧值，使用新的版本号再通知一次
+                publish(new CacheEvent(CacheEventEnum.CLEAR.name()), CacheNode.nextVersion());
+            } else if (write.redisValue != null) {
+                publishUpdate(write.key, write.value, write.version);
+            } else {
+                publish(new CacheEvent(write.key, CacheEventEnum.EVICT_KEY.name()), write.version);
+            }
+            degradationStatistics.recordWriteReplayed();
+        }
+    }
+
+    /**
+     * 重放失败时剩余的写入放回队列，排在重放期间新的写入之前。重放期间有新的写入时保留新的写入，有新的清空时剩余的写入不再重放
+     */
+    private void requeuePendingWrites(List<PendingWrite> remaining) {
+        synchronized (pendingWrites) {
+            if (pendingWrites.containsKey(CLEAR_KEY)) {
+                return;
+            }
+            LinkedHashMap<Object, PendingWrite> newer = new LinkedHashMap<>(pendingWrites);
+            pendingWrites.clear();
+            for (PendingWrite write : remaining) {
+                if (!newer.containsKey(write.key)) {
+                    pendingWrites.put(write.key, write);
+                }
+            }
+            pendingWrites.putAll(newer);
+        }
+    }
+
+    /**
+     * 结束一次重放，重放成功但期间同一分段有其他写入时删除本地缓存中的key，重放失败时写入仍在队列中，保留本地缓存
+     */
+    private void endReplay(Object key, long ticket, boolean replayed) {
+        if (ticket == 0) {
+            return;
+        }
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            if (!keyLocks.endWrite(key, ticket) && replayed) {
+                caffeineCache.evict(key);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 其他节点更新了key，只修改本节点的caffeine cache，不检查版本号
+     *
+     * @param key
+     * @param value
+     */
+    public void updateLocal(@NonNull Object key, @Nullable Object value) {
+        updateLocal(key, value, 0);
+    }
+
+    /**
+     * 其他节点更新了key，只修改本节点的caffeine cache
+     *
+     * @param key
+     * @param value
+     * @param version 事件的版本号，不大于本节点记录的版本号时不修改，为0时不检查
+     * @return 是否已经修改
+     */
+    public boolean updateLocal(@NonNull Object key, @Nullable Object value, long version) {
+        if (!useLocal()) {
+            return false;
+        }
+        CacheNode.observe(version);
+        recordPresent(key);
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            if (!acceptVersion(key, version)) {
+                return false;
+            }
+            storeLocal(key, toStoreValue(value));
+            keyLocks.advance(key);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * 从快照恢复本节点的caffeine cache。使用redis时先通过pipeline的GET和PTTL读取key在redis中当前的值和剩余过期时间，
+     * 已经删除的key不恢复，停止期间被修改的key使用redis中的值，caffeine cache中的过期时间不超过redis中的剩余过期时间。
+     *
+     * @param values  快照中的key和value，缓存的null值为{@link NullValue}
+     * @param version 快照的版本号，不使用redis时不大于本节点记录的版本号的key不恢复
+     * @param maxTtl  最长过期时间，为null时不限制
+     * @return 恢复的key数量
+     */
+    long restoreLocal(@NonNull Map<Object, Object> values, long version, @Nullable Duration maxTtl) {
+        if (!useLocal() || values.isEmpty()) {
+            return 0;
+        }
+        CacheNode.observe(version);
+        List<Object> keys = new ArrayList<>(values.keySet());
+        if (!useRedis()) {
+            long count = 0;
+            for (Object key : keys) {
+                recordPresent(key);
+                ReentrantLock lock = keyLocks.get(key);
+                lock.lock();
+                try {
+                    if (acceptVersion(key, version)) {
+                        storeLocal(key, values.get(key), maxTtl);
+                        keyLocks.advance(key);
+                        count++;
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            }
+            return count;
+        }
+        // 与redis中的值一致时相当于一次读取，按读取redis的规则写入caffeine cache
+        long readVersion = CacheNode.nextVersion();
+        long[] tickets = readTickets(keys);
+        List<Object> results = readWithTtl(keys);
+        long count = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            Object key = keys.get(i);
+            Object redisValue = results != null && 2 * i < results.size() ? results.get(2 * i) : null;
+            Object pttl = results != null && 2 * i + 1 < results.size() ? results.get(2 * i + 1) : null;
+            long millis = pttl instanceof Number ? ((Number) pttl).longValue() : -2;
+            // -2为key不存在，-1为不过期
+            if (!(redisValue instanceof byte[]) || millis == -2) {
+                continue;
+            }
+            Object storeValue = values.get(key);
+            if (!Arrays.equals((byte[]) redisValue, serializeValue(storeValue))) {
+                storeValue = deserializeValue((byte[]) redisValue);
+            }
+            Duration ttl = maxTtl;
+            if (millis >= 0 && (ttl == null || millis < ttl.toMillis())) {
+                ttl = Duration.ofMillis(millis);
+            }
+            recordPresent(key);
+            ReentrantLock lock = keyLocks.get(key);
+            lock.lock();
+            try {
+                if (keyLocks.unchangedSince(key, tickets[i]) && isNewerVersion(key, readVersion)) {
+                    storeLocal(key, storeValue, ttl);
+                    count++;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 通过pipeline读取key在redis中的值和剩余过期时间
+     *
+     * @return 每个key依次是GET和PTTL的结果
+     */
+    @Nullable
+    private List<Object> readWithTtl(List<Object> keys) {
+        return execute(connection -> {
+            connection.openPipeline();
+            try {
+                for (Object key : keys) {
+                    byte[] redisKey = serializeKey(key);
+                    connection.stringCommands().get(redisKey);
+                    connection.keyCommands().pTtl(redisKey);
+                }
+            } catch (RuntimeException e) {
+                connection.closePipeline();
+                throw e;
+            }
+            return connection.closePipeline();
+        });
+    }
+
+    /**
+     * 其他节点修改或删除了key，删除本节点caffeine cache中的key，不检查版本号
+     *
+     * @param key
+     */
+    public void invalidateLocal(@NonNull Object key) {
+        invalidateLocal(key, 0);
+    }
+
+    /**
+     * 其他节点修改或删除了key，删除本节点caffeine cache中的key。
+     * <p>失效模式下其他节点写入key时也只发送删除事件，所以key同样要添加到布隆过滤器。
+     *
+     * @param key
+     * @param version 事件的版本号，不大于本节点记录的版本号时不删除，为0时不检查
+     * @return 是否已经删除
+     */
+    public boolean invalidateLocal(@NonNull Object key, long version) {
+        CacheNode.observe(version);
+        recordPresent(key);
+        if (!useLocal()) {
+            return false;
+        }
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            if (!acceptVersion(key, version)) {
+                return false;
+            }
+            if (staleEntries != null) {
+                staleEntries.invalidate(key);
+            }
+            caffeineCache.evict(key);
+            keyLocks.advance(key);
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * 其他节点清空了缓存，清空本节点的caffeine cache，不检查版本号
+     */
+    public void clearLocal() {
+        clearLocal(0);
+    }
+
+    /**
+     * 其他节点清空了缓存，清空本节点的caffeine cache
+     *
+     * @param version 事件的版本号，不大于上一次清空的版本号时不清空，为0时不检查
+     * @return 是否已经清空
+     */
+    public boolean clearLocal(long version) {
+        CacheNode.observe(version);
+        if (keyVersions != null && version > 0) {
+            synchronized (keyVersions) {
+                if (version <= clearedVersion) {
+                    return false;
+                }
+                clearedVersion = version;
+            }
+        }
+        if (tombstones != null) {
+            tombstones.invalidateAll();
+        }
+        if (staleEntries != null) {
+            staleEntries.invalidateAll();
+        }
+        if (useLocal()) {
+            caffeineCache.clear();
+            keyLocks.advanceAll();
+        }
+        return true;
+    }
+
+    /**
+     * 只删除本节点caffeine cache中的key，不访问redis，也不发送事件，之后收到的更早的事件不再应用
+     *
+     * @param key
+     */
+    public void evictLocal(@NonNull Object key) {
+        evictLocal(key, CacheNode.nextVersion(), 0);
+    }
+
+    /**
+     * @param ticket {@link #beginWrite(Object)}返回的序号，没有写入redis时为0
+     */
+    private void evictLocal(Object key, long version, long ticket) {
+        if (!useLocal()) {
+            return;
+        }
+        ReentrantLock lock = keyLocks.get(key);
+        lock.lock();
+        try {
+            endWrite(key, ticket);
+            caffeineCache.evict(key);
+            recordVersion(key, version);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 本节点删除了key，记录这次删除的版本号，已经记录了更大的版本号时保留原来的版本号，持有key的锁时调用
+     */
+    private void recordVersion(Object key, long version) {
+        if (keyVersions != null) {
+            keyVersions.asMap().merge(key, version, Math::max);
+        }
+    }
+
+    /**
+     * 检查写入或事件是否比本节点记录的版本号新，是则记录这个版本号，持有key的锁时调用
+     *
+     * @param version 为0时是旧版本节点的事件，总是应用
+     */
+    private boolean acceptVersion(Object key, long version) {
+        if (!isNewerVersion(key, version)) {
+            return false;
+        }
+        if (keyVersions != null && version > 0) {
+            keyVersions.put(key, version);
+        }
+        return true;
+    }
+
+    /**
+     * 检查版本号是否比上一次清空和本节点记录的版本号新，不记录版本号，持有key的锁时调用
+     *
+     * @param version 为0时总是返回true
+     */
+    private boolean isNewerVersion(Object key, long version) {
+        if (keyVersions == null || version <= 0) {
+            return true;
+        }
+        if (version <= clearedVersion) {
+            return false;
+        }
+        Long current = keyVersions.getIfPresent(key);
+        return current == null || current < version;
+    }
+
+    /**
+     * 从redis重新读取key，用于caffeine cache的异步刷新
+     *
+     * @param key
+     * @return caffeine cache中保存的值，堆外存储时为{@link OffHeapStore.Slot}，redis中不存在或value超过堆外存储的最大长度时为null
+     */
+    @Nullable
+    public Object reloadLocal(@NonNull Object key) {
+        Object storeValue = lookupRedis(key);
+        return storeValue == null ? null : toLocalValue(key, storeValue);
+    }
+
+    /**
+     * caffeine cache中最热的key，有容量限制时按访问频率选择，否则按遍历顺序选择
+     *
+     * @param limit 最大数量
+     * @return key和缓存的值，缓存的null值为{@link NullValue}
+     */
+    public Map<Object, Object> hottestLocal(int limit) {
+        if (!useLocal()) {
+            return Collections.emptyMap();
+        }
+        Cache<Object, Object> nativeCache = caffeineCache.getNativeCache();
+        Optional<Policy.Eviction<Object, Object>> eviction = nativeCache.policy().eviction();
+        Map<Object, Object> entries = eviction.isPresent() ? eviction.get().hottest(limit) : nativeCache.asMap();
+        Map<Object, Object> hottest = new LinkedHashMap<>();
+        for (Map.Entry<Object, Object> entry : entries.entrySet()) {
+            if (hottest.size() >= limit) {
+                break;
+            }
+            Object value = fromLocalValue(entry.getValue());
+            if (value != null) {
+                hottest.put(entry.getKey(), value);
+            }
+        }
+        return hottest;
+    }
+
+    /**
+     * 设置caffeine cache的堆外存储，只能在创建后、使用前设置，caffeine cache需要在删除值时释放{@link OffHeapStore.Slot}
+     */
+    void setOffHeapStore(@Nullable OffHeapStore offHeapStore) {
+        this.offHeapStore = offHeapStore;
+    }
+
+    /**
+     * 设置指标的记录方式，缓存事件的发送指标也通过该方式记录
+     *
+     * @param metricsRecorder
+     */
+    public void setMetricsRecorder(@NonNull CacheMetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+        this.cacheEventCodec.setMetricsRecorder(metricsRecorder);
+    }
+
+    @Override
+    public void clear() {
+        discardAllKeyState();
+        long version = CacheNode.nextVersion();
+        if (keyVersions != null) {
+            synchronized (keyVersions) {
+                clearedVersion = Math.max(clearedVersion, version);
+            }
+        }
+        boolean tracked = useLocal() && useRedis();
+        if (tracked) {
+            // 清空期间完成的写入和读取不修改本地缓存
+            keyLocks.beginWriteAll();
+        }
+        try {
+            if (useLocal()) {
+                caffeineCache.clear();
+            }
+            if (useRedis()) {
+                try {
+                    callRedis(() -> {
+                        redisCache.clear();
+                        return null;
+                    });
+                } catch (DataAccessException e) {
+                    if (circuitBreaker == null) {
+                        throw e;
+                    }
+                    // redis不可用时只清空本地缓存，redis的清空在redis恢复后重放，仍然通知其他节点清空本地缓存
+                    enqueueClear(version);
+                }
+            }
+        } finally {
+            if (tracked) {
+                keyLocks.endWriteAll();
+            }
+        }
+        // 发送事件通知，清空其他节点的key
+        publish(new CacheEvent(CacheEventEnum.CLEAR.name()), version);
+    }
+
+    /**
+     * 批量获取缓存，先从caffeine cache中获取，未命中的key通过一次MGET从redis中获取
+     *
+     * @param keys
+     * @param type
+     * @return 命中的key和value，未命中的key不包含在结果中
+     */
+    public <T> Map<Object, T> getAll(@NonNull Collection<?> keys, @Nullable Class<T> type) {
+        Map<Object, T> result = new LinkedHashMap<>();
+        List<Object> missingKeys = lookupAllLocal(keys, type, result);
+        if (missingKeys.isEmpty()) {
+            return result;
+        }
+        byte[][] redisKeys = new byte[missingKeys.size()][];
+        for (int i = 0; i < redisKeys.length; i++) {
+            redisKeys[i] = serializeKey(missingKeys.get(i));
+        }
+        List<byte[]> values;
+        long version = CacheNode.nextVersion();
+        long[] tickets = readTickets(missingKeys);
+        long start = System.nanoTime();
+        try {
+            values = execute(connection -> connection.stringCommands().mGet(redisKeys));
+        } catch (DataAccessException e) {
+            if (circuitBreaker == null) {
+                throw e;
+            }
+            lookupAllStale(missingKeys, type, result);
+            return result;
+        }
+        recordL2Reads(values, redisKeys.length, System.nanoTime() - start);
+        fillAll(missingKeys, values, version, tickets, type, result);
+        return result;
+    }
+
+    /**
+     * 记录一次MGET，redis返回null时所有key都视为未命中
+     */
+    private void recordL2Reads(@Nullable List<byte[]> values, int keyCount, long nanos) {
+        int hits = 0;
+        if (values != null) {
+            for (byte[] value : values) {
+                if (value != null) {
+                    hits++;
+                }
+            }
+        }
+        metricsRecorder.recordL2Reads(hits, keyCount - hits, nanos);
+    }
+
+    /**
+     * 从caffeine cache中批量获取，命中的key放入result
+     *
+     * @return 需要从redis中获取的key
+     */
+    private <T> List<Object> lookupAllLocal(Collection<?> keys, @Nullable Class<T> type, Map<Object, T> result) {
+        if (keys.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Map<Object, Object> present = useLocal() ? caffeineCache.getNativeCache().getAllPresent(keys) : Collections.emptyMap();
+        Set<Object> missing = new LinkedHashSet<>();
+        for (Object key : keys) {
+            Object value = fromStoreValue(fromLocalValue(present.get(key)));
+            if (value != null) {
+                result.put(key, cast(value, type));
+            } else if (!isKnownMissing(key)) {
+                missing.add(key);
+            }
+        }
+        return missing.isEmpty() || !useRedis() ? Collections.emptyList() : new ArrayList<>(missing);
+    }
+
+    private long[] readTickets(List<Object> keys) {
+        long[] tickets = new long[keys.size()];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = keyLocks.readTicket(keys.get(i));
+        }
+        return tickets;
+    }
+
+    /**
+     * 把MGET的结果写入caffeine cache，命中的key放入result
+     *
+     * @param version MGET之前生成的版本号
+     * @param tickets MGET之前每个key的{@link StripedLock#readTicket(Object)}
+     */
+    private <T> void fillAll(List<Object> missingKeys, @Nullable List<byte[]> values, long version, long[] tickets, @Nullable Class<T> type, Map<Object, T> result) {
+        if (values == null) {
+            return;
+        }
+        for (int i = 0; i < values.size(); i++) {
+            byte[] bytes = values.get(i);
+            if (bytes == null) {
+                recordMissing(missingKeys.get(i));
+                continue;
+            }
+            Object storeValue = deserializeValue(bytes);
+            Object key = missingKeys.get(i);
+            // 设置到一级缓存里，二级缓存中的值没有变化，不需要通知其他节点
+            fillLocal(key, storeValue, version, tickets[i]);
+            Object value = fromStoreValue(storeValue);
+            if (value != null) {
+                result.put(key, cast(value, type));
+            }
+        }
+    }
+
+    /**
+     * 批量设置缓存，所有key使用同一个过期时间
+     *
+     * @param values
+     * @param duration 过期时间
+     */
+    public void putAll(@NonNull Map<?, ?> values, @Nullable Duration duration) {
+        putAll(values, key -> duration);
+    }
+
+    /**
+     * 批量设置缓存，redis写入通过pipeline一次性提交，并且只发送一个批量删除事件通知其他节点
+     *
+     * @param values
+     * @param durationProvider 每个key的过期时间，返回null时使用缓存配置的过期时间
+     */
+    public void putAll(@NonNull Map<?, ?> values, @NonNull Function<Object, Duration> durationProvider) {
+        if (values.isEmpty()) {
+            return;
+        }
+        List<Object> storeValues = new ArrayList<>(values.size());
+        List<Duration> durations = new ArrayList<>(values.size());
+        for (Map.Entry<?, ?> entry : values.entrySet()) {
+            storeValues.add(toStoreValue(entry.getValue()));
+            durations.add(resolveTtl(durationProvider.apply(entry.getKey())));
+        }
+        long version = CacheNode.nextVersion();
+        long[] tickets = new long[values.size()];
+        if (useRedis()) {
+            List<byte[]> redisKeys = new ArrayList<>(values.size());
+            List<byte[]> redisValues = new ArrayList<>(values.size());
+            List<Expiration> expirations = new ArrayList<>(values.size());
+            int i = 0;
+            for (Object key : values.keySet()) {
+                redisKeys.add(serializeKey(key));
+                redisValues.add(serializeValue(storeValues.get(i)));
+                Duration duration = durations.get(i++);
+                expirations.add(duration == null || duration.isZero() || duration.isNegative() ? Expiration.persistent() : Expiration.from(duration));
+            }
+            long start = System.nanoTime();
+            i = 0;
+            for (Object key : values.keySet()) {
+                tickets[i++] = beginWrite(key);
+            }
+            try {
+                execute(connection -> {
+                    connection.openPipeline();
+                    try {
+                        for (int j = 0; j < redisKeys.size(); j++) {
+                            connection.stringCommands().set(redisKeys.get(j), redisValues.get(j), expirations.get(j), RedisStringCommands.SetOption.upsert());
+                        }
+                    } finally {
+                        connection.closePipeline();
+                    }
+                    return null;
+                });
+            } catch (DataAccessException e) {
+                if (circuitBreaker == null) {
+                    abortWrites(values.keySet(), tickets);
+                    throw e;
+                }
+                i = 0;
+                for (Map.Entry<?, ?> entry : values.entrySet()) {
+                    putLocal(entry.getKey(), storeValues.get(i), durations.get(i), version, tickets[i]);
+                    enqueueWrite(new PendingWrite(entry.getKey(), entry.getValue(), redisKeys.get(i), redisValues.get(i), durations.get(i), version));
+                    i++;
+                }
+                return;
+            } catch (RuntimeException e) {
+                abortWrites(values.keySet(), tickets);
+                throw e;
+            }
+            metricsRecorder.recordL2Write(System.nanoTime() - start);
+        }
+        int i = 0;
+        for (Object key : values.keySet()) {
+            putLocal(key, storeValues.get(i), durations.get(i), version, tickets[i++]);
+        }
+        // 发送一个批量删除事件，其他节点按需从redis重新加载
+        publish(new CacheEvent(values.keySet(), CacheEventEnum.EVICT_KEYS.name()), version);
+    }
+
+    /**
+     * 批量删除缓存，redis中的key通过一次DEL删除
+     *
+     * @param keys
+     */
+    public void evictAll(@NonNull Collection<?> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        for (Object key : keys) {
+            discardKeyState(key);
+        }
+        long version = CacheNode.nextVersion();
+        long[] tickets = new long[keys.size()];
+        if (useRedis()) {
+            byte[][] redisKeys = new byte[keys.size()][];
+            int i = 0;
+            for (Object key : keys) {
+                redisKeys[i] = serializeKey(key);
+                tickets[i++] = beginWrite(key);
+            }
+            long start = System.nanoTime();
+            try {
+                execute(connection -> connection.keyCommands().del(redisKeys));
+            } catch (DataAccessException e) {
+                if (circuitBreaker == null) {
+                    abortWrites(keys, tickets);
+                    throw e;
+                }
+                i = 0;
+                for (Object key : keys) {
+                    evictLocal(key, version, tickets[i]);
+                    enqueueWrite(new PendingWrite(key, null, redisKeys[i++], null, null, version));
+                }
+                return;
+            } catch (RuntimeException e) {
+                abortWrites(keys, tickets);
+                throw e;
+            }
+            metricsRecorder.recordL2Write(System.nanoTime() - start);
+        }
+        int i = 0;
+        for (Object key : keys) {
+            evictLocal(key, version, tickets[i++]);
+        }
+        // 发送事件通知，删除其他节点的key
+        publish(new CacheEvent(keys, CacheEventEnum.EVICT_KEYS.name()), version);
+    }
+
+    /**
+     * 异步获取缓存，caffeine cache命中时直接返回，否则通过非阻塞的redis连接读取，同一个key并发的redis读取合并为一次。
+     * <p>与{@link #getAll(Collection, Class)}一样，从redis读取到的值只写入本节点，不通知其他节点。
+     *
+     * @param key
+     * @param type
+     * @return 未命中时结果为null
+     */
+    public <T> CompletableFuture<T> getAsync(@NonNull Object key, @Nullable Class<T> type) {
+        Object value = lookupLocal(key);
+        if (value != null) {
+            refreshAheadIfNecessary(key);
+            return CompletableFuture.completedFuture(castNullable(fromStoreValue(value), type));
+        }
+        return lookupRedisAsync(key).thenApply(storeValue -> castNullable(fromStoreValue(storeValue), type));
+    }
+
+    /**
+     * 异步获取缓存，两级缓存都未命中时执行valueLoader并异步写入两级缓存。
+     * <p>本节点同一个key的并发加载（包括{@link #get(Object, Callable)}）合并为一次，不使用redis租约，不会阻塞等待其他节点。
+     *
+     * @param key
+     * @param valueLoader 返回加载结果的future，不能阻塞调用线程
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> getAsync(@NonNull Object key, @NonNull Supplier<? extends CompletionStage<T>> valueLoader) {
+        Object value = lookupLocal(key);
+        if (value != null) {
+            refreshAheadIfNecessary(key);
+            return CompletableFuture.completedFuture((T) fromStoreValue(value));
+        }
+        return lookupRedisAsync(key).thenCompose(storeValue -> {
+            if (storeValue != null) {
+                loadStatistics.recordRedisHit();
+                return CompletableFuture.completedFuture((T) fromStoreValue(storeValue));
+            }
+            return (CompletableFuture<T>) loadAsync(key, valueLoader);
+        });
+    }
+
+    /**
+     * 异步批量获取缓存，未命中caffeine cache的key通过一次非阻塞的MGET从redis中获取
+     *
+     * @param keys
+     * @param type
+     * @return 命中的key和value，未命中的key不包含在结果中
+     */
+    public <T> CompletableFuture<Map<Object, T>> getAllAsync(@NonNull Collection<?> keys, @Nullable Class<T> type) {
+        Map<Object, T> result = new LinkedHashMap<>();
+        List<Object> missingKeys = lookupAllLocal(keys, type, result);
+        if (missingKeys.isEmpty()) {
+            return CompletableFuture.completedFuture(result);
+        }
+        byte[][] redisKeys = new byte[missingKeys.size()][];
+        List<ByteBuffer> redisKeyBuffers = new ArrayList<>(missingKeys.size());
+        for (int i = 0; i < redisKeys.length; i++) {
+            redisKeys[i] = serializeKey(missingKeys.get(i));
+            redisKeyBuffers.add(ByteBuffer.wrap(redisKeys[i]));
+        }
+        long version = CacheNode.nextVersion();
+        long[] tickets = readTickets(missingKeys);
+        long start = System.nanoTime();
+        return executeAsync(connection -> connection.stringCommands().mGet(redisKeyBuffers).map(buffers -> {
+            List<byte[]> values = new ArrayList<>(buffers.size());
+            for (ByteBuffer buffer : buffers) {
+                // lettuce的响应式MGET用空的buffer表示不存在的key
+                values.add(buffer.hasRemaining() ? ByteUtils.getBytes(buffer) : null);
+            }
+            return values;
+        }), connection -> connection.stringCommands().mGet(redisKeys)).thenApply(values -> {
+            recordL2Reads(values, redisKeys.length, System.nanoTime() - start);
+            fillAll(missingKeys, values, version, tickets, type, result);
+            return result;
+        });
+    }
+
+    /**
+     * 异步设置缓存，redis写入完成后再写入caffeine cache并发送事件
+     *
+     * @param key
+     * @param value
+     * @param duration 过期时间，为null时使用缓存配置的过期时间
+     * @return 事件发送完成时完成
+     */
+    public CompletableFuture<Void> putAsync(@NonNull Object key, @Nullable Object value, @Nullable Duration duration) {
+        Duration ttl = resolveTtl(duration);
+        Object storeValue = toStoreValue(value);
+        long version = CacheNode.nextVersion();
+        if (!useRedis()) {
+            putLocal(key, storeValue, ttl, version, 0);
+            return publishAsync(createUpdateEvent(key, value), version);
+        }
+        byte[] redisKey = serializeKey(key);
+        byte[] redisValue = serializeValue(storeValue);
+        Expiration expiration = ttl == null || ttl.isZero() || ttl.isNegative() ? Expiration.persistent() : Expiration.from(ttl);
+        long start = System.nanoTime();
+        long ticket = beginWrite(key);
+        return executeAsync(connection -> connection.stringCommands().set(ByteBuffer.wrap(redisKey), ByteBuffer.wrap(redisValue), expiration, RedisStringCommands.SetOption.upsert()),
+                connection -> connection.stringCommands().set(redisKey, redisValue, expiration, RedisStringCommands.SetOption.upsert())).handle((written, e) -> {
+            // 只有redis不可用时进入重放队列，其他异常（例如序列化失败、线程池已满）直接返回给调用方
+            if (e != null && (circuitBreaker == null || !(unwrap(e) instanceof DataAccessException))) {
+                abortWrite(key, ticket);
+                throw new CompletionException(unwrap(e));
+            }
+            putLocal(key, storeValue, ttl, version, ticket);
+            if (e == null) {
+                metricsRecorder.recordL2Write(System.nanoTime() - start);
+                return publishAsync(createUpdateEvent(key, value), version);
+            }
+            enqueueWrite(new PendingWrite(key, value, redisKey, redisValue, ttl, version));
+            return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * 异步删除缓存，redis删除完成后再删除caffeine cache并发送事件
+     *
+     * @param key
+     * @return 事件发送完成时完成
+     */
+    public CompletableFuture<Void> evictAsync(@NonNull Object key) {
+        discardKeyState(key);
+        long version = CacheNode.nextVersion();
+        if (!useRedis()) {
+            evictLocal(key, version, 0);
+            return publishAsync(new CacheEvent(key, CacheEventEnum.EVICT_KEY.name()), version);
+        }
+        byte[] redisKey = serializeKey(key);
+        long start = System.nanoTime();
+        long ticket = beginWrite(key);
+        return executeAsync(connection -> connection.keyCommands().del(ByteBuffer.wrap(redisKey)), connection -> connection.keyCommands().del(redisKey)).handle((deleted, e) -> {
+            evictLocal(key, version, ticket);
+            if (e == null) {
+                metricsRecorder.recordL2Write(System.nanoTime() - start);
+                return publishAsync(new CacheEvent(key, CacheEventEnum.EVICT_KEY.name()), version);
+            }
+            if (circuitBreaker == null || !(unwrap(e) instanceof DataAccessException)) {
+                throw new CompletionException(unwrap(e));
+            }
+            enqueueWrite(new PendingWrite(key, null, redisKey, null, null, version));
+            return CompletableFuture.<Void>completedFuture(null);
+        }).thenCompose(Function.identity());
+    }
+
+    /**
+     * 异步读取redis，同一个key并发的读取合并为一次，读取到的值写入caffeine cache
+     *
+     * @return 缓存的值，缓存的null值为{@link NullValue}，未命中时为null
+     */
+    private CompletableFuture<Object> lookupRedisAsync(Object key) {
+        if (!useRedis() || isKnownMissing(key)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> reading = redisReads.putIfAbsent(key, future);
+        if (reading != null) {
+            loadStatistics.recordRedisReadCoalesced();
+            return reading;
+        }
+        byte[] redisKey = serializeKey(key);
+        long version = CacheNode.nextVersion();
+        long ticket = keyLocks.readTicket(key);
+        long start = System.nanoTime();
+        executeAsync(connection -> connection.stringCommands().get(ByteBuffer.wrap(redisKey)).map(ByteUtils::getBytes), connection -> connection.stringCommands().get(redisKey)).whenComplete((bytes, e) -> {
+            redisReads.remove(key, future);
+            if (e != null) {
+                if (circuitBreaker == null) {
+                    future.completeExceptionally(e);
+                } else {
+                    future.complete(lookupStale(key));
+                }
+                return;
+            }
+            metricsRecorder.recordL2Read(bytes != null, System.nanoTime() - start);
+            Object storeValue = null;
+            try {
+                if (bytes != null) {
+                    storeValue = deserializeValue(bytes);
+                    fillLocal(key, storeValue, version, ticket);
+                } else {
+                    recordMissing(key);
+                }
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+                return;
+            }
+            future.complete(storeValue);
+        });
+        return future;
+    }
+
+    /**
+     * 异步执行valueLoader并写入两级缓存，与同步加载共用正在加载的key
+     */
+    private CompletableFuture<Object> loadAsync(Object key, Supplier<? extends CompletionStage<?>> valueLoader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> loading = loadings.putIfAbsent(key, future);
+        if (loading != null) {
+            loadStatistics.recordCoalesced();
+            return loading;
+        }
+        CompletionStage<?> stage;
+        long start = System.nanoTime();
+        try {
+            stage = valueLoader.get();
+        } catch (RuntimeException e) {
+            metricsRecorder.recordLoad(false, System.nanoTime() - start);
+            loadings.remove(key, future);
+            future.completeExceptionally(e);
+            return future;
+        }
+        stage.whenComplete((value, e) -> metricsRecorder.recordLoad(e == null, System.nanoTime() - start)).thenCompose(value -> {
+            loadStatistics.recordLoad();
+            return putAsync(key, value, null).thenApply(ignored -> (Object) value);
+        }).whenComplete((value, e) -> {
+            loadings.remove(key, future);
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else {
+                future.complete(value);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 连接工厂支持响应式连接时（例如lettuce）通过非阻塞的连接执行，否则在{@link #asyncExecutor}中使用阻塞的连接执行
+     */
+    private <T> CompletableFuture<T> executeAsync(Function<ReactiveRedisConnection, Mono<T>> callback, Function<RedisConnection, T> blockingCallback) {
+        Assert.notNull(redisConnectionFactory, "redis connection factory not found");
+        if (circuitBreaker == null) {
+            return doExecuteAsync(callback, blockingCallback);
+        }
+        if (!circuitBreaker.allowRequest()) {
+            probeIfNecessary();
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(new RedisConnectionFailureException("redis circuit breaker is open, cache: " + name));
+            return future;
+        }
+        long start = System.nanoTime();
+        return doExecuteAsync(callback, blockingCallback).whenComplete((result, e) -> {
+            if (e == null) {
+                circuitBreaker.onSuccess(System.nanoTime() - start);
+            } else if (unwrap(e) instanceof DataAccessException) {
+                circuitBreaker.onFailure();
+            }
+        });
+    }
+
+    private <T> CompletableFuture<T> doExecuteAsync(Function<ReactiveRedisConnection, Mono<T>> callback, Function<RedisConnection, T> blockingCallback) {
+        if (!(redisConnectionFactory instanceof ReactiveRedisConnectionFactory)) {
+            Executor executor = this.asyncExecutor;
+            if (executor == null) {
+                CompletableFuture<T> future = new CompletableFuture<>();
+                try {
+                    future.complete(doExecute(blockingCallback));
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            }
+            try {
+                return CompletableFuture.supplyAsync(() -> doExecute(blockingCallback), executor);
+            } catch (RejectedExecutionException e) {
+                CompletableFuture<T> future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+                return future;
+            }
+        }
+        ReactiveRedisConnection connection;
+        try {
+            connection = ((ReactiveRedisConnectionFactory) redisConnectionFactory).getReactiveConnection();
+        } catch (RuntimeException e) {
+            CompletableFuture<T> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return callback.apply(connection).doFinally(signal -> connection.close()).toFuture();
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    private boolean useLocal() {
+        return cacheSpec.getMode() != CacheMode.L2_ONLY;
+    }
+
+    private boolean useRedis() {
+        return cacheSpec.getMode() != CacheMode.L1_ONLY;
+    }
+
+    /**
+     * @param version 本节点记录的这次写入的版本号
+     */
+    private void publish(CacheEvent event, long version) {
+        // 只使用redis时其他节点没有本地缓存，不需要发送事件
+        if (!useLocal()) {
+            return;
+        }
+        event.setCacheName(name);
+        event.setVersion(version);
+        if (circuitBreaker == null) {
+            cacheEventPublisher.publish(event);
+            return;
+        }
+        try {
+            callRedis(() -> {
+                cacheEventPublisher.publish(event);
+                return null;
+            });
+        } catch (DataAccessException e) {
+            // 其他节点的本地缓存依赖自身的过期时间
+            degradationStatistics.recordEventDropped();
+        }
+    }
+
+    private CompletableFuture<Void> publishAsync(CacheEvent event, long version) {
+        if (!useLocal()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        event.setCacheName(name);
+        event.setVersion(version);
+        return cacheEventPublisher.publishAsync(event);
+    }
+
+    /**
+     * 发送key更新事件，{@link CacheEventMode#INVALIDATE}模式下只发送删除事件
+     */
+    private void publishUpdate(Object key, Object value, long version) {
+        publish(createUpdateEvent(key, value), version);
+    }
+
+    private CacheEvent createUpdateEvent(Object key, Object value) {
+        if (cacheEventMode == CacheEventMode.INVALIDATE) {
+            // 发送事件通知，删除其他节点的key
+            return new CacheEvent(key, CacheEventEnum.EVICT_KEY.name());
+        }
+        // 发送事件通知，更新其他节点的caffeine cache
+        return new CacheEvent(key, value, CacheEventEnum.UPDATE_KEY.name());
+    }
+
+    /**
+     * 二级缓存命中后通知其他节点，{@link CacheEventMode#INVALIDATE}模式下redis中的值没有变化，不发送事件
+     *
+     * @param version 读取redis之前生成的版本号，读取期间其他节点写入的事件更新，不会被这次读取的值覆盖
+     */
+    private void publishRedisHit(Object key, Object value, long version) {
+        if (cacheEventMode == CacheEventMode.UPDATE) {
+            // 发送事件通知，更新其他节点的caffeine cache
+            publish(new CacheEvent(key, value, CacheEventEnum.UPDATE_KEY.name()), version);
+        }
+    }
+
+    /**
+     * 生成redis中的key，与{@link RedisCache}的key生成规则保持一致
+     *
+     * @param key
+     * @return
+     */
+    public String createRedisKey(Object key) {
+        return redisKeyPrefix + convertKey(key);
+    }
+
+    private String convertKey(Object key) {
+        ConversionService conversionService = redisCache.getCacheConfiguration().getConversionService();
+        return key instanceof String ? (String) key : conversionService.canConvert(key.getClass(), String.class) ? conversionService.convert(key, String.class) : key.toString();
+    }
+
+    /**
+     * 把redis中的key还原为caffeine cache中的key，不属于当前缓存的key返回null。
+     * <p>先按字节比较前缀，不属于当前缓存时不做任何反序列化。写入caffeine cache的key不是String（例如Long、SimpleKey）时返回原来的key，否则返回去掉前缀的字符串。
+     *
+     * @param redisKey 序列化后的redis key
+     * @return
+     */
+    @Nullable
+    public Object toCacheKey(byte[] redisKey) {
+        if (redisKeyPrefixBytes != null && !ByteUtils.startsWith(redisKey, redisKeyPrefixBytes)) {
+            return null;
+        }
+        String key = redisCache.getCacheConfiguration().getKeySerializationPair().read(ByteBuffer.wrap(redisKey));
+        if (key == null || !key.startsWith(redisKeyPrefix)) {
+            return null;
+        }
+        String convertedKey = key.substring(redisKeyPrefix.length());
+        Object localKey = localKeys == null ? null : localKeys.getIfPresent(convertedKey);
+        return localKey != null ? localKey : convertedKey;
+    }
+
+    private byte[] serializeKey(Object key) {
+        return serializeKey(createRedisKey(key));
+    }
+
+    private byte[] serializeKey(String redisKey) {
+        return ByteUtils.getBytes(redisCache.getCacheConfiguration().getKeySerializationPair().write(redisKey));
+    }
+
+    @Nullable
+    private String deserializeKey(byte[] redisKey) {
+        return redisCache.getCacheConfiguration().getKeySerializationPair().read(ByteBuffer.wrap(redisKey));
+    }
+
+    private byte[] serializeValue(Object value) {
+        if (value instanceof NullValue) {
+            return BINARY_NULL_VALUE;
+        }
+        return valueCodec.serialize(value);
+    }
+
+    private Object deserializeValue(byte[] value) {
+        if (ObjectUtils.nullSafeEquals(value, BINARY_NULL_VALUE)) {
+            return NullValue.INSTANCE;
+        }
+        return valueCodec.deserialize(value);
+    }
+
+    @Nullable
+    private <T> T castNullable(@Nullable Object value, @Nullable Class<T> type) {
+        return value == null ? null : cast(value, type);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T cast(Object value, @Nullable Class<T> type) {
+        if (type != null && !type.isInstance(value)) {
+            throw new IllegalStateException("Cached value is not of required type [" + type.getName() + "]: " + value);
+        }
+        return (T) value;
+    }
+
+    private <T> T execute(Function<RedisConnection, T> callback) {
+        return callRedis(() -> doExecute(callback));
+    }
+
+    /**
+     * 经过熔断器访问redis，熔断器打开时直接抛出{@link RedisConnectionFailureException}
+     */
+    private <T> T callRedis(Supplier<T> call) {
+        if (circuitBreaker == null) {
+            return call.get();
+        }
+        if (!circuitBreaker.allowRequest()) {
+            probeIfNecessary();
+            throw new RedisConnectionFailureException("redis circuit breaker is open, cache: " + name);
+        }
+        long start = System.nanoTime();
+        try {
+            T result = call.get();
+            circuitBreaker.onSuccess(System.nanoTime() - start);
+            return result;
+        } catch (DataAccessException e) {
+            circuitBreaker.onFailure();
+            throw e;
+        }
+    }
+
+    private <T> T doExecute(Function<RedisConnection, T> callback) {
+        Assert.notNull(redisConnectionFactory, "redis connection factory not found");
+        RedisConnection connection = redisConnectionFactory.getConnection();
+        try {
+            return callback.apply(connection);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * 熔断期间没有写入redis的key
+     */
+    private static final class PendingWrite {
+        /**
+         * 清空缓存时为{@link #CLEAR_KEY}
+         */
+        private final Object key;
+        @Nullable
+        private final Object value;
+        /**
+         * 清空缓存时为null
+         */
+        @Nullable
+        private final byte[] redisKey;
+        /**
+         * 为null时表示删除
+         */
+        @Nullable
+        private final byte[] redisValue;
+        @Nullable
+        private final Duration ttl;
+        /**
+         * 写入时的版本号，重放后发送的事件使用该版本号
+         */
+        private final long version;
+
+        private PendingWrite(Object key, @Nullable Object value, @Nullable byte[] redisKey, @Nullable byte[] redisValue, @Nullable Duration ttl, long version) {
+            this.key = key;
+            this.value = value;
+            this.redisKey = redisKey;
+            this.redisValue = redisValue;
+            this.ttl = ttl;
+            this.version = version;
+        }
+    }
+
+    /**
+     * 提前刷新的key
+     */
+    private static final class RefreshEntry {
+        private final Callable<?> valueLoader;
+        /**
+         * 最近一次加载或刷新的时间
+         */
+        private volatile long loadedAt = System.nanoTime();
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        private RefreshEntry(Callable<?> valueLoader) {
+            this.valueLoader = valueLoader;
+        }
     }
-}
\ No newline at end of file
+}
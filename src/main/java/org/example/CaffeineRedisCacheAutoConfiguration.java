@@ -1,26 +1,37 @@
 package org.example;
 
+import com.github.benmanes.caffeine.cache.Weigher;
 import org.example.listener.DefaultCacheEventListener;
+import org.example.listener.StreamCacheEventListener;
 import org.example.listener.Topic;
+import org.example.metrics.CaffeineRedisCacheMetrics;
+import org.example.publisher.BatchingCacheEventPublisher;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.cache.CacheProperties;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.data.redis.RedisProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
-import org.springframework.data.redis.listener.ChannelTopic;
-import org.springframework.data.redis.listener.PatternTopic;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
 
+import java.nio.file.Paths;
+
 /**
  * @author lihui
  * @since 2024/1/4
  */
 @AutoConfiguration
+@EnableConfigurationProperties(CaffeineRedisCacheProperties.class)
 public class CaffeineRedisCacheAutoConfiguration {
     @Bean
     public RedisTemplate<String, Object> caffeineRedisTemplate(RedisConnectionFactory redisConnectionFactory) {
@@ -33,14 +44,40 @@ public class CaffeineRedisCacheAutoConfiguration {
         return redisTemplate;
     }
 
+    /**
+     * Caffeine-Redis缓存管理器，所有缓存共用一个事件订阅
+     *
+     * @return
+     */
+    @Bean
+    @ConditionalOnMissingBean(CaffeineRedisCacheManager.class)
+    public CaffeineRedisCacheManager caffeineRedisCacheManager(RedisCacheConfiguration redisCacheConfiguration, RedisConnectionFactory redisConnectionFactory, RedisTemplate<String, Object> caffeineRedisTemplate, RedisMessageListenerContainer redisMessageListenerContainer,
+                                                               ObjectProvider<RedisProperties> redisProperties, CaffeineRedisCacheProperties caffeineRedisCacheProperties, ObjectProvider<Weigher<Object, Object>> weigher) {
+        // 只监听当前连接的数据库的key过期事件
+        RedisProperties properties = redisProperties.getIfAvailable();
+        String keyExpirationChannel = caffeineRedisCacheProperties.getKeyExpiration().isEnabled() ? Topic.keyExpirationChannel(properties == null ? 0 : properties.getDatabase()) : null;
+        CaffeineRedisCacheManager caffeineRedisCacheManager = new CaffeineRedisCacheManager(redisCacheConfiguration, redisConnectionFactory, caffeineRedisTemplate, redisMessageListenerContainer, keyExpirationChannel);
+        // 启动时把配置转换为不可修改的缓存配置
+        caffeineRedisCacheManager.setCacheSpec(caffeineRedisCacheProperties.toDefaultSpec(weigher.getIfAvailable()));
+        caffeineRedisCacheManager.setCacheSpecs(caffeineRedisCacheProperties.toCacheSpecs(weigher.getIfAvailable()));
+        caffeineRedisCacheManager.setRefreshExecutor(CaffeineRedisCacheManager.newRefreshExecutor(caffeineRedisCacheProperties.getRefreshAhead().getThreads(), caffeineRedisCacheProperties.getRefreshAhead().getQueueCapacity()));
+        caffeineRedisCacheManager.setAsyncExecutor(CaffeineRedisCacheManager.newAsyncExecutor(caffeineRedisCacheProperties.getAsync().getThreads(), caffeineRedisCacheProperties.getAsync().getQueueCapacity()));
+        caffeineRedisCacheManager.setCaffeineExecutor(CaffeineRedisCacheManager.newCaffeineExecutor(caffeineRedisCacheProperties.getCaffeineExecutor().getThreads(), caffeineRedisCacheProperties.getCaffeineExecutor().getQueueCapacity()));
+        CaffeineRedisCacheProperties.Batching batching = caffeineRedisCacheProperties.getBatching();
+        if (batching.isEnabled()) {
+            // 开启redis stream时由StreamCacheEventListener替换
+            caffeineRedisCacheManager.setCacheEventPublisherFactory(cache -> new BatchingCacheEventPublisher(caffeineRedisTemplate, cache.getCacheEventCodec(), batching.getCapacity(), batching.getMaxBatchSize(), batching.getFlushInterval(), batching.getOverflowPolicy()));
+        }
+        return caffeineRedisCacheManager;
+    }
+
     /**
      * 默认的Caffeine-Redis缓存组件
      *
      * @return
      */
     @Bean
-    public CaffeineRedisCache caffeineRedisCache(RedisCacheConfiguration redisCacheConfiguration, RedisConnectionFactory redisConnectionFactory, RedisTemplate<String, Object> caffeineRedisTemplate) {
-        CaffeineRedisCacheManager caffeineRedisCacheManager = new CaffeineRedisCacheManager(redisCacheConfiguration, redisConnectionFactory, caffeineRedisTemplate);
+    public CaffeineRedisCache caffeineRedisCache(CaffeineRedisCacheManager caffeineRedisCacheManager) {
         return (CaffeineRedisCache) caffeineRedisCacheManager.getCache(CaffeineRedisCache.class.getName());
     }
 
@@ -84,13 +121,47 @@ public class CaffeineRedisCacheAutoConfiguration {
         return redisMessageListenerContainer;
     }
 
+    /**
+     * 缓存管理器中的事件监听器，注册为bean以开启redis的key过期通知
+     *
+     * @return
+     */
+    @Bean
+    public DefaultCacheEventListener redisKeyExpirationEventMessageListener(CaffeineRedisCacheManager caffeineRedisCacheManager) {
+        return caffeineRedisCacheManager.getCacheEventListener();
+    }
+
+    /**
+     * 开启后缓存事件通过redis stream传播，发布订阅通道不再有缓存事件
+     */
+    @Bean
+    @ConditionalOnProperty(prefix = "caffeine-redis.stream", name = "enabled", havingValue = "true")
+    public StreamCacheEventListener streamCacheEventListener(CaffeineRedisCacheManager caffeineRedisCacheManager, RedisConnectionFactory redisConnectionFactory, CaffeineRedisCacheProperties caffeineRedisCacheProperties) {
+        CaffeineRedisCacheProperties.Stream stream = caffeineRedisCacheProperties.getStream();
+        return new StreamCacheEventListener(caffeineRedisCacheManager, redisConnectionFactory, stream.getMaxLength(), stream.getBatchSize(), stream.getBlock());
+    }
+
+    /**
+     * 停止时保存caffeine cache的快照，启动时在应用就绪之前恢复
+     */
     @Bean
-    public DefaultCacheEventListener redisKeyExpirationEventMessageListener(RedisMessageListenerContainer redisMessageListenerContainer, CaffeineRedisCache caffeineRedisCache) {
-        DefaultCacheEventListener defaultCacheEventListener = new DefaultCacheEventListener(redisMessageListenerContainer, caffeineRedisCache);
-        // key过期监听通道
-        redisMessageListenerContainer.addMessageListener(defaultCacheEventListener, new PatternTopic(Topic.KEY_EXPIRATION_CHANNEL));
-        // 自定义事件监听通道
-        redisMessageListenerContainer.addMessageListener(defaultCacheEventListener, new ChannelTopic(Topic.CACHE_CHANNEL));
-        return defaultCacheEventListener;
+    @ConditionalOnProperty(prefix = "caffeine-redis.snapshot", name = "enabled", havingValue = "true")
+    public CaffeineRedisCacheSnapshot caffeineRedisCacheSnapshot(CaffeineRedisCacheManager caffeineRedisCacheManager, CaffeineRedisCacheProperties caffeineRedisCacheProperties) {
+        CaffeineRedisCacheProperties.Snapshot snapshot = caffeineRedisCacheProperties.getSnapshot();
+        return new CaffeineRedisCacheSnapshot(caffeineRedisCacheManager, Paths.get(snapshot.getPath()), snapshot.getMaxKeys(), snapshot.isIncludeValues(), snapshot.getMaxAge());
+    }
+
+    /**
+     * 引入micrometer时绑定缓存指标，MeterBinder由spring boot actuator绑定到MeterRegistry
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = "io.micrometer.core.instrument.binder.MeterBinder")
+    @ConditionalOnProperty(prefix = "caffeine-redis.metrics", name = "enabled", matchIfMissing = true)
+    static class CaffeineRedisCacheMetricsConfiguration {
+        @Bean
+        @ConditionalOnMissingBean(CaffeineRedisCacheMetrics.class)
+        public CaffeineRedisCacheMetrics caffeineRedisCacheMetrics(CaffeineRedisCacheManager caffeineRedisCacheManager) {
+            return new CaffeineRedisCacheMetrics(caffeineRedisCacheManager);
+        }
     }
 }
\ No newline at end of file
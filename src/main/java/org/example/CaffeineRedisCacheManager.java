@@ -1,53 +1,434 @@
 package org.example;
 
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import lombok.extern.slf4j.Slf4j;
+import org.example.listener.DefaultCacheEventListener;
 import org.example.listener.DefaultKeyExpirationEventListener;
+import org.example.listener.Topic;
+import org.example.publisher.CacheEventPublisher;
 import org.example.publisher.DefaultCacheEventPublisher;
+import org.example.serializer.ValueCodec;
+import org.example.support.CaffeineExpiry;
+import org.example.support.OffHeapStore;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cache.Cache;
 import org.springframework.cache.CacheManager;
 import org.springframework.cache.caffeine.CaffeineCache;
-import org.springframework.cache.caffeine.CaffeineCacheManager;
 import org.springframework.data.redis.cache.RedisCache;
 import org.springframework.data.redis.cache.RedisCacheConfiguration;
 import org.springframework.data.redis.cache.RedisCacheManager;
 import org.springframework.data.redis.cache.RedisCacheWriter;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.PatternTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
 import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * @author lihui
  * @since 2024/1/16
  */
-public class CaffeineRedisCacheManager implements CacheManager {
-    private final Map<String, Cache> cacheMap = new ConcurrentHashMap<>();
+@Slf4j
+public class CaffeineRedisCacheManager implements CacheManager, DisposableBean {
+    private final Map<String, CaffeineRedisCache> cacheMap = new ConcurrentHashMap<>();
     private final RedisTemplate<String, Object> redisTemplate;
     private final RedisCacheConfiguration redisCacheConfiguration;
     private final RedisConnectionFactory redisConnectionFactory;
+    @Nullable
+    private final RedisMessageListenerContainer redisMessageListenerContainer;
+    /**
+     * 所有缓存共用的事件监听器，按缓存名称分发事件
+     */
+    @Nullable
+    private final DefaultCacheEventListener cacheEventListener;
+
+    /**
+     * key过期事件通道，为null时不监听key过期事件
+     */
+    @Nullable
+    private final String keyExpirationChannel;
+    private volatile CaffeineRedisCacheSpec cacheSpec = CaffeineRedisCacheSpec.defaultSpec();
+    private volatile Map<String, CaffeineRedisCacheSpec> cacheSpecs = Collections.emptyMap();
+    /**
+     * 所有缓存共用的提前刷新线程池
+     */
+    private volatile ExecutorService refreshExecutor = newRefreshExecutor(2, 1000);
+    /**
+     * 所有缓存共用的异步API线程池，只在连接工厂不支持响应式连接时使用
+     */
+    private volatile ExecutorService asyncExecutor = newAsyncExecutor(8, 10000);
+    /**
+     * 所有caffeine cache共用的线程池，执行refreshAfterWrite的刷新（阻塞读取redis）、删除通知和维护任务，不占用{@code ForkJoinPool.commonPool()}
+     */
+    private volatile ExecutorService caffeineExecutor = newCaffeineExecutor(2, 1000);
+    /**
+     * 缓存创建后的回调，例如为新的缓存绑定指标
+     */
+    private final Collection<Consumer<CaffeineRedisCache>> cacheCreationListeners = new CopyOnWriteArrayList<>();
+    /**
+     * 为新创建的缓存创建事件发送方式，默认通过发布订阅发送
+     */
+    private volatile Function<CaffeineRedisCache, CacheEventPublisher> cacheEventPublisherFactory;
 
     public CaffeineRedisCacheManager(RedisCacheConfiguration redisCacheConfiguration, RedisConnectionFactory redisConnectionFactory, RedisTemplate<String, Object> redisTemplate) {
+        this(redisCacheConfiguration, redisConnectionFactory, redisTemplate, null, null);
+    }
+
+    /**
+     * @param redisCacheConfiguration
+     * @param redisConnectionFactory
+     * @param redisTemplate
+     * @param redisMessageListenerContainer 为null时不订阅缓存事件
+     * @param keyExpirationChannel          key过期事件通道，例如{@link Topic#keyExpirationChannel(int)}，为null时不监听key过期事件，只依赖caffeine cache自身的过期时间
+     */
+    public CaffeineRedisCacheManager(RedisCacheConfiguration redisCacheConfiguration, RedisConnectionFactory redisConnectionFactory, RedisTemplate<String, Object> redisTemplate, @Nullable RedisMessageListenerContainer redisMessageListenerContainer, @Nullable String keyExpirationChannel) {
         this.redisCacheConfiguration = redisCacheConfiguration;
         this.redisConnectionFactory = redisConnectionFactory;
         this.redisTemplate = redisTemplate;
+        this.redisMessageListenerContainer = redisMessageListenerContainer;
+        this.keyExpirationChannel = keyExpirationChannel;
+        if (redisMessageListenerContainer != null) {
+            this.cacheEventListener = new DefaultCacheEventListener(redisMessageListenerContainer, this);
+            if (keyExpirationChannel != null) {
+                // key过期监听通道
+                redisMessageListenerContainer.addMessageListener(cacheEventListener, keyExpirationChannel.contains("*") ? new PatternTopic(keyExpirationChannel) : new ChannelTopic(keyExpirationChannel));
+            } else {
+                // 不需要开启redis的key过期通知
+                cacheEventListener.setKeyspaceNotificationsConfigParameter("");
+            }
+            // 兼容未按缓存名称区分通道的事件
+            redisMessageListenerContainer.addMessageListener(cacheEventListener, new ChannelTopic(Topic.CACHE_CHANNEL));
+        } else {
+            this.cacheEventListener = null;
+        }
     }
 
     @Override
     public Cache getCache(@NonNull String name) {
-        Cache cache = this.cacheMap.get(name);
+        CaffeineRedisCache cache = this.cacheMap.get(name);
         if (cache == null) {
-            CaffeineCacheManager caffeineCacheManager = new CaffeineCacheManager();
-            CaffeineCache caffeineCache = (CaffeineCache) caffeineCacheManager.getCache(name);
-            RedisCacheManager redisCacheManager = RedisCacheManager.builder().cacheDefaults(redisCacheConfiguration).cacheWriter(RedisCacheWriter.lockingRedisCacheWriter(redisConnectionFactory)).build();
+            CaffeineRedisCacheSpec spec = getCacheSpec(name);
+            ValueCodec valueCodec = new ValueCodec(ValueCodec.createSerializer(spec.getValueSerializer(), redisCacheConfiguration.getValueSerializationPair(), spec.getTrustedPackages()), spec.getCompression(), spec.getCompressionThreshold());
+            RedisCacheConfiguration configuration = createRedisCacheConfiguration(spec, valueCodec);
+            CaffeineExpiry caffeineExpiry = new CaffeineExpiry(spec.getL1Ttl() != null ? spec.getL1Ttl() : configuration.getTtl(), spec.getL1Ttl(), spec.getExpiryFactor(), spec.getExpiryJitter());
+            AtomicReference<CaffeineRedisCache> reference = new AtomicReference<>();
+            // 直接内存在第一次写入时才分配，没有被使用的存储不占用内存
+            OffHeapStore offHeapStore = spec.getOffHeapCapacity() != null && spec.getMode() != CacheMode.L2_ONLY ? new OffHeapStore(spec.getOffHeapCapacity()) : null;
+            CaffeineCache caffeineCache = createCaffeineCache(name, spec, configuration, caffeineExpiry, offHeapStore, reference);
+            RedisCacheManager redisCacheManager = RedisCacheManager.builder().cacheDefaults(configuration).cacheWriter(RedisCacheWriter.lockingRedisCacheWriter(redisConnectionFactory)).build();
             RedisCache redisCache = (RedisCache) redisCacheManager.getCache(name);
-            cache = this.cacheMap.computeIfAbsent(name, v -> new CaffeineRedisCache(name, caffeineCache, redisCache, new DefaultCacheEventPublisher(redisTemplate), new DefaultKeyExpirationEventListener(caffeineCache, redisCache)));
+            cache = this.cacheMap.computeIfAbsent(name, v -> {
+                CaffeineRedisCache caffeineRedisCache = new CaffeineRedisCache(name, caffeineCache, redisCache, redisConnectionFactory, spec, caffeineExpiry, valueCodec, null, null);
+                caffeineRedisCache.setOffHeapStore(offHeapStore);
+                reference.set(caffeineRedisCache);
+                caffeineRedisCache.setCacheEventPublisher(createCacheEventPublisher(caffeineRedisCache));
+                caffeineRedisCache.setKeyExpirationEventListener(new DefaultKeyExpirationEventListener(caffeineRedisCache));
+                caffeineRedisCache.setRefreshExecutor(refreshExecutor);
+                caffeineRedisCache.setAsyncExecutor(asyncExecutor);
+                if (cacheEventListener != null) {
+                    // 只订阅本节点已经创建的缓存的事件通道
+                    redisMessageListenerContainer.addMessageListener(cacheEventListener, new ChannelTopic(Topic.cacheChannel(name)));
+                }
+                return caffeineRedisCache;
+            });
+            // 只有创建了缓存的线程通知回调
+            if (cache == reference.get()) {
+                for (Consumer<CaffeineRedisCache> listener : cacheCreationListeners) {
+                    listener.accept(cache);
+                }
+            }
         }
         return cache;
     }
 
+    /**
+     * 缓存的配置，没有单独配置的缓存使用默认配置
+     *
+     * @param name
+     * @return
+     */
+    public CaffeineRedisCacheSpec getCacheSpec(String name) {
+        CaffeineRedisCacheSpec spec = this.cacheSpecs.get(name);
+        return spec != null ? spec : this.cacheSpec;
+    }
+
+    /**
+     * 在全局的redis配置上应用缓存自己的redis配置，value统一通过valueCodec编码
+     */
+    private RedisCacheConfiguration createRedisCacheConfiguration(CaffeineRedisCacheSpec spec, ValueCodec valueCodec) {
+        RedisCacheConfiguration configuration = this.redisCacheConfiguration.serializeValuesWith(RedisSerializationContext.SerializationPair.fromSerializer(valueCodec));
+        if (spec.getRedisTtl() != null) {
+            configuration = configuration.entryTtl(spec.getRedisTtl());
+        }
+        // 缓存单独的配置优先于全局配置
+        if (Boolean.FALSE.equals(spec.getCacheNullValues())) {
+            configuration = configuration.disableCachingNullValues();
+        } else if (Boolean.TRUE.equals(spec.getCacheNullValues()) && !configuration.getAllowCacheNullValues()) {
+            configuration = enableCachingNullValues(configuration);
+        }
+        return configuration;
+    }
+
+    /**
+     * RedisCacheConfiguration只能关闭缓存null值，从默认配置复制其他配置后重新开启
+     */
+    private static RedisCacheConfiguration enableCachingNullValues(RedisCacheConfiguration source) {
+        RedisCacheConfiguration configuration = RedisCacheConfiguration.defaultCacheConfig()
+                .entryTtl(source.getTtl())
+                .serializeKeysWith(source.getKeySerializationPair())
+                .serializeValuesWith(source.getValueSerializationPair())
+                .withConversionService(source.getConversionService());
+        return source.usePrefix() ? configuration.computePrefixWith(source::getKeyPrefixFor) : configuration.disableKeyPrefix();
+    }
+
+    /**
+     * 创建带有过期策略和容量上限的caffeine cache，设置了refreshAfterWrite时从redis异步刷新。使用堆外存储时按占用的字节数淘汰，删除值后释放堆外存储
+     */
+    private CaffeineCache createCaffeineCache(String name, CaffeineRedisCacheSpec spec, RedisCacheConfiguration configuration, CaffeineExpiry caffeineExpiry, @Nullable OffHeapStore offHeapStore, AtomicReference<CaffeineRedisCache> reference) {
+        Caffeine<Object, Object> caffeine = Caffeine.newBuilder().expireAfter(caffeineExpiry).executor(caffeineExecutor);
+        if (offHeapStore != null) {
+            caffeine.maximumWeight(offHeapStore.getCapacity()).weigher(OffHeapStore::weigh);
+            caffeine.removalListener((key, value, cause) -> {
+                if (value instanceof OffHeapStore.Slot) {
+                    offHeapStore.free((OffHeapStore.Slot) value);
+                }
+            });
+        } else if (spec.getMaximumWeight() != null) {
+            if (spec.getWeigher() == null) {
+                throw new IllegalStateException("cache " + name + " sets maximumWeight without a weigher");
+            }
+            caffeine.maximumWeight(spec.getMaximumWeight()).weigher(spec.getWeigher());
+        } else {
+            caffeine.maximumSize(spec.getMaximumSize());
+        }
+        if (spec.isRecordStats()) {
+            caffeine.recordStats();
+        }
+        if (spec.getStaleGracePeriod() != null && spec.getCircuitBreakerFailureThreshold() != null) {
+            // 过期的值继续保留一段时间，redis熔断期间使用
+            caffeine.evictionListener((key, value, cause) -> {
+                CaffeineRedisCache caffeineRedisCache = reference.get();
+                if (cause == RemovalCause.EXPIRED && key != null && value != null && caffeineRedisCache != null) {
+                    caffeineRedisCache.retainStale(key, value);
+                }
+            });
+        }
+        com.github.benmanes.caffeine.cache.Cache<Object, Object> nativeCache;
+        if (spec.getRefreshAfterWrite() == null || spec.getMode() != CacheMode.L1_AND_L2) {
+            nativeCache = caffeine.build();
+        } else {
+            caffeine.refreshAfterWrite(spec.getRefreshAfterWrite());
+            nativeCache = caffeine.build(new CacheLoader<Object, Object>() {
+                @Override
+                public Object load(@NonNull Object key) {
+                    // 未命中时不加载，由CaffeineRedisCache读取redis
+                    return null;
+                }
+
+                @Override
+                public Object reload(@NonNull Object key, @NonNull Object oldValue) {
+                    CaffeineRedisCache caffeineRedisCache = reference.get();
+                    return caffeineRedisCache == null ? oldValue : caffeineRedisCache.reloadLocal(key);
+                }
+            });
+        }
+        if (offHeapStore != null) {
+            // 堆外存储回收页后删除失效的key，只删除仍然是该块的key，caffeine cache不再计算它们的权重
+            offHeapStore.setReclaimListener(slot -> nativeCache.asMap().remove(slot.getKey(), slot));
+        }
+        return new CaffeineCache(name, nativeCache, configuration.getAllowCacheNullValues());
+    }
+
+    /**
+     * 设置之后创建的缓存使用的配置
+     *
+     * @param cacheSpecs 缓存名称和配置
+     */
+    public void setCacheSpecs(@NonNull Map<String, CaffeineRedisCacheSpec> cacheSpecs) {
+        this.cacheSpecs = Collections.unmodifiableMap(new HashMap<>(cacheSpecs));
+    }
+
+    /**
+     * 设置之后创建的缓存使用的默认配置
+     *
+     * @param cacheSpec
+     */
+    public void setCacheSpec(@NonNull CaffeineRedisCacheSpec cacheSpec) {
+        this.cacheSpec = cacheSpec;
+    }
+
+    private CacheEventPublisher createCacheEventPublisher(CaffeineRedisCache caffeineRedisCache) {
+        Function<CaffeineRedisCache, CacheEventPublisher> factory = this.cacheEventPublisherFactory;
+        return factory == null ? new DefaultCacheEventPublisher(redisTemplate, caffeineRedisCache.getCacheEventCodec()) : factory.apply(caffeineRedisCache);
+    }
+
+    /**
+     * 设置之后创建的缓存使用的事件发送方式，已经创建的缓存需要通过{@link CaffeineRedisCache#setCacheEventPublisher(CacheEventPublisher)}替换
+     *
+     * @param cacheEventPublisherFactory
+     */
+    public void setCacheEventPublisherFactory(@NonNull Function<CaffeineRedisCache, CacheEventPublisher> cacheEventPublisherFactory) {
+        this.cacheEventPublisherFactory = cacheEventPublisherFactory;
+    }
+
+    /**
+     * 设置之后创建的缓存使用的提前刷新线程池，原来的线程池会被关闭
+     *
+     * @param refreshExecutor 应当是有界的，队列已满时抛出{@link java.util.concurrent.RejectedExecutionException}
+     */
+    public void setRefreshExecutor(@NonNull ExecutorService refreshExecutor) {
+        ExecutorService previous = this.refreshExecutor;
+        this.refreshExecutor = refreshExecutor;
+        previous.shutdown();
+    }
+
+    /**
+     * 创建提前刷新使用的有界线程池，空闲时不保留线程
+     *
+     * @param threads       线程数量
+     * @param queueCapacity 等待刷新的key的最大数量
+     * @return
+     */
+    public static ExecutorService newRefreshExecutor(int threads, int queueCapacity) {
+        return newExecutor("caffeine-redis-refresh-", threads, queueCapacity);
+    }
+
+    /**
+     * 设置之后创建的缓存使用的异步API线程池，原来的线程池会被关闭。连接工厂不支持响应式连接时（例如jedis），异步API在该线程池中使用阻塞的连接访问redis
+     *
+     * @param asyncExecutor 应当是有界的，队列已满时异步API的结果以{@link java.util.concurrent.RejectedExecutionException}异常完成
+     */
+    public void setAsyncExecutor(@NonNull ExecutorService asyncExecutor) {
+        ExecutorService previous = this.asyncExecutor;
+        this.asyncExecutor = asyncExecutor;
+        previous.shutdown();
+    }
+
+    /**
+     * 创建异步API使用的有界线程池，空闲时不保留线程，使用响应式连接时不会创建线程
+     *
+     * @param threads       线程数量，即同时阻塞访问redis的最大数量
+     * @param queueCapacity 等待执行的redis访问的最大数量
+     * @return
+     */
+    public static ExecutorService newAsyncExecutor(int threads, int queueCapacity) {
+        return newExecutor("caffeine-redis-async-", threads, queueCapacity);
+    }
+
+    /**
+     * 设置之后创建的caffeine cache使用的线程池，原来的线程池会被关闭
+     *
+     * @param caffeineExecutor 应当是有界的，并且不能丢弃任务：删除通知被丢弃时堆外存储不会释放
+     */
+    public void setCaffeineExecutor(@NonNull ExecutorService caffeineExecutor) {
+        ExecutorService previous = this.caffeineExecutor;
+        this.caffeineExecutor = caffeineExecutor;
+        previous.shutdown();
+    }
+
+    /**
+     * 创建caffeine cache使用的有界线程池，空闲时不保留线程，队列已满或线程池已经关闭时在调用线程中执行
+     *
+     * @param threads       线程数量，即同时刷新的最大key数量
+     * @param queueCapacity 等待执行的任务的最大数量
+     * @return
+     */
+    public static ExecutorService newCaffeineExecutor(int threads, int queueCapacity) {
+        return newExecutor("caffeine-redis-caffeine-", threads, queueCapacity, (task, executor) -> task.run());
+    }
+
+    private static ExecutorService newExecutor(String threadNamePrefix, int threads, int queueCapacity) {
+        return newExecutor(threadNamePrefix, threads, queueCapacity, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static ExecutorService newExecutor(String threadNamePrefix, int threads, int queueCapacity, RejectedExecutionHandler rejectedExecutionHandler) {
+        CustomizableThreadFactory threadFactory = new CustomizableThreadFactory(threadNamePrefix);
+        threadFactory.setDaemon(true);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), threadFactory, rejectedExecutionHandler);
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 关闭提前刷新、异步API和caffeine cache的线程池，并销毁缓存使用的事件发送方式，例如发送{@link org.example.publisher.BatchingCacheEventPublisher}队列中剩余的事件
+     */
+    @Override
+    public void destroy() {
+        refreshExecutor.shutdown();
+        asyncExecutor.shutdown();
+        caffeineExecutor.shutdown();
+        for (CaffeineRedisCache caffeineRedisCache : cacheMap.values()) {
+            CacheEventPublisher cacheEventPublisher = caffeineRedisCache.getCacheEventPublisher();
+            if (cacheEventPublisher instanceof DisposableBean) {
+                try {
+                    ((DisposableBean) cacheEventPublisher).destroy();
+                } catch (Exception e) {
+                    log.warn("cache {} event publisher destroy failed", caffeineRedisCache.getName(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取已经创建的缓存，不存在时不会创建
+     *
+     * @param name
+     * @return
+     */
+    @Nullable
+    public CaffeineRedisCache lookupCache(@Nullable String name) {
+        return name == null ? null : this.cacheMap.get(name);
+    }
+
+    /**
+     * 已经创建的全部缓存
+     *
+     * @return
+     */
+    public Collection<CaffeineRedisCache> getCaches() {
+        return Collections.unmodifiableCollection(this.cacheMap.values());
+    }
+
+    /**
+     * 添加缓存创建后的回调，已经创建的缓存不会回调，需要通过{@link #getCaches()}获取
+     *
+     * @param listener
+     */
+    public void addCacheCreationListener(@NonNull Consumer<CaffeineRedisCache> listener) {
+        this.cacheCreationListeners.add(listener);
+    }
+
+    @Nullable
+    public DefaultCacheEventListener getCacheEventListener() {
+        return cacheEventListener;
+    }
+
+    @Nullable
+    public String getKeyExpirationChannel() {
+        return keyExpirationChannel;
+    }
+
     @NonNull
     @Override
     public Collection<String> getCacheNames() {
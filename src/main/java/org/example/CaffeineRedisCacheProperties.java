@@ -0,0 +1,392 @@
+package org.example;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import lombok.Data;
+import org.example.event.CacheEventMode;
+import org.example.publisher.BatchingCacheEventPublisher;
+import org.example.serializer.CompressionAlgorithm;
+import org.example.serializer.ValueSerializer;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caffeine-Redis缓存配置，以caffeine-redis开头
+ *
+ * @author lihui
+ * @since 2024/2/7
+ */
+@Data
+@ConfigurationProperties(prefix = "caffeine-redis")
+public class CaffeineRedisCacheProperties {
+    private KeyExpiration keyExpiration = new KeyExpiration();
+    private RefreshAhead refreshAhead = new RefreshAhead();
+    private Async async = new Async();
+    private CaffeineExecutor caffeineExecutor = new CaffeineExecutor();
+    private Batching batching = new Batching();
+    private Metrics metrics = new Metrics();
+    private Stream stream = new Stream();
+    private Snapshot snapshot = new Snapshot();
+    /**
+     * 所有缓存的默认配置
+     */
+    private Spec defaults = new Spec();
+    /**
+     * 按缓存名称单独配置，没有配置的项使用默认配置
+     */
+    private Map<String, Spec> caches = new LinkedHashMap<>();
+
+    /**
+     * 转换为不可修改的缓存配置
+     *
+     * @param weigher 配置了maximumWeight时使用的权重计算方式
+     * @return
+     * @throws IllegalStateException 配置了maximumWeight但是没有提供weigher
+     */
+    public CaffeineRedisCacheSpec toDefaultSpec(@Nullable Weigher<Object, Object> weigher) {
+        return defaults.apply(CaffeineRedisCacheSpec.defaultSpec(), weigher, "caffeine-redis.defaults");
+    }
+
+    /**
+     * 转换为不可修改的缓存配置
+     *
+     * @param weigher 配置了maximumWeight时使用的权重计算方式
+     * @return 缓存名称和配置
+     * @throws IllegalStateException 配置了maximumWeight但是没有提供weigher
+     */
+    public Map<String, CaffeineRedisCacheSpec> toCacheSpecs(@Nullable Weigher<Object, Object> weigher) {
+        CaffeineRedisCacheSpec defaultSpec = toDefaultSpec(weigher);
+        Map<String, CaffeineRedisCacheSpec> specs = new HashMap<>();
+        caches.forEach((name, spec) -> specs.put(name, spec.apply(defaultSpec, weigher, "caffeine-redis.caches." + name)));
+        return specs;
+    }
+
+    @Data
+    public static class KeyExpiration {
+        /**
+         * 是否监听redis的key过期事件，关闭后只依赖caffeine cache自身的过期时间
+         */
+        private boolean enabled = true;
+    }
+
+    @Data
+    public static class RefreshAhead {
+        /**
+         * 提前刷新的线程数量，所有缓存共用
+         */
+        private int threads = 2;
+        /**
+         * 等待刷新的key的最大数量，超过后放弃刷新
+         */
+        private int queueCapacity = 1000;
+    }
+
+    @Data
+    public static class Async {
+        /**
+         * 连接工厂不支持响应式连接时（例如jedis），异步API阻塞访问redis的线程数量，所有缓存共用
+         */
+        private int threads = 8;
+        /**
+         * 等待执行的redis访问的最大数量，超过后异步API的结果异常完成
+         */
+        private int queueCapacity = 10000;
+    }
+
+    @Data
+    public static class CaffeineExecutor {
+        /**
+         * caffeine cache执行refresh-after-write刷新、删除通知和维护任务的线程数量，所有缓存共用
+         */
+        private int threads = 2;
+        /**
+         * 等待执行的任务的最大数量，超过后在调用线程中执行
+         */
+        private int queueCapacity = 1000;
+    }
+
+    @Data
+    public static class Batching {
+        /**
+         * 是否异步批量发送缓存事件，开启redis stream时不生效
+         */
+        private boolean enabled = false;
+        /**
+         * 每个缓存等待发送的事件的最大数量
+         */
+        private int capacity = 10000;
+        /**
+         * 每条消息最多合并的事件数量
+         */
+        private int maxBatchSize = 500;
+        /**
+         * 后台线程的发送间隔
+         */
+        private Duration flushInterval = Duration.ofMillis(10);
+        /**
+         * 队列满时的处理方式，DROP丢弃新的事件，CALLER_RUNS由调用线程发送
+         */
+        private BatchingCacheEventPublisher.OverflowPolicy overflowPolicy = BatchingCacheEventPublisher.OverflowPolicy.DROP;
+    }
+
+    @Data
+    public static class Metrics {
+        /**
+         * 引入micrometer时是否绑定缓存指标
+         */
+        private boolean enabled = true;
+    }
+
+    @Data
+    public static class Stream {
+        /**
+         * 是否通过redis stream传播缓存事件，节点断开后可以补读断开期间的事件
+         */
+        private boolean enabled = false;
+        /**
+         * 每个缓存的stream保留的最大事件消息数量，近似裁剪
+         */
+        private long maxLength = 10000;
+        /**
+         * 每次从一个stream读取的最大事件消息数量
+         */
+        private int batchSize = 100;
+        /**
+         * 没有新事件时的阻塞时间，也是读取失败后的重试间隔
+         */
+        private Duration block = Duration.ofSeconds(1);
+    }
+
+    @Data
+    public static class Snapshot {
+        /**
+         * 是否在停止时保存caffeine cache的快照，启动时恢复
+         */
+        private boolean enabled = false;
+        /**
+         * 快照文件，应当在重新启动后仍然保留
+         */
+        private String path = "caffeine-redis.snapshot";
+        /**
+         * 每个缓存保存的最大key数量
+         */
+        private int maxKeys = 10000;
+        /**
+         * 是否同时保存value，保存时启动后与redis中当前的值比较后写入caffeine cache，否则通过MGET从redis预热
+         */
+        private boolean includeValues = false;
+        /**
+         * 包含value的快照的最长有效时间，超过后只使用其中的key从redis预热
+         */
+        private Duration maxAge = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Spec {
+        /**
+         * caffeine cache的最大数量
+         */
+        private Long maximumSize;
+        /**
+         * caffeine cache的最大权重，需要提供{@link Weigher}
+         */
+        private Long maximumWeight;
+        /**
+         * caffeine cache的堆外存储容量，例如256MB，配置后value序列化保存在直接内存中，按容量淘汰
+         */
+        private DataSize offHeapCapacity;
+        /**
+         * caffeine cache是否记录统计信息
+         */
+        private Boolean recordStats;
+        /**
+         * caffeine cache的最长过期时间
+         */
+        private Duration l1Ttl;
+        /**
+         * caffeine cache中的key写入多久之后从redis异步刷新
+         */
+        private Duration refreshAfterWrite;
+        /**
+         * 通过valueLoader加载的key，超过redis过期时间的该比例后被读取时异步重新加载
+         */
+        private Double refreshAheadFactor;
+        /**
+         * caffeine cache过期时间相对redis过期时间的比例
+         */
+        private Double expiryFactor;
+        /**
+         * caffeine cache过期时间随机缩短的最大比例
+         */
+        private Double expiryJitter;
+        /**
+         * redis的过期时间
+         */
+        private Duration redisTtl;
+        /**
+         * 是否缓存null值，设置时优先于spring.cache.redis.cache-null-values
+         */
+        private Boolean cacheNullValues;
+        /**
+         * 两级缓存都未命中的key在本地记录的时间
+         */
+        private Duration negativeTtl;
+        /**
+         * 布隆过滤器预计的key数量
+         */
+        private Long bloomFilterExpectedInsertions;
+        /**
+         * 布隆过滤器预计的误判率
+         */
+        private Double bloomFilterFpp;
+        /**
+         * 布隆过滤器扫描redis重建的间隔
+         */
+        private Duration bloomFilterRebuildInterval;
+        /**
+         * redis连续失败或慢调用多少次后熔断
+         */
+        private Integer circuitBreakerFailureThreshold;
+        /**
+         * redis调用超过该时间记为失败
+         */
+        private Duration circuitBreakerSlowCallThreshold;
+        /**
+         * 熔断后多久开始探测redis是否恢复
+         */
+        private Duration circuitBreakerProbeInterval;
+        /**
+         * caffeine cache中过期的key继续保留的时间，熔断期间返回保留的旧值
+         */
+        private Duration staleGracePeriod;
+        /**
+         * 熔断期间redis写入的重放队列容量
+         */
+        private Integer replayQueueCapacity;
+        /**
+         * redis中value的序列化方式，DEFAULT、JDK、JACKSON、SMILE
+         */
+        private ValueSerializer valueSerializer;
+        /**
+         * redis中value的压缩算法，NONE、DEFLATE、LZ4
+         */
+        private CompressionAlgorithm compression;
+        /**
+         * 序列化后超过该字节数时压缩
+         */
+        private Integer compressionThreshold;
+        /**
+         * JACKSON和SMILE反序列化时允许的类型的包名，java.lang、java.util、java.time、java.math总是允许
+         */
+        private List<String> trustedPackages;
+        /**
+         * 按key记录版本号的时间，拒绝乱序到达的旧事件
+         */
+        private Duration versionRetention;
+        /**
+         * 缓存使用的层级
+         */
+        private CacheMode mode;
+        /**
+         * 缓存事件的传播方式
+         */
+        private CacheEventMode eventMode;
+
+        CaffeineRedisCacheSpec apply(CaffeineRedisCacheSpec base, @Nullable Weigher<Object, Object> weigher, String prefix) {
+            CaffeineRedisCacheSpec.CaffeineRedisCacheSpecBuilder builder = base.toBuilder();
+            if (maximumSize != null) {
+                builder.maximumSize(maximumSize);
+            }
+            if (maximumWeight != null) {
+                // 没有weigher时不能按权重淘汰，启动失败，避免静默地使用maximumSize
+                if (weigher == null) {
+                    throw new IllegalStateException(prefix + ".maximum-weight requires a Weigher<Object, Object> bean");
+                }
+                builder.maximumWeight(maximumWeight).weigher(weigher);
+            }
+            if (offHeapCapacity != null) {
+                builder.offHeapCapacity(offHeapCapacity.toBytes());
+            }
+            if (recordStats != null) {
+                builder.recordStats(recordStats);
+            }
+            if (l1Ttl != null) {
+                builder.l1Ttl(l1Ttl);
+            }
+            if (refreshAfterWrite != null) {
+                builder.refreshAfterWrite(refreshAfterWrite);
+            }
+            if (refreshAheadFactor != null) {
+                builder.refreshAheadFactor(refreshAheadFactor);
+            }
+            if (expiryFactor != null) {
+                builder.expiryFactor(expiryFactor);
+            }
+            if (expiryJitter != null) {
+                builder.expiryJitter(expiryJitter);
+            }
+            if (redisTtl != null) {
+                builder.redisTtl(redisTtl);
+            }
+            if (cacheNullValues != null) {
+                builder.cacheNullValues(cacheNullValues);
+            }
+            if (negativeTtl != null) {
+                builder.negativeTtl(negativeTtl);
+            }
+            if (bloomFilterExpectedInsertions != null) {
+                builder.bloomFilterExpectedInsertions(bloomFilterExpectedInsertions);
+            }
+            if (bloomFilterFpp != null) {
+                builder.bloomFilterFpp(bloomFilterFpp);
+            }
+            if (bloomFilterRebuildInterval != null) {
+                builder.bloomFilterRebuildInterval(bloomFilterRebuildInterval);
+            }
+            if (circuitBreakerFailureThreshold != null) {
+                builder.circuitBreakerFailureThreshold(circuitBreakerFailureThreshold);
+            }
+            if (circuitBreakerSlowCallThreshold != null) {
+                builder.circuitBreakerSlowCallThreshold(circuitBreakerSlowCallThreshold);
+            }
+            if (circuitBreakerProbeInterval != null) {
+                builder.circuitBreakerProbeInterval(circuitBreakerProbeInterval);
+            }
+            if (staleGracePeriod != null) {
+                builder.staleGracePeriod(staleGracePeriod);
+            }
+            if (replayQueueCapacity != null) {
+                builder.replayQueueCapacity(replayQueueCapacity);
+            }
+            if (valueSerializer != null) {
+                builder.valueSerializer(valueSerializer);
+            }
+            if (compression != null) {
+                builder.compression(compression);
+            }
+            if (compressionThreshold != null) {
+                builder.compressionThreshold(compressionThreshold);
+            }
+            if (trustedPackages != null) {
+                builder.trustedPackages(new LinkedHashSet<>(trustedPackages));
+            }
+            if (versionRetention != null) {
+                builder.versionRetention(versionRetention);
+            }
+            if (mode != null) {
+                builder.mode(mode);
+            }
+            if (eventMode != null) {
+                builder.eventMode(eventMode);
+            }
+            return builder.build();
+        }
+    }
+}
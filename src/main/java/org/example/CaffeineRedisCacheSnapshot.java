@@ -0,0 +1,263 @@
+package org.example;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.springframework.cache.support.NullValue;
+import org.springframework.context.SmartLifecycle;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * caffeine cache的快照，停止时把每个缓存最热的key写入本地文件，启动时在应用就绪之前恢复，避免重新部署后所有节点同时从redis读取全部热点数据。
+ * <p>文件格式：文件头 magic(4) | 格式版本(1) | 是否包含value(1) | 保存时间(8)，之后是多个 长度(4) | 消息，
+ * 消息使用{@link CacheEventCodec}编码，每条消息包含同一个缓存的最多{@value #CHUNK_SIZE}个key。
+ * 只保存key时消息是一个EVICT_KEYS事件，启动时按批通过MGET从redis预热；包含value时是UPDATE_KEY事件，启动时写入caffeine cache，
+ * 使用redis的缓存先通过pipeline的GET和PTTL读取key当前的值，已经删除的key不恢复，与快照中的value不一致时使用redis中的值，
+ * 过期时间不超过redis中的剩余过期时间，也不超过缓存的过期时间和快照的有效时间减去快照已经保存的时间。
+ * 写入时逐条写入临时文件后替换，读取时映射整个文件。
+ *
+ * @author lihui
+ * @since 2024/3/14
+ */
+@Slf4j
+public class CaffeineRedisCacheSnapshot implements SmartLifecycle {
+    private static final int MAGIC = 0x43525331;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = 4 + 1 + 1 + 8;
+    /**
+     * 每条消息包含的最大key数量，也是预热时每次MGET的key数量
+     */
+    private static final int CHUNK_SIZE = 500;
+    private final CaffeineRedisCacheManager caffeineRedisCacheManager;
+    private final Path path;
+    private final int maxKeys;
+    private final boolean includeValues;
+    private final Duration maxAge;
+    private volatile boolean running;
+
+    /**
+     * @param caffeineRedisCacheManager
+     * @param path                      快照文件，应当在重新启动后仍然保留
+     * @param maxKeys                   每个缓存保存的最大key数量
+     * @param includeValues             是否保存value，保存时只使用一级缓存的缓存启动后不需要访问redis
+     * @param maxAge                    包含value的快照的最长有效时间，超过后只使用其中的key从redis预热
+     */
+    public CaffeineRedisCacheSnapshot(CaffeineRedisCacheManager caffeineRedisCacheManager, Path path, int maxKeys, boolean includeValues, Duration maxAge) {
+        this.caffeineRedisCacheManager = caffeineRedisCacheManager;
+        this.path = path;
+        this.maxKeys = maxKeys;
+        this.includeValues = includeValues;
+        this.maxAge = maxAge;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        try {
+            restore();
+        } catch (IOException | RuntimeException e) {
+            // 快照只用于预热，不影响启动
+            log.warn("cache snapshot {} restore failed", path, e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        try {
+            save();
+        } catch (IOException | RuntimeException e) {
+            log.warn("cache snapshot {} save failed", path, e);
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 保存所有缓存的快照，替换原来的文件
+     *
+     * @return 保存的key数量
+     * @throws IOException
+     */
+    public long save() throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.putInt(MAGIC).put(FORMAT_VERSION).put((byte) (includeValues ? 1 : 0)).putLong(System.currentTimeMillis());
+            header.flip();
+            write(channel, header);
+            // 快照中的value不比保存时更旧，启动后收到的事件版本号都更大
+            long version = CacheNode.nextVersion();
+            for (CaffeineRedisCache cache : caffeineRedisCacheManager.getCaches()) {
+                if (cache.getCacheSpec().getMode() != CacheMode.L2_ONLY) {
+                    count += save(channel, cache, version);
+                }
+            }
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("cache snapshot {} saved, {} keys", path, count);
+        return count;
+    }
+
+    private long save(FileChannel channel, CaffeineRedisCache cache, long version) throws IOException {
+        CacheEventCodec codec = codec(cache);
+        List<CacheEvent> events = new ArrayList<>(includeValues ? CHUNK_SIZE : 1);
+        List<Object> keys = new ArrayList<>(CHUNK_SIZE);
+        long count = 0;
+        for (Map.Entry<Object, Object> entry : cache.hottestLocal(maxKeys).entrySet()) {
+            if (includeValues) {
+                CacheEvent event = new CacheEvent(entry.getKey(), entry.getValue(), CacheEventEnum.UPDATE_KEY.name());
+                event.setVersion(version);
+                events.add(event);
+            } else {
+                keys.add(entry.getKey());
+            }
+            if (++count % CHUNK_SIZE == 0) {
+                writeChunk(channel, codec, events, keys);
+            }
+        }
+        writeChunk(channel, codec, events, keys);
+        return count;
+    }
+
+    private void writeChunk(FileChannel channel, CacheEventCodec codec, List<CacheEvent> events, List<Object> keys) throws IOException {
+        if (!keys.isEmpty()) {
+            events.add(new CacheEvent(keys, CacheEventEnum.EVICT_KEYS.name()));
+        }
+        if (events.isEmpty()) {
+            return;
+        }
+        byte[] message = codec.encode(events);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + message.length);
+        buffer.putInt(message.length).put(message);
+        buffer.flip();
+        write(channel, buffer);
+        events.clear();
+        keys.clear();
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * 从快照恢复，快照中的缓存不存在时创建。包含value的快照超过有效时间后只使用其中的key。
+     *
+     * @return 恢复的key数量，没有快照时为0
+     * @throws IOException
+     */
+    public long restore() throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return 0;
+        }
+        long count = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC || buffer.get() != FORMAT_VERSION) {
+                log.warn("cache snapshot {} is not a snapshot file, ignored", path);
+                return 0;
+            }
+            boolean withValues = buffer.get() == 1;
+            long age = System.currentTimeMillis() - buffer.getLong();
+            boolean loadValues = withValues && (maxAge == null || age <= maxAge.toMillis());
+            while (buffer.remaining() >= 4) {
+                int length = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    log.warn("cache snapshot {} is truncated", path);
+                    break;
+                }
+                byte[] message = new byte[length];
+                buffer.get(message);
+                count += restore(message, loadValues, age);
+            }
+        }
+        log.info("cache snapshot {} restored, {} keys", path, count);
+        return count;
+    }
+
+    private long restore(byte[] message, boolean loadValues, long age) {
+        CaffeineRedisCache cache = (CaffeineRedisCache) caffeineRedisCacheManager.getCache(CacheEventCodec.readCacheName(message));
+        if (cache == null || cache.getCacheSpec().getMode() == CacheMode.L2_ONLY) {
+            return 0;
+        }
+        List<CacheEvent> events;
+        try {
+            events = codec(cache).decode(message);
+        } catch (RuntimeException e) {
+            // 缓存的序列化方式修改后之前的快照不能再使用
+            log.warn("cache snapshot of {} decode failed, skipped", cache.getName(), e);
+            return 0;
+        }
+        Duration maxTtl = loadValues ? remainingTtl(cache, age) : null;
+        // 快照中的value在缓存中已经过期时只使用key
+        boolean useValues = loadValues && (maxTtl == null || (!maxTtl.isZero() && !maxTtl.isNegative()));
+        List<Object> keys = new ArrayList<>(CHUNK_SIZE);
+        Map<Object, Object> values = new LinkedHashMap<>();
+        long version = 0;
+        for (CacheEvent event : events) {
+            if (CacheEventEnum.EVICT_KEYS.name().equals(event.getType())) {
+                keys.addAll(event.getKeys());
+            } else if (useValues) {
+                values.put(event.getKey(), event.getValue() == null ? NullValue.INSTANCE : event.getValue());
+                version = event.getVersion();
+            } else {
+                keys.add(event.getKey());
+            }
+        }
+        // 启动后已经收到更新的事件或写入时不覆盖
+        return cache.restoreLocal(values, version, maxTtl) + prefetch(cache, keys);
+    }
+
+    /**
+     * 快照中的value在caffeine cache中的最长过期时间：缓存的过期时间和快照的有效时间减去快照已经保存的时间
+     *
+     * @return 都不限制时为null
+     */
+    private Duration remainingTtl(CaffeineRedisCache cache, long age) {
+        Duration ttl = cache.getCacheSpec().getL1Ttl() != null ? cache.getCacheSpec().getL1Ttl() : cache.getRedisCache().getCacheConfiguration().getTtl();
+        Duration remaining = ttl == null || ttl.isZero() || ttl.isNegative() ? null : ttl.minusMillis(age);
+        if (maxAge != null) {
+            Duration remainingAge = maxAge.minusMillis(age);
+            if (remaining == null || remainingAge.compareTo(remaining) < 0) {
+                remaining = remainingAge;
+            }
+        }
+        return remaining;
+    }
+
+    private static long prefetch(CaffeineRedisCache cache, Collection<Object> keys) {
+        if (keys.isEmpty() || cache.getCacheSpec().getMode() == CacheMode.L1_ONLY) {
+            return 0;
+        }
+        return cache.getAll(keys, null).size();
+    }
+
+    /**
+     * 单独的编码器，快照不计入事件发送的指标
+     */
+    private static CacheEventCodec codec(CaffeineRedisCache cache) {
+        return new CacheEventCodec(cache.getName(), cache.getRedisCache().getCacheConfiguration().getValueSerializationPair());
+    }
+}
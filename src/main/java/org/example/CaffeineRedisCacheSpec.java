@@ -0,0 +1,154 @@
+package org.example;
+
+import com.github.benmanes.caffeine.cache.Weigher;
+import lombok.Builder;
+import lombok.Getter;
+import org.example.event.CacheEventMode;
+import org.example.serializer.CompressionAlgorithm;
+import org.example.serializer.ValueSerializer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * 单个CaffeineRedisCache的配置，创建后不可修改
+ *
+ * @author lihui
+ * @since 2024/2/5
+ */
+@Getter
+@Builder(toBuilder = true)
+public class CaffeineRedisCacheSpec {
+    /**
+     * caffeine cache的最大数量，设置了maximumWeight时不生效
+     */
+    @Builder.Default
+    private final long maximumSize = 10000;
+    /**
+     * caffeine cache的最大权重，需要同时设置weigher，没有weigher时创建缓存失败
+     */
+    private final Long maximumWeight;
+    /**
+     * caffeine cache的权重计算方式
+     */
+    private final Weigher<Object, Object> weigher;
+    /**
+     * caffeine cache的堆外存储容量，单位字节，为null时value保存在堆内。
+     * <p>配置后value使用redis的编码方式序列化后保存在直接内存中，读取时反序列化，caffeine cache按占用的字节数淘汰，maximumSize和maximumWeight不生效
+     */
+    private final Long offHeapCapacity;
+    /**
+     * caffeine cache是否记录命中率等统计信息，关闭后没有一级缓存的命中率指标
+     */
+    @Builder.Default
+    private final boolean recordStats = true;
+    /**
+     * caffeine cache的最长过期时间，为null时与redis的过期时间一致
+     */
+    private final Duration l1Ttl;
+    /**
+     * caffeine cache中的key写入多久之后从redis异步刷新，为null时不刷新
+     */
+    private final Duration refreshAfterWrite;
+    /**
+     * 通过{@link CaffeineRedisCache#get(Object, java.util.concurrent.Callable)}加载的key，超过redis过期时间的该比例后被读取时异步重新加载，为null时不提前刷新
+     */
+    private final Double refreshAheadFactor;
+    /**
+     * caffeine cache过期时间相对redis过期时间的比例
+     */
+    @Builder.Default
+    private final double expiryFactor = 1.0;
+    /**
+     * caffeine cache过期时间随机缩短的最大比例
+     */
+    @Builder.Default
+    private final double expiryJitter = 0;
+    /**
+     * redis的过期时间，为null时使用spring.cache.redis.time-to-live
+     */
+    private final Duration redisTtl;
+    /**
+     * 是否缓存null值，为null时使用spring.cache.redis.cache-null-values，设置时优先于全局配置
+     */
+    private final Boolean cacheNullValues;
+    /**
+     * 两级缓存都未命中的key在本地记录的时间，期间再次读取时不访问redis，为null时不记录
+     */
+    private final Duration negativeTtl;
+    /**
+     * 布隆过滤器预计的key数量，为null时不使用布隆过滤器
+     */
+    private final Long bloomFilterExpectedInsertions;
+    /**
+     * 布隆过滤器预计的误判率
+     */
+    @Builder.Default
+    private final double bloomFilterFpp = 0.01;
+    /**
+     * 布隆过滤器扫描redis重建的间隔，为null时只在创建缓存后重建一次
+     */
+    private final Duration bloomFilterRebuildInterval;
+    /**
+     * redis连续失败或慢调用多少次后熔断，为null时不熔断
+     */
+    private final Integer circuitBreakerFailureThreshold;
+    /**
+     * redis调用超过该时间记为失败，为null时只按异常判断
+     */
+    private final Duration circuitBreakerSlowCallThreshold;
+    /**
+     * 熔断后多久开始探测redis是否恢复
+     */
+    @Builder.Default
+    private final Duration circuitBreakerProbeInterval = Duration.ofSeconds(5);
+    /**
+     * caffeine cache中过期的key继续保留的时间，熔断期间返回保留的旧值，为null时不保留
+     */
+    private final Duration staleGracePeriod;
+    /**
+     * 熔断期间redis写入的重放队列容量，按key保留最后一次写入，redis恢复后重放，为0时放弃熔断期间的写入
+     */
+    @Builder.Default
+    private final int replayQueueCapacity = 0;
+    /**
+     * redis中value的序列化方式
+     */
+    @Builder.Default
+    private final ValueSerializer valueSerializer = ValueSerializer.DEFAULT;
+    /**
+     * redis中value的压缩算法
+     */
+    @Builder.Default
+    private final CompressionAlgorithm compression = CompressionAlgorithm.NONE;
+    /**
+     * 序列化后超过该字节数时压缩
+     */
+    @Builder.Default
+    private final int compressionThreshold = 4096;
+    /**
+     * JACKSON和SMILE反序列化时允许的类型的包名，例如com.example.model，java.lang、java.util、java.time、java.math总是允许
+     */
+    @Builder.Default
+    private final Set<String> trustedPackages = Collections.emptySet();
+    /**
+     * 按key记录最后一次写入或应用事件的版本号的时间，期间收到版本号更早的事件时不再应用，为null或0时不记录版本号
+     */
+    @Builder.Default
+    private final Duration versionRetention = Duration.ofMinutes(1);
+    /**
+     * 缓存使用的层级
+     */
+    @Builder.Default
+    private final CacheMode mode = CacheMode.L1_AND_L2;
+    /**
+     * 缓存事件的传播方式
+     */
+    @Builder.Default
+    private final CacheEventMode eventMode = CacheEventMode.UPDATE;
+
+    public static CaffeineRedisCacheSpec defaultSpec() {
+        return builder().build();
+    }
+}
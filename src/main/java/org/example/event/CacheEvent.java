@@ -3,7 +3,8 @@ package org.example.event;
 import lombok.Data;
 
 import java.io.Serializable;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 
 /**
  * @author lihui
@@ -13,7 +14,20 @@ import java.time.Duration;
 public class CacheEvent implements Serializable {
     private Object key;
     private Object value;
+    private Collection<Object> keys;
     private String type;
+    /**
+     * 缓存名称
+     */
+    private String cacheName;
+    /**
+     * 事件版本号，同一个节点发出的事件单调递增
+     */
+    private long version;
+    /**
+     * 发出事件的节点
+     */
+    private String origin = CacheNode.ID;
 
     public CacheEvent(String type) {
         this.type = type;
@@ -24,6 +38,11 @@ public class CacheEvent implements Serializable {
         this.type = type;
     }
 
+    public CacheEvent(Collection<?> keys, String type) {
+        this.keys = new ArrayList<>(keys);
+        this.type = type;
+    }
+
     public CacheEvent(Object key, Object value, String type) {
         this.key = key;
         this.value = value;
@@ -0,0 +1,25 @@
+package org.example.event;
+
+import lombok.Data;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * 批量缓存事件，由{@link org.example.publisher.BatchingCacheEventPublisher}合并多个{@link CacheEvent}后一次发送，接收方按顺序处理
+ *
+ * @author lihui
+ * @since 2024/1/30
+ */
+@Data
+public class CacheEventBatch implements Serializable {
+    private List<CacheEvent> events;
+    /**
+     * 发出事件的节点
+     */
+    private String origin = CacheNode.ID;
+
+    public CacheEventBatch(List<CacheEvent> events) {
+        this.events = events;
+    }
+}
@@ -0,0 +1,274 @@
+package org.example.event;
+
+import org.example.support.CacheMetricsRecorder;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * 缓存事件的二进制编码，一条消息包含同一个缓存的一个或多个事件，格式如下：
+ * <pre>
+ * 消息头：magic(1) | 格式版本(1) | 节点id(16) | 缓存名称长度(2) | 缓存名称 | 事件数量(4)
+ * 事件：  操作码(1) | 版本号(8) | 内容
+ *   UPDATE_KEY：key | value长度(4) | value
+ *   EVICT_KEY： key
+ *   EVICT_KEYS：key数量(4) | key...
+ *   CLEAR：     无
+ * key：   类型(1) | String为长度(4)+UTF-8，Long为8字节，Integer为4字节，其他类型为长度(4)+JDK序列化
+ * </pre>
+ * value使用缓存自身的value序列化方式，与写入redis的序列化方式一致。
+ *
+ * @author lihui
+ * @since 2024/2/1
+ */
+public class CacheEventCodec {
+    public static final byte MAGIC = (byte) 0xCE;
+    public static final byte FORMAT_VERSION = 1;
+    /**
+     * 节点id在消息中的偏移量
+     */
+    public static final int ORIGIN_OFFSET = 2;
+    private static final int HEADER_LENGTH = ORIGIN_OFFSET + 16 + 2;
+    private static final byte KEY_STRING = 0;
+    private static final byte KEY_LONG = 1;
+    private static final byte KEY_INTEGER = 2;
+    private static final byte KEY_SERIALIZED = 3;
+    private static final RedisSerializer<Object> KEY_SERIALIZER = RedisSerializer.java();
+    private final String cacheName;
+    private final byte[] cacheNameBytes;
+    private final RedisSerializationContext.SerializationPair<Object> valueSerializationPair;
+    /**
+     * 记录编码后的消息数量和大小，编码后的消息都会被发送
+     */
+    private volatile CacheMetricsRecorder metricsRecorder = CacheMetricsRecorder.NOOP;
+
+    public CacheEventCodec(String cacheName, RedisSerializationContext.SerializationPair<Object> valueSerializationPair) {
+        this.cacheName = cacheName;
+        this.cacheNameBytes = cacheName.getBytes(StandardCharsets.UTF_8);
+        this.valueSerializationPair = valueSerializationPair;
+    }
+
+    /**
+     * 是否为该编码格式的消息
+     *
+     * @param message
+     * @return
+     */
+    public static boolean isEncoded(byte[] message) {
+        return message.length >= HEADER_LENGTH && message[0] == MAGIC && message[1] == FORMAT_VERSION;
+    }
+
+    public String getCacheName() {
+        return cacheName;
+    }
+
+    /**
+     * 判断消息是否由当前节点发出，只读取消息头
+     *
+     * @param message
+     * @return
+     */
+    public static boolean isLocalOrigin(byte[] message) {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        return buffer.getLong(ORIGIN_OFFSET) == CacheNode.MOST_SIGNIFICANT_BITS && buffer.getLong(ORIGIN_OFFSET + 8) == CacheNode.LEAST_SIGNIFICANT_BITS;
+    }
+
+    /**
+     * 读取消息中的缓存名称，不解码事件内容
+     *
+     * @param message
+     * @return
+     */
+    public static String readCacheName(byte[] message) {
+        int length = ((message[HEADER_LENGTH - 2] & 0xFF) << 8) | (message[HEADER_LENGTH - 1] & 0xFF);
+        return new String(message, HEADER_LENGTH, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取消息中的事件数量，不解码事件内容
+     *
+     * @param message
+     * @return
+     */
+    public static int readEventCount(byte[] message) {
+        int length = ((message[HEADER_LENGTH - 2] & 0xFF) << 8) | (message[HEADER_LENGTH - 1] & 0xFF);
+        int offset = HEADER_LENGTH + length;
+        return ((message[offset] & 0xFF) << 24) | ((message[offset + 1] & 0xFF) << 16) | ((message[offset + 2] & 0xFF) << 8) | (message[offset + 3] & 0xFF);
+    }
+
+    public void setMetricsRecorder(CacheMetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder;
+    }
+
+    public byte[] encode(CacheEvent event) {
+        return encode(Collections.singletonList(event));
+    }
+
+    public byte[] encode(List<CacheEvent> events) {
+        List<Object> parts = new ArrayList<>(events.size() * 2);
+        int size = HEADER_LENGTH + cacheNameBytes.length + 4;
+        for (CacheEvent event : events) {
+            CacheEventEnum type = CacheEventEnum.valueOf(event.getType());
+            size += 1 + 8;
+            switch (type) {
+                case UPDATE_KEY:
+                    size += keySize(event.getKey(), parts);
+                    ByteBuffer value = valueSerializationPair.write(event.getValue());
+                    parts.add(value);
+                    size += 4 + value.remaining();
+                    break;
+                case EVICT_KEY:
+                    size += keySize(event.getKey(), parts);
+                    break;
+                case EVICT_KEYS:
+                    size += 4;
+                    for (Object key : event.getKeys()) {
+                        size += keySize(key, parts);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC).put(FORMAT_VERSION).putLong(CacheNode.MOST_SIGNIFICANT_BITS).putLong(CacheNode.LEAST_SIGNIFICANT_BITS);
+        buffer.putShort((short) cacheNameBytes.length).put(cacheNameBytes);
+        buffer.putInt(events.size());
+        int part = 0;
+        for (CacheEvent event : events) {
+            CacheEventEnum type = CacheEventEnum.valueOf(event.getType());
+            buffer.put(type.getCode()).putLong(event.getVersion());
+            switch (type) {
+                case UPDATE_KEY:
+                    part = writeKey(buffer, event.getKey(), parts, part);
+                    ByteBuffer value = (ByteBuffer) parts.get(part++);
+                    buffer.putInt(value.remaining()).put(value);
+                    break;
+                case EVICT_KEY:
+                    part = writeKey(buffer, event.getKey(), parts, part);
+                    break;
+                case EVICT_KEYS:
+                    buffer.putInt(event.getKeys().size());
+                    for (Object key : event.getKeys()) {
+                        part = writeKey(buffer, key, parts, part);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        metricsRecorder.recordPublish(events.size(), size);
+        return buffer.array();
+    }
+
+    public List<CacheEvent> decode(byte[] message) {
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        if (!isEncoded(message)) {
+            throw new IllegalArgumentException("not a cache event message");
+        }
+        buffer.position(ORIGIN_OFFSET);
+        String origin = new UUID(buffer.getLong(), buffer.getLong()).toString();
+        int nameLength = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + nameLength);
+        int count = buffer.getInt();
+        List<CacheEvent> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            CacheEventEnum type = CacheEventEnum.fromCode(buffer.get());
+            long version = buffer.getLong();
+            CacheEvent event;
+            switch (type) {
+                case UPDATE_KEY:
+                    Object key = readKey(buffer);
+                    int valueLength = buffer.getInt();
+                    ByteBuffer value = buffer.slice();
+                    value.limit(valueLength);
+                    buffer.position(buffer.position() + valueLength);
+                    event = new CacheEvent(key, valueSerializationPair.read(value), type.name());
+                    break;
+                case EVICT_KEY:
+                    event = new CacheEvent(readKey(buffer), type.name());
+                    break;
+                case EVICT_KEYS:
+                    int keyCount = buffer.getInt();
+                    List<Object> keys = new ArrayList<>(keyCount);
+                    for (int j = 0; j < keyCount; j++) {
+                        keys.add(readKey(buffer));
+                    }
+                    event = new CacheEvent(keys, type.name());
+                    break;
+                default:
+                    event = new CacheEvent(type.name());
+                    break;
+            }
+            event.setCacheName(cacheName);
+            event.setVersion(version);
+            event.setOrigin(origin);
+            events.add(event);
+        }
+        return events;
+    }
+
+    private int keySize(Object key, List<Object> parts) {
+        if (key instanceof String) {
+            byte[] bytes = ((String) key).getBytes(StandardCharsets.UTF_8);
+            parts.add(bytes);
+            return 1 + 4 + bytes.length;
+        }
+        if (key instanceof Long) {
+            return 1 + 8;
+        }
+        if (key instanceof Integer) {
+            return 1 + 4;
+        }
+        byte[] bytes = KEY_SERIALIZER.serialize(key);
+        parts.add(bytes);
+        return 1 + 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private int writeKey(ByteBuffer buffer, Object key, List<Object> parts, int part) {
+        if (key instanceof Long) {
+            buffer.put(KEY_LONG).putLong((Long) key);
+            return part;
+        }
+        if (key instanceof Integer) {
+            buffer.put(KEY_INTEGER).putInt((Integer) key);
+            return part;
+        }
+        byte[] bytes = (byte[]) parts.get(part);
+        int length = bytes == null ? 0 : bytes.length;
+        buffer.put(key instanceof String ? KEY_STRING : KEY_SERIALIZED).putInt(length);
+        if (bytes != null) {
+            buffer.put(bytes);
+        }
+        return part + 1;
+    }
+
+    @Nullable
+    private Object readKey(ByteBuffer buffer) {
+        byte type = buffer.get();
+        switch (type) {
+            case KEY_LONG:
+                return buffer.getLong();
+            case KEY_INTEGER:
+                return buffer.getInt();
+            case KEY_STRING:
+                int length = buffer.getInt();
+                String key = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+                buffer.position(buffer.position() + length);
+                return key;
+            case KEY_SERIALIZED:
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                return KEY_SERIALIZER.deserialize(bytes);
+            default:
+                throw new IllegalArgumentException("unknown cache key type:" + type);
+        }
+    }
+}
@@ -1,20 +1,51 @@
 package org.example.event;
 
+import lombok.Getter;
+
 /**
  * @author lihui
  * @since 2024/1/12
  */
+@Getter
 public enum CacheEventEnum {
     /**
      * 更新指定key
      */
-    UPDATE_KEY,
+    UPDATE_KEY((byte) 1),
     /**
      * 删除指定key
      */
-    EVICT_KEY,
+    EVICT_KEY((byte) 2),
+    /**
+     * 批量删除多个key
+     */
+    EVICT_KEYS((byte) 3),
     /**
      * 删除全部key
      */
-    CLEAR
-}
\ No newline at end of file
+    CLEAR((byte) 4);
+
+    private static final CacheEventEnum[] CODES = new CacheEventEnum[5];
+
+    static {
+        for (CacheEventEnum value : values()) {
+            CODES[value.code] = value;
+        }
+    }
+
+    /**
+     * 二进制编码中的操作码
+     */
+    private final byte code;
+
+    CacheEventEnum(byte code) {
+        this.code = code;
+    }
+
+    public static CacheEventEnum fromCode(byte code) {
+        if (code <= 0 || code >= CODES.length || CODES[code] == null) {
+            throw new IllegalArgumentException("unknown cache event code:" + code);
+        }
+        return CODES[code];
+    }
+}
@@ -0,0 +1,18 @@
+package org.example.event;
+
+/**
+ * 缓存事件的传播方式
+ *
+ * @author lihui
+ * @since 2024/1/29
+ */
+public enum CacheEventMode {
+    /**
+     * 写入时广播完整的value，二级缓存命中时也广播value，其他节点直接更新caffeine cache
+     */
+    UPDATE,
+    /**
+     * 写入时只广播key，二级缓存命中时不发送事件，其他节点删除caffeine cache中的key，下次读取时再从redis加载
+     */
+    INVALIDATE
+}
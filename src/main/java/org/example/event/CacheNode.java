@@ -0,0 +1,56 @@
+package org.example.event;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 当前节点的标识，用于识别本节点自己发出的缓存事件。
+ * <p>事件版本号是混合逻辑时钟：高位是毫秒时间戳，低位是同一毫秒内的序号，收到其他节点的版本号后不会再产生更小的版本号。
+ *
+ * @author lihui
+ * @since 2024/1/29
+ */
+public final class CacheNode {
+    private static final UUID NODE = UUID.randomUUID();
+    public static final String ID = NODE.toString();
+    public static final long MOST_SIGNIFICANT_BITS = NODE.getMostSignificantBits();
+    public static final long LEAST_SIGNIFICANT_BITS = NODE.getLeastSignificantBits();
+    /**
+     * 版本号的低位是同一毫秒内的序号
+     */
+    private static final int SEQUENCE_BITS = 20;
+    private static final AtomicLong VERSION = new AtomicLong(System.currentTimeMillis() << SEQUENCE_BITS);
+
+    private CacheNode() {
+    }
+
+    /**
+     * 本节点单调递增的事件版本号，高位跟随当前时间，可以通过{@link #timestampOf(long)}得到事件的发送时间
+     *
+     * @return
+     */
+    public static long nextVersion() {
+        return VERSION.updateAndGet(version -> Math.max(version + 1, System.currentTimeMillis() << SEQUENCE_BITS));
+    }
+
+    /**
+     * 收到其他节点的事件时合并版本号，之后本节点的版本号大于已经收到的版本号，时钟落后的节点也不会产生更早的版本号
+     *
+     * @param version 其他节点的版本号
+     */
+    public static void observe(long version) {
+        if (version > VERSION.get()) {
+            VERSION.accumulateAndGet(version, Math::max);
+        }
+    }
+
+    /**
+     * 版本号中的时间戳，同一毫秒内的事件超过序号上限时会略大于实际时间
+     *
+     * @param version
+     * @return 毫秒
+     */
+    public static long timestampOf(long version) {
+        return version >>> SEQUENCE_BITS;
+    }
+}
@@ -2,15 +2,23 @@ package org.example.listener;
 
 import lombok.extern.slf4j.Slf4j;
 import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheManager;
 import org.example.event.CacheEvent;
+import org.example.event.CacheEventBatch;
+import org.example.event.CacheEventCodec;
 import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.example.support.CacheMetricsRecorder;
 import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.data.redis.listener.KeyExpirationEventMessageListener;
 import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * 基于Redis事件发布订阅机制实现的分布式缓存数据同步监听器。
@@ -22,50 +30,145 @@ import java.nio.ByteBuffer;
  */
 @Slf4j
 public class DefaultCacheEventListener extends KeyExpirationEventMessageListener implements MessageListener {
-    private final CaffeineRedisCache caffeineRedisCache;
+    private final CaffeineRedisCacheManager caffeineRedisCacheManager;
+    @Nullable
+    private final byte[] keyExpirationChannel;
 
-    public DefaultCacheEventListener(RedisMessageListenerContainer redisMessageListenerContainer, CaffeineRedisCache caffeineRedisCache) {
+    public DefaultCacheEventListener(RedisMessageListenerContainer redisMessageListenerContainer, CaffeineRedisCacheManager caffeineRedisCacheManager) {
         super(redisMessageListenerContainer);
-        this.caffeineRedisCache = caffeineRedisCache;
+        this.caffeineRedisCacheManager = caffeineRedisCacheManager;
+        this.keyExpirationChannel = caffeineRedisCacheManager.getKeyExpirationChannel() == null ? null : RedisSerializer.string().serialize(caffeineRedisCacheManager.getKeyExpirationChannel());
     }
 
+    /**
+     * 订阅的通道由{@link CaffeineRedisCacheManager}注册，不订阅全部数据库的key过期事件
+     */
     @Override
-    public void onMessage(Message message, byte[] pattern) {
+    protected void doRegister(@NonNull RedisMessageListenerContainer container) {
+    }
+
+    @Override
+    public void onMessage(@NonNull Message message, @Nullable byte[] pattern) {
+        // key过期事件，按字节比较通道和key前缀，不属于任何缓存的key不做反序列化
+        if (keyExpirationChannel != null && (Arrays.equals(keyExpirationChannel, pattern) || Arrays.equals(keyExpirationChannel, message.getChannel()))) {
+            byte[] body = message.getBody();
+            for (CaffeineRedisCache caffeineRedisCache : caffeineRedisCacheManager.getCaches()) {
+                Object key = caffeineRedisCache.toCacheKey(body);
+                if (key != null) {
+                    log.debug("cache key expire:{}", key);
+                    caffeineRedisCache.getKeyExpirationEventListener().onMessage(key);
+                }
+            }
+            return;
+        }
         String channel = RedisSerializer.string().deserialize(message.getChannel());
         if (channel == null) {
             return;
         }
-        // key过期事件
-        if (Topic.KEY_EXPIRATION_CHANNEL.equals(new String(pattern))) {
-            String key = RedisSerializer.string().deserialize(message.getBody());
-            if (key == null) {
+        // 其他事件
+        if (channel.startsWith(Topic.CACHE_CHANNEL)) {
+            byte[] body = message.getBody();
+            // 二进制编码的事件，按消息头中的缓存名称分发
+            if (CacheEventCodec.isEncoded(body)) {
+                CaffeineRedisCache caffeineRedisCache = caffeineRedisCacheManager.lookupCache(CacheEventCodec.readCacheName(body));
+                if (caffeineRedisCache != null) {
+                    onCacheMessage(caffeineRedisCache, body);
+                }
                 return;
             }
-            log.debug("cache key expire:{}", key);
-            caffeineRedisCache.getKeyExpirationEventListener().onMessage(key);
-            return;
-        }
-        // 其他事件
-        if (channel.equals(Topic.CACHE_CHANNEL)) {
-            CacheEvent cacheEvent = (CacheEvent) caffeineRedisCache.getRedisCache().getCacheConfiguration().getValueSerializationPair().read(ByteBuffer.wrap(message.getBody()));
-            Object key = cacheEvent.getKey();
-            Object value = cacheEvent.getValue();
-            String type = cacheEvent.getType();
-            // 更新key
-            if (CacheEventEnum.UPDATE_KEY.name().equals(type)) {
-                log.debug("cache key update:{}", key);
-                caffeineRedisCache.getCaffeineCache().put(key, value);
+            // 旧版本节点只有默认缓存，使用默认缓存的序列化方式解码
+            CaffeineRedisCache defaultCache = caffeineRedisCacheManager.lookupCache(CaffeineRedisCache.class.getName());
+            if (defaultCache == null) {
+                return;
             }
-            // 删除key
-            if (CacheEventEnum.EVICT_KEY.name().equals(type)) {
-                log.debug("cache key evict:{}", key);
-                caffeineRedisCache.getCaffeineCache().evict(key);
+            Object event = defaultCache.getRedisCache().getCacheConfiguration().getValueSerializationPair().read(ByteBuffer.wrap(body));
+            // 批量事件
+            if (event instanceof CacheEventBatch) {
+                CacheEventBatch cacheEventBatch = (CacheEventBatch) event;
+                // 本节点发出的事件已经在本地处理过
+                if (CacheNode.ID.equals(cacheEventBatch.getOrigin())) {
+                    return;
+                }
+                for (CacheEvent cacheEvent : cacheEventBatch.getEvents()) {
+                    onCacheEvent(cacheEvent);
+                }
+                return;
             }
-            // 清空全部key
-            if (CacheEventEnum.CLEAR.name().equals(type)) {
-                log.debug("cache key clear");
-                caffeineRedisCache.getCaffeineCache().clear();
+            if (event instanceof CacheEvent) {
+                onCacheEvent((CacheEvent) event);
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * 处理一条二进制编码的缓存事件消息，本节点发出的消息只读取消息头
+     *
+     * @param caffeineRedisCache 消息头中的缓存名称对应的缓存
+     * @param body               {@link CacheEventCodec}编码的消息
+     */
+    public static void onCacheMessage(CaffeineRedisCache caffeineRedisCache, byte[] body) {
+        int count = CacheEventCodec.readEventCount(body);
+        CacheMetricsRecorder metricsRecorder = caffeineRedisCache.getMetricsRecorder();
+        metricsRecorder.recordEventsReceived(count);
+        // 本节点发出的事件已经在本地处理过
+        if (CacheEventCodec.isLocalOrigin(body)) {
+            metricsRecorder.recordEventsIgnored(count);
+            return;
+        }
+        for (CacheEvent cacheEvent : caffeineRedisCache.getCacheEventCodec().decode(body)) {
+            onCacheEvent(caffeineRedisCache, cacheEvent);
+        }
+    }
+
+    private void onCacheEvent(CacheEvent cacheEvent) {
+        String cacheName = cacheEvent.getCacheName() == null ? CaffeineRedisCache.class.getName() : cacheEvent.getCacheName();
+        CaffeineRedisCache caffeineRedisCache = caffeineRedisCacheManager.lookupCache(cacheName);
+        if (caffeineRedisCache == null) {
+            return;
+        }
+        caffeineRedisCache.getMetricsRecorder().recordEventsReceived(1);
+        // 本节点发出的事件已经在本地处理过
+        if (CacheNode.ID.equals(cacheEvent.getOrigin())) {
+            caffeineRedisCache.getMetricsRecorder().recordEventsIgnored(1);
+            return;
+        }
+        onCacheEvent(caffeineRedisCache, cacheEvent);
+    }
+
+    private static void onCacheEvent(CaffeineRedisCache caffeineRedisCache, CacheEvent cacheEvent) {
+        Object key = cacheEvent.getKey();
+        Object value = cacheEvent.getValue();
+        String type = cacheEvent.getType();
+        long version = cacheEvent.getVersion();
+        boolean applied = false;
+        // 更新key
+        if (CacheEventEnum.UPDATE_KEY.name().equals(type)) {
+            log.debug("cache key update:{}", key);
+            applied = caffeineRedisCache.updateLocal(key, value, version);
+        }
+        // 删除key
+        if (CacheEventEnum.EVICT_KEY.name().equals(type)) {
+            log.debug("cache key evict:{}", key);
+            applied = caffeineRedisCache.invalidateLocal(key, version);
+        }
+        // 批量删除key
+        if (CacheEventEnum.EVICT_KEYS.name().equals(type) && cacheEvent.getKeys() != null) {
+            log.debug("cache keys evict:{}", cacheEvent.getKeys());
+            for (Object k : cacheEvent.getKeys()) {
+                applied |= caffeineRedisCache.invalidateLocal(k, version);
+            }
+        }
+        // 清空全部key
+        if (CacheEventEnum.CLEAR.name().equals(type)) {
+            log.debug("cache key clear");
+            applied = caffeineRedisCache.clearLocal(version);
+        }
+        if (applied) {
+            caffeineRedisCache.getMetricsRecorder().recordEventApplied(CacheNode.timestampOf(version));
+        } else {
+            // 本节点已经有更新的写入或事件
+            log.debug("cache event ignored, type:{}, version:{}", type, version);
+            caffeineRedisCache.getMetricsRecorder().recordEventsIgnored(1);
+        }
+    }
+}
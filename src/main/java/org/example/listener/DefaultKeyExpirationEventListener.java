@@ -2,8 +2,6 @@ package org.example.listener;
 
 import lombok.extern.slf4j.Slf4j;
 import org.example.CaffeineRedisCache;
-import org.springframework.cache.caffeine.CaffeineCache;
-import org.springframework.data.redis.cache.RedisCache;
 
 /**
  * 默认key过期监听器，该监听器会删除本地的caffeine cache中对应的key
@@ -13,10 +11,10 @@ import org.springframework.data.redis.cache.RedisCache;
  */
 @Slf4j
 public class DefaultKeyExpirationEventListener implements KeyExpirationEventListener {
-    private final CaffeineCache caffeineCache;
+    private final CaffeineRedisCache caffeineRedisCache;
 
-    public DefaultKeyExpirationEventListener(CaffeineCache caffeineCache, RedisCache redisCache) {
-        this.caffeineCache = caffeineCache;
+    public DefaultKeyExpirationEventListener(CaffeineRedisCache caffeineRedisCache) {
+        this.caffeineRedisCache = caffeineRedisCache;
     }
 
     @Override
@@ -25,13 +23,7 @@ public class DefaultKeyExpirationEventListener implements KeyExpirationEventList
             return;
         }
         log.debug("cache key expire:{}", key);
-        try {
-            synchronized (CaffeineRedisCache.LOCKS.computeIfAbsent(key, o -> new Object())) {
-                // 同步删除caffeine缓存
-                caffeineCache.evict(key);
-            }
-        } finally {
-            CaffeineRedisCache.LOCKS.remove(key);
-        }
+        // 同步删除caffeine缓存
+        caffeineRedisCache.evictLocal(key);
     }
 }
\ No newline at end of file
@@ -11,5 +11,8 @@ import org.springframework.data.redis.connection.Message;
  * @since 2024/1/22
  */
 public interface KeyExpirationEventListener {
+    /**
+     * @param key 去掉缓存前缀后的key，即caffeine cache中的key
+     */
     void onMessage(Object key);
 }
\ No newline at end of file
@@ -0,0 +1,291 @@
+package org.example.listener;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheManager;
+import org.example.publisher.StreamCacheEventPublisher;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 基于Redis Stream的缓存事件监听器，替换缓存管理器中所有缓存的事件发送方式为{@link StreamCacheEventPublisher}。
+ * <p>每个节点一个线程，通过XREAD批量读取所有缓存的stream，并记录每个stream最后读取的消息id。与redis断开后从该id继续读取，只补读断开期间的事件。
+ * 补读前检查该id是否已经被MAXLEN裁剪，已经裁剪时中间的事件可能丢失，只清空该缓存的caffeine cache，其他缓存不受影响。
+ *
+ * @author lihui
+ * @since 2024/3/13
+ */
+@Slf4j
+public class StreamCacheEventListener implements SmartLifecycle {
+    private static final RecordId INITIAL_ID = RecordId.of(0, 0);
+    private final CaffeineRedisCacheManager caffeineRedisCacheManager;
+    private final RedisConnectionFactory redisConnectionFactory;
+    private final long maxLength;
+    private final int batchSize;
+    private final Duration block;
+    /**
+     * stream key和读取状态
+     */
+    private final Map<String, StreamState> streams = new ConcurrentHashMap<>();
+    /**
+     * 因为事件被裁剪而清空caffeine cache的次数
+     */
+    private final LongAdder gapClearCount = new LongAdder();
+    private volatile boolean running;
+    private volatile Thread readThread;
+
+    /**
+     * @param caffeineRedisCacheManager
+     * @param redisConnectionFactory
+     * @param maxLength                 每个stream保留的最大事件消息数量，应当大于节点断开期间可能产生的事件数量
+     * @param batchSize                 每次从一个stream读取的最大事件消息数量
+     * @param block                     没有新事件时XREAD的阻塞时间，之后创建的缓存最多等待该时间后开始读取
+     */
+    public StreamCacheEventListener(CaffeineRedisCacheManager caffeineRedisCacheManager, RedisConnectionFactory redisConnectionFactory, long maxLength, int batchSize, Duration block) {
+        this.caffeineRedisCacheManager = caffeineRedisCacheManager;
+        this.redisConnectionFactory = redisConnectionFactory;
+        this.maxLength = maxLength;
+        this.batchSize = batchSize;
+        this.block = block;
+        caffeineRedisCacheManager.setCacheEventPublisherFactory(this::createPublisher);
+        caffeineRedisCacheManager.addCacheCreationListener(this::register);
+        for (CaffeineRedisCache caffeineRedisCache : caffeineRedisCacheManager.getCaches()) {
+            caffeineRedisCache.setCacheEventPublisher(createPublisher(caffeineRedisCache));
+            register(caffeineRedisCache);
+        }
+    }
+
+    private StreamCacheEventPublisher createPublisher(CaffeineRedisCache caffeineRedisCache) {
+        return new StreamCacheEventPublisher(redisConnectionFactory, caffeineRedisCache.getCacheEventCodec(), maxLength);
+    }
+
+    /**
+     * 从stream中当前最新的事件之后开始读取，之前的事件在缓存创建前已经写入redis
+     */
+    private void register(CaffeineRedisCache caffeineRedisCache) {
+        String streamKey = Topic.cacheStream(caffeineRedisCache.getName());
+        StreamState state = new StreamState(caffeineRedisCache.getName(), RedisSerializer.string().serialize(streamKey));
+        if (streams.putIfAbsent(streamKey, state) == null) {
+            try {
+                state.lastId = latestId(state.key);
+            } catch (RuntimeException e) {
+                // 读取线程连接恢复后重新获取
+                log.warn("cache stream {} latest id read failed", streamKey, e);
+            }
+        }
+    }
+
+    private RecordId latestId(byte[] key) {
+        RedisConnection connection = redisConnectionFactory.getConnection();
+        try {
+            List<ByteRecord> records = connection.streamCommands().xRevRange(key, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+            return records == null || records.isEmpty() ? INITIAL_ID : records.get(0).getId();
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        Thread thread = new Thread(this::run, "caffeine-redis-stream-" + caffeineRedisCacheManager.hashCode());
+        thread.setDaemon(true);
+        readThread = thread;
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        Thread thread = readThread;
+        if (thread == null) {
+            return;
+        }
+        thread.interrupt();
+        try {
+            thread.join(block.toMillis() + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        readThread = null;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 因为事件被裁剪而清空caffeine cache的次数
+     *
+     * @return
+     */
+    public long getGapClearCount() {
+        return gapClearCount.sum();
+    }
+
+    private void run() {
+        RedisConnection connection = null;
+        while (running) {
+            try {
+                if (connection == null) {
+                    connection = redisConnectionFactory.getConnection();
+                }
+                read(connection);
+            } catch (RuntimeException e) {
+                if (!running) {
+                    break;
+                }
+                log.warn("cache stream read failed, retry after {}", block, e);
+                // 重新连接后检查断开期间的事件是否已经被裁剪
+                streams.values().forEach(state -> state.checkGap = true);
+                connection = close(connection);
+                if (!sleep(block.toMillis())) {
+                    break;
+                }
+            }
+        }
+        close(connection);
+    }
+
+    private void read(RedisConnection connection) {
+        List<StreamOffset<byte[]>> offsets = new ArrayList<>(streams.size());
+        Map<String, StreamState> reading = new HashMap<>();
+        for (Map.Entry<String, StreamState> entry : streams.entrySet()) {
+            StreamState state = entry.getValue();
+            if (state.lastId == null) {
+                state.lastId = latestId(state.key);
+            }
+            if (state.checkGap) {
+                checkGap(connection, state);
+            }
+            offsets.add(StreamOffset.create(state.key, ReadOffset.from(state.lastId)));
+            reading.put(entry.getKey(), state);
+        }
+        if (offsets.isEmpty()) {
+            sleep(block.toMillis());
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        List<ByteRecord> records = connection.streamCommands().xRead(StreamReadOptions.empty().count(batchSize).block(block), offsets.toArray(new StreamOffset[0]));
+        if (records == null || records.isEmpty()) {
+            return;
+        }
+        Map<StreamState, Integer> counts = new HashMap<>();
+        for (ByteRecord record : records) {
+            StreamState state = reading.get(RedisSerializer.string().deserialize(record.getStream()));
+            if (state == null) {
+                continue;
+            }
+            onRecord(state, record);
+            state.lastId = record.getId();
+            counts.merge(state, 1, Integer::sum);
+        }
+        // 读满一批说明落后于写入，下次读取前确认没有被裁剪
+        counts.forEach((state, count) -> state.checkGap = count >= batchSize);
+    }
+
+    private void onRecord(StreamState state, ByteRecord record) {
+        CaffeineRedisCache caffeineRedisCache = caffeineRedisCacheManager.lookupCache(state.cacheName);
+        if (caffeineRedisCache == null) {
+            return;
+        }
+        for (Map.Entry<byte[], byte[]> field : record.getValue().entrySet()) {
+            if (!Arrays.equals(StreamCacheEventPublisher.FIELD, field.getKey())) {
+                continue;
+            }
+            try {
+                DefaultCacheEventListener.onCacheMessage(caffeineRedisCache, field.getValue());
+            } catch (RuntimeException e) {
+                log.error("cache stream {} record {} handle failed", state.cacheName, record.getId(), e);
+            }
+        }
+    }
+
+    /**
+     * stream只从头部裁剪，最后读取的消息还在stream中时之后的事件都没有丢失；已经不在时中间的事件可能被裁剪，清空caffeine cache
+     */
+    private void checkGap(RedisConnection connection, StreamState state) {
+        RecordId lastId = state.lastId;
+        if (!INITIAL_ID.equals(lastId)) {
+            List<ByteRecord> oldest = connection.streamCommands().xRange(state.key, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+            if (oldest == null || oldest.isEmpty() || compare(oldest.get(0).getId(), lastId) > 0) {
+                CaffeineRedisCache caffeineRedisCache = caffeineRedisCacheManager.lookupCache(state.cacheName);
+                if (caffeineRedisCache != null) {
+                    log.warn("cache stream {} trimmed after {}, clear local cache", state.cacheName, lastId);
+                    caffeineRedisCache.clearLocal();
+                    gapClearCount.increment();
+                }
+            }
+        }
+        state.checkGap = false;
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int result = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    @Nullable
+    private static RedisConnection close(@Nullable RedisConnection connection) {
+        if (connection != null) {
+            try {
+                connection.close();
+            } catch (RuntimeException e) {
+                log.debug("cache stream connection close failed", e);
+            }
+        }
+        return null;
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static class StreamState {
+        private final String cacheName;
+        private final byte[] key;
+        /**
+         * 最后读取的消息id，为null时还没有获取到stream的最新消息id
+         */
+        private volatile RecordId lastId;
+        /**
+         * 下次读取前是否检查最后读取的消息是否已经被裁剪
+         */
+        private volatile boolean checkGap;
+
+        private StreamState(String cacheName, byte[] key) {
+            this.cacheName = cacheName;
+            this.key = key;
+        }
+    }
+}
@@ -7,4 +7,35 @@ package org.example.listener;
 public interface Topic {
     String CACHE_CHANNEL = "__cache_even_topic";
     String KEY_EXPIRATION_CHANNEL = "__keyevent@*__:expired";
+    String CACHE_STREAM = "__cache_event_stream";
+
+    /**
+     * 指定数据库的key过期通道
+     *
+     * @param database redis数据库
+     * @return
+     */
+    static String keyExpirationChannel(int database) {
+        return "__keyevent@" + database + "__:expired";
+    }
+
+    /**
+     * 指定缓存的事件通道，节点只订阅自己已经创建的缓存
+     *
+     * @param cacheName 缓存名称
+     * @return
+     */
+    static String cacheChannel(String cacheName) {
+        return CACHE_CHANNEL + ":" + cacheName;
+    }
+
+    /**
+     * 指定缓存的事件stream
+     *
+     * @param cacheName 缓存名称
+     * @return
+     */
+    static String cacheStream(String cacheName) {
+        return CACHE_STREAM + ":" + cacheName;
+    }
 }
\ No newline at end of file
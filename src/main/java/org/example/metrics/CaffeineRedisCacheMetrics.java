@@ -0,0 +1,157 @@
+package org.example.metrics;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.example.CacheMode;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheManager;
+import org.example.publisher.BatchingCacheEventPublisher;
+import org.example.publisher.CacheEventPublisher;
+import org.example.support.CircuitBreaker;
+import org.example.support.DegradationStatistics;
+import org.example.support.LoadStatistics;
+import org.example.support.NegativeLookupStatistics;
+import org.example.support.OffHeapStore;
+import org.example.support.ValueCodecStatistics;
+import org.springframework.lang.NonNull;
+
+import java.util.function.ToDoubleFunction;
+
+/**
+ * 缓存管理器中全部缓存的指标，之后创建的缓存在创建时绑定。
+ * <ul>
+ *     <li>一级缓存：caffeine cache自身的统计信息，指标名称为cache.gets、cache.evictions等，需要开启recordStats</li>
+ *     <li>二级缓存：redis的命中次数和读写耗时</li>
+ *     <li>加载：valueLoader的执行耗时，以及合并、租约、提前刷新的次数</li>
+ *     <li>缓存事件：发送的数量和大小，收到、应用、忽略的数量，从发送到应用的延迟，批量发送的队列和合并、丢弃、失败的数量</li>
+ *     <li>未命中记录、降级、熔断器、value编码和堆外存储的统计信息</li>
+ * </ul>
+ *
+ * @author lihui
+ * @since 2024/3/8
+ */
+public class CaffeineRedisCacheMetrics implements MeterBinder {
+    public static final String PREFIX = "caffeine.redis.cache";
+    private final CaffeineRedisCacheManager caffeineRedisCacheManager;
+    private final Iterable<Tag> tags;
+
+    public CaffeineRedisCacheMetrics(CaffeineRedisCacheManager caffeineRedisCacheManager) {
+        this(caffeineRedisCacheManager, Tags.empty());
+    }
+
+    /**
+     * @param caffeineRedisCacheManager
+     * @param tags                      所有缓存共同的标签
+     */
+    public CaffeineRedisCacheMetrics(CaffeineRedisCacheManager caffeineRedisCacheManager, Iterable<Tag> tags) {
+        this.caffeineRedisCacheManager = caffeineRedisCacheManager;
+        this.tags = tags;
+    }
+
+    @Override
+    public void bindTo(@NonNull MeterRegistry registry) {
+        // 先注册回调再绑定已有的缓存，同时创建的缓存可能绑定两次，重复注册的meter会被复用
+        caffeineRedisCacheManager.addCacheCreationListener(cache -> bindTo(registry, cache));
+        for (CaffeineRedisCache cache : caffeineRedisCacheManager.getCaches()) {
+            bindTo(registry, cache);
+        }
+    }
+
+    /**
+     * 绑定一个缓存的指标
+     *
+     * @param registry
+     * @param cache
+     */
+    public void bindTo(MeterRegistry registry, CaffeineRedisCache cache) {
+        if (cache.getCacheSpec().getMode() != CacheMode.L2_ONLY) {
+            CaffeineCacheMetrics.monitor(registry, cache.getCaffeineCache().getNativeCache(), cache.getName(), tags);
+        }
+        Tags cacheTags = Tags.concat(tags, "cache", cache.getName());
+        cache.setMetricsRecorder(new MicrometerCacheMetricsRecorder(registry, cacheTags));
+
+        LoadStatistics load = cache.getLoadStatistics();
+        counter(registry, "loads.coalesced", cacheTags, load, LoadStatistics::getCoalesced, "合并到其他线程的加载次数");
+        counter(registry, "loads.redis.hits", cacheTags, load, LoadStatistics::getRedisHits, "加载时一级缓存未命中、二级缓存命中的次数");
+        counter(registry, "loads.saved", cacheTags, load, LoadStatistics::getLoadsSaved, "通过合并、二级缓存命中和等待其他节点节省的加载次数");
+        counter(registry, "l2.reads.coalesced", cacheTags, load, LoadStatistics::getRedisReadsCoalesced, "合并到其他线程的异步redis读取次数");
+        counter(registry, "loads.lease", cacheTags.and("result", "wait"), load, LoadStatistics::getLeaseWaits, "等待其他节点加载后读取到redis的次数");
+        counter(registry, "loads.lease", cacheTags.and("result", "timeout"), load, LoadStatistics::getLeaseTimeouts, "等待其他节点加载超时的次数");
+        counter(registry, "refreshes", cacheTags.and("result", "success"), load, LoadStatistics::getRefreshes, "提前刷新的次数");
+        counter(registry, "refreshes", cacheTags.and("result", "skipped"), load, LoadStatistics::getRefreshesSkipped, "其他节点正在刷新而放弃的次数");
+        counter(registry, "refreshes", cacheTags.and("result", "rejected"), load, LoadStatistics::getRefreshesRejected, "线程池已满而放弃的次数");
+
+        NegativeLookupStatistics negative = cache.getNegativeLookupStatistics();
+        counter(registry, "negative.lookups", cacheTags.and("result", "tombstone"), negative, NegativeLookupStatistics::getTombstoneHits, "命中未命中记录的次数");
+        counter(registry, "negative.lookups", cacheTags.and("result", "bloom"), negative, NegativeLookupStatistics::getBloomNegatives, "布隆过滤器判断不存在的次数");
+        counter(registry, "bloom.false.positives", cacheTags, negative, NegativeLookupStatistics::getBloomFalsePositives, "布隆过滤器误判存在的次数");
+        gauge(registry, "tombstones", cacheTags, cache, CaffeineRedisCache::getTombstoneCount, "未命中记录的数量");
+        if (cache.getCacheSpec().getBloomFilterExpectedInsertions() != null) {
+            // 布隆过滤器在第一次使用时创建，重建后替换，每次读取时取当前的布隆过滤器
+            gauge(registry, "bloom.memory", cacheTags, cache, c -> c.getBloomFilter() == null ? 0 : c.getBloomFilter().memoryBytes(), "布隆过滤器占用的内存字节数");
+            gauge(registry, "bloom.fpp", cacheTags, cache, c -> c.getBloomFilter() == null ? 0 : c.getBloomFilter().expectedFpp(), "根据已经设置的位计算的布隆过滤器误判率");
+        }
+
+        DegradationStatistics degradation = cache.getDegradationStatistics();
+        counter(registry, "stale.hits", cacheTags, degradation, DegradationStatistics::getStaleHits, "redis不可用时返回过期值的次数");
+        counter(registry, "writes.deferred", cacheTags.and("result", "queued"), degradation, DegradationStatistics::getWritesQueued, "进入重放队列的redis写入次数");
+        counter(registry, "writes.deferred", cacheTags.and("result", "dropped"), degradation, DegradationStatistics::getWritesDropped, "放弃的redis写入次数");
+        counter(registry, "writes.deferred", cacheTags.and("result", "replayed"), degradation, DegradationStatistics::getWritesReplayed, "redis恢复后重放的写入次数");
+        counter(registry, "events.dropped", cacheTags, degradation, DegradationStatistics::getEventsDropped, "redis不可用时没有发送的缓存事件数量");
+        gauge(registry, "writes.pending", cacheTags, cache, CaffeineRedisCache::getPendingWriteCount, "等待重放的redis写入数量");
+
+        if (cache.getCacheSpec().getMode() != CacheMode.L2_ONLY) {
+            // 事件发送方式可能在创建缓存之后替换，每次读取时取当前的发送方式
+            counter(registry, "events.batching", cacheTags.and("result", "published"), cache, c -> batching(c, BatchingCacheEventPublisher::getPublished), "批量发送的缓存事件数量");
+            counter(registry, "events.batching", cacheTags.and("result", "deduplicated"), cache, c -> batching(c, BatchingCacheEventPublisher::getDeduplicated), "批量发送时合并掉的缓存事件数量");
+            counter(registry, "events.batching", cacheTags.and("result", "dropped"), cache, c -> batching(c, BatchingCacheEventPublisher::getDropped), "队列已满而丢弃的缓存事件数量");
+            counter(registry, "events.batching", cacheTags.and("result", "overflowed"), cache, c -> batching(c, BatchingCacheEventPublisher::getOverflowed), "队列已满而由调用线程发送的缓存事件数量");
+            counter(registry, "events.batching", cacheTags.and("result", "failed"), cache, c -> batching(c, BatchingCacheEventPublisher::getFailed), "批量发送失败的缓存事件数量");
+            counter(registry, "events.batches", cacheTags, cache, c -> batching(c, BatchingCacheEventPublisher::getBatches), "批量发送的消息数量");
+            gauge(registry, "events.queued", cacheTags, cache, c -> batching(c, BatchingCacheEventPublisher::getQueueSize), "等待批量发送的缓存事件数量");
+        }
+
+        CircuitBreaker circuitBreaker = cache.getCircuitBreaker();
+        if (circuitBreaker != null) {
+            gauge(registry, "circuit.breaker.state", cacheTags, circuitBreaker, breaker -> breaker.getState().ordinal(), "熔断器状态，0为关闭，1为打开，2为半开");
+            counter(registry, "circuit.breaker.opened", cacheTags, circuitBreaker, CircuitBreaker::getOpened, "熔断器打开的次数");
+            counter(registry, "circuit.breaker.half.opened", cacheTags, circuitBreaker, CircuitBreaker::getHalfOpened, "熔断器开始探测的次数");
+            counter(registry, "circuit.breaker.closed", cacheTags, circuitBreaker, CircuitBreaker::getClosed, "熔断器探测成功后关闭的次数");
+            counter(registry, "circuit.breaker.calls", cacheTags.and("result", "failed"), circuitBreaker, CircuitBreaker::getFailedCalls, "失败的redis访问次数");
+            counter(registry, "circuit.breaker.calls", cacheTags.and("result", "slow"), circuitBreaker, CircuitBreaker::getSlowCalls, "慢的redis访问次数");
+            counter(registry, "circuit.breaker.calls", cacheTags.and("result", "rejected"), circuitBreaker, CircuitBreaker::getRejectedCalls, "熔断期间拒绝的redis访问次数");
+        }
+
+        OffHeapStore offHeapStore = cache.getOffHeapStore();
+        if (offHeapStore != null) {
+            gauge(registry, "offheap.used", cacheTags, offHeapStore, OffHeapStore::getUsedBytes, "堆外存储中已经使用的块的字节数");
+            gauge(registry, "offheap.allocated", cacheTags, offHeapStore, OffHeapStore::getAllocatedBytes, "堆外存储已经分配的直接内存字节数");
+            counter(registry, "offheap.rejections", cacheTags, offHeapStore, OffHeapStore::getRejections, "value过大而没有保存到堆外存储的次数");
+            counter(registry, "offheap.reclaims", cacheTags, offHeapStore, OffHeapStore::getReclaims, "堆外存储为其他大小的value回收页的次数");
+        }
+
+        ValueCodecStatistics codec = cache.getValueCodec().getStatistics();
+        counter(registry, "codec.compressed", cacheTags, codec, ValueCodecStatistics::getCompressed, "压缩的value数量");
+        gauge(registry, "codec.compression.ratio", cacheTags, codec, ValueCodecStatistics::getCompressionRatio, "value编码前后的字节数之比");
+        gauge(registry, "codec.encode.average", cacheTags, codec, ValueCodecStatistics::getAverageEncodeNanos, "value的平均编码耗时，纳秒");
+        gauge(registry, "codec.decode.average", cacheTags, codec, ValueCodecStatistics::getAverageDecodeNanos, "value的平均解码耗时，纳秒");
+    }
+
+    private static double batching(CaffeineRedisCache cache, ToDoubleFunction<BatchingCacheEventPublisher> function) {
+        CacheEventPublisher publisher = cache.getCacheEventPublisher();
+        return publisher instanceof BatchingCacheEventPublisher ? function.applyAsDouble((BatchingCacheEventPublisher) publisher) : 0;
+    }
+
+    private static <T> void counter(MeterRegistry registry, String name, Tags tags, T obj, ToDoubleFunction<T> function, String description) {
+        FunctionCounter.builder(PREFIX + "." + name, obj, function).tags(tags).description(description).register(registry);
+    }
+
+    private static <T> void gauge(MeterRegistry registry, String name, Tags tags, T obj, ToDoubleFunction<T> function, String description) {
+        Gauge.builder(PREFIX + "." + name, obj, function).tags(tags).description(description).register(registry);
+    }
+}
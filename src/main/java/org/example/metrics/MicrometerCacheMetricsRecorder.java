@@ -0,0 +1,105 @@
+package org.example.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Timer;
+import org.example.support.CacheMetricsRecorder;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过micrometer记录一个缓存的指标，所有meter在创建时注册，记录时只累加计数和直方图，不分配对象
+ *
+ * @author lihui
+ * @since 2024/3/8
+ */
+public class MicrometerCacheMetricsRecorder implements CacheMetricsRecorder {
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+    private final Timer l2Reads;
+    private final Timer l2Writes;
+    private final Timer loadSuccesses;
+    private final Timer loadFailures;
+    private final Counter eventsPublished;
+    private final DistributionSummary publishSize;
+    private final Counter eventsReceived;
+    private final Counter eventsApplied;
+    private final Counter eventsIgnored;
+    private final Timer eventLag;
+
+    /**
+     * @param registry
+     * @param tags     包含缓存名称的标签
+     */
+    public MicrometerCacheMetricsRecorder(MeterRegistry registry, Iterable<Tag> tags) {
+        this.l2Hits = Counter.builder(CaffeineRedisCacheMetrics.PREFIX + ".l2.gets").tags(tags).tag("result", "hit").description("redis中存在的key的读取次数").register(registry);
+        this.l2Misses = Counter.builder(CaffeineRedisCacheMetrics.PREFIX + ".l2.gets").tags(tags).tag("result", "miss").description("redis中不存在的key的读取次数").register(registry);
+        this.l2Reads = latency(CaffeineRedisCacheMetrics.PREFIX + ".l2.latency", tags, "read", "redis读取的耗时，MGET计为一次").register(registry);
+        this.l2Writes = latency(CaffeineRedisCacheMetrics.PREFIX + ".l2.latency", tags, "write", "redis写入和删除的耗时，管道写入计为一次").register(registry);
+        this.loadSuccesses = Timer.builder(CaffeineRedisCacheMetrics.PREFIX + ".loads").tags(tags).tag("result", "success").description("valueLoader的执行耗时").register(registry);
+        this.loadFailures = Timer.builder(CaffeineRedisCacheMetrics.PREFIX + ".loads").tags(tags).tag("result", "failure").description("valueLoader的执行耗时").register(registry);
+        this.eventsPublished = Counter.builder(CaffeineRedisCacheMetrics.PREFIX + ".events.published").tags(tags).description("发送的缓存事件数量").register(registry);
+        this.publishSize = DistributionSummary.builder(CaffeineRedisCacheMetrics.PREFIX + ".events.publish.size").tags(tags).baseUnit("bytes").description("发送的缓存事件消息大小").register(registry);
+        this.eventsReceived = Counter.builder(CaffeineRedisCacheMetrics.PREFIX + ".events").tags(tags).tag("result", "received").description("收到的缓存事件数量").register(registry);
+        this.eventsApplied = Counter.builder(CaffeineRedisCacheMetrics.PREFIX + ".events").tags(tags).tag("result", "applied").description("应用到caffeine cache的缓存事件数量").register(registry);
+        this.eventsIgnored = Counter.builder(CaffeineRedisCacheMetrics.PREFIX + ".events").tags(tags).tag("result", "ignored").description("没有应用的缓存事件数量").register(registry);
+        this.eventLag = Timer.builder(CaffeineRedisCacheMetrics.PREFIX + ".events.lag").tags(tags).description("缓存事件从发送到应用的延迟，包含节点之间的时钟偏差")
+                .publishPercentileHistogram().minimumExpectedValue(Duration.ofMillis(1)).maximumExpectedValue(Duration.ofSeconds(30)).register(registry);
+    }
+
+    private static Timer.Builder latency(String name, Iterable<Tag> tags, String operation, String description) {
+        return Timer.builder(name).tags(tags).tag("operation", operation).description(description)
+                .publishPercentileHistogram().minimumExpectedValue(Duration.ofNanos(100_000)).maximumExpectedValue(Duration.ofSeconds(10));
+    }
+
+    @Override
+    public void recordL2Read(boolean hit, long nanos) {
+        (hit ? l2Hits : l2Misses).increment();
+        l2Reads.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordL2Reads(int hits, int misses, long nanos) {
+        l2Hits.increment(hits);
+        l2Misses.increment(misses);
+        l2Reads.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordL2Write(long nanos) {
+        l2Writes.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordLoad(boolean success, long nanos) {
+        (success ? loadSuccesses : loadFailures).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void recordPublish(int events, int bytes) {
+        eventsPublished.increment(events);
+        publishSize.record(bytes);
+    }
+
+    @Override
+    public void recordEventsReceived(int events) {
+        eventsReceived.increment(events);
+    }
+
+    @Override
+    public void recordEventApplied(long publishedAt) {
+        eventsApplied.increment();
+        if (publishedAt > 0) {
+            // 时钟偏差可能使延迟为负数
+            eventLag.record(Math.max(0, System.currentTimeMillis() - publishedAt), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void recordEventsIgnored(int events) {
+        eventsIgnored.increment(events);
+    }
+}
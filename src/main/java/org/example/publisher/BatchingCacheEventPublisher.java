@@ -0,0 +1,290 @@
+package org.example.publisher;
+
+import lombok.extern.slf4j.Slf4j;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventBatch;
+import org.example.event.CacheEventCodec;
+import org.example.event.CacheEventEnum;
+import org.example.listener.Topic;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 异步批量发送的Publisher，事件先放入队列，由后台线程定时或者达到批量大小时合并发送。
+ * <p>同一批次内同一个key只保留最后一个事件，多个删除事件合并为一个{@link CacheEventEnum#EVICT_KEYS}事件，最终合并为一条消息发送。
+ * 合并后的删除和清空事件使用被合并事件中最大的版本号，删除事件的版本号偏大时其他节点只会多一次从redis重新加载。
+ * <p>队列满时按{@link OverflowPolicy}处理，默认丢弃新的事件并计入{@link #getDropped()}，不阻塞调用线程。
+ * 被丢弃事件的key在其他节点上保留旧值，直到caffeine cache过期或者之后的事件覆盖。
+ * <p>销毁时（缓存管理器销毁时或者作为bean销毁时）停止后台线程并发送队列中剩余的事件，之后的事件由调用线程直接发送。
+ *
+ * @author lihui
+ * @since 2024/1/30
+ */
+@Slf4j
+public class BatchingCacheEventPublisher implements CacheEventPublisher, DisposableBean {
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final CacheEventCodec cacheEventCodec;
+    /**
+     * 缓存自己的事件通道
+     */
+    private final byte[] cacheChannel;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final long flushIntervalNanos;
+    private final OverflowPolicy overflowPolicy;
+    private final ConcurrentLinkedQueue<CacheEvent> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queueSize = new AtomicInteger();
+    /**
+     * 保证同一时间只有一个线程发送，事件按入队顺序发出
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Thread flusher;
+    private volatile boolean running = true;
+    private final LongAdder published = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    public BatchingCacheEventPublisher(RedisTemplate<String, Object> redisTemplate, CacheEventCodec cacheEventCodec) {
+        this(redisTemplate, cacheEventCodec, 10000, 500, Duration.ofMillis(10), OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param redisTemplate
+     * @param cacheEventCodec 为null时使用redisTemplate的序列化方式发送{@link CacheEventBatch}
+     * @param capacity        队列容量
+     * @param maxBatchSize    每批最多合并的事件数量
+     * @param flushInterval   后台线程的发送间隔
+     * @param overflowPolicy  队列满时的处理方式
+     */
+    public BatchingCacheEventPublisher(RedisTemplate<String, Object> redisTemplate, CacheEventCodec cacheEventCodec, int capacity, int maxBatchSize, Duration flushInterval, OverflowPolicy overflowPolicy) {
+        this.redisTemplate = redisTemplate;
+        this.cacheEventCodec = cacheEventCodec;
+        this.cacheChannel = cacheEventCodec == null ? null : RedisSerializer.string().serialize(Topic.cacheChannel(cacheEventCodec.getCacheName()));
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.flushIntervalNanos = flushInterval.toNanos();
+        this.overflowPolicy = overflowPolicy;
+        this.flusher = new Thread(this::run, "caffeine-redis-event-publisher-" + (cacheEventCodec == null ? "batch" : cacheEventCodec.getCacheName()));
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    @Override
+    public void publish(Object event) {
+        if (!(event instanceof CacheEvent)) {
+            // 无法合并的事件直接发送
+            redisTemplate.convertAndSend(Topic.CACHE_CHANNEL, event);
+            return;
+        }
+        if (queueSize.get() >= capacity) {
+            if (overflowPolicy == OverflowPolicy.DROP) {
+                if (dropped.sum() == 0) {
+                    log.warn("cache event queue of {} is full, dropping events", flusher.getName());
+                }
+                dropped.increment();
+                return;
+            }
+            overflowed.increment();
+            enqueue((CacheEvent) event);
+            // 调用线程直接发送，给调用方施加背压
+            flush();
+            return;
+        }
+        enqueue((CacheEvent) event);
+        if (!running) {
+            // 后台线程已经停止，由调用线程发送
+            flush();
+        } else if (queueSize.get() >= maxBatchSize) {
+            LockSupport.unpark(flusher);
+        }
+    }
+
+    /**
+     * 停止后台线程，并发送队列中剩余的事件
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join(Duration.ofSeconds(5).toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // 后台线程没有在等待时间内结束时，剩余的事件由当前线程发送
+        flush();
+    }
+
+    @Override
+    public void destroy() {
+        shutdown();
+    }
+
+    private void enqueue(CacheEvent event) {
+        queue.offer(event);
+        queueSize.incrementAndGet();
+    }
+
+    private void run() {
+        while (running) {
+            LockSupport.parkNanos(this, flushIntervalNanos);
+            flush();
+        }
+        flush();
+    }
+
+    private void flush() {
+        flushLock.lock();
+        try {
+            while (!queue.isEmpty()) {
+                List<CacheEvent> events = drain();
+                if (events.isEmpty()) {
+                    continue;
+                }
+                try {
+                    send(events);
+                    batches.increment();
+                    published.add(events.size());
+                } catch (Exception e) {
+                    failed.add(events.size());
+                    log.error("publish cache event batch error", e);
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void send(List<CacheEvent> events) {
+        if (cacheEventCodec != null) {
+            byte[] message = cacheEventCodec.encode(events);
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(cacheChannel, message));
+            return;
+        }
+        redisTemplate.convertAndSend(Topic.CACHE_CHANNEL, new CacheEventBatch(events));
+    }
+
+    /**
+     * 取出一批事件并合并，同一个key只保留最后一个事件
+     */
+    private List<CacheEvent> drain() {
+        Map<Object, CacheEvent> pending = new LinkedHashMap<>();
+        CacheEvent clear = null;
+        int count = 0;
+        CacheEvent event;
+        while (count < maxBatchSize && (event = queue.poll()) != null) {
+            queueSize.decrementAndGet();
+            count++;
+            String type = event.getType();
+            if (CacheEventEnum.CLEAR.name().equals(type)) {
+                // 清空事件之前的事件都不需要再发送
+                pending.clear();
+                clear = merge(clear, event);
+            } else if (CacheEventEnum.EVICT_KEYS.name().equals(type)) {
+                for (Object key : event.getKeys()) {
+                    CacheEvent evict = new CacheEvent(key, CacheEventEnum.EVICT_KEY.name());
+                    evict.setCacheName(event.getCacheName());
+                    evict.setVersion(event.getVersion());
+                    pending.put(key, evict);
+                }
+            } else {
+                pending.put(event.getKey(), event);
+            }
+        }
+        List<CacheEvent> events = new ArrayList<>(pending.size() + 2);
+        if (clear != null) {
+            events.add(clear);
+        }
+        List<Object> evictKeys = new ArrayList<>();
+        CacheEvent evictAll = null;
+        for (CacheEvent pendingEvent : pending.values()) {
+            if (CacheEventEnum.EVICT_KEY.name().equals(pendingEvent.getType())) {
+                evictKeys.add(pendingEvent.getKey());
+                evictAll = merge(evictAll, pendingEvent);
+            } else {
+                events.add(pendingEvent);
+            }
+        }
+        if (evictAll != null) {
+            evictAll.setKeys(evictKeys);
+            evictAll.setKey(null);
+            evictAll.setType(CacheEventEnum.EVICT_KEYS.name());
+            events.add(evictAll);
+        }
+        deduplicated.add(Math.max(0, count - pending.size() - (clear != null ? 1 : 0)));
+        return events;
+    }
+
+    /**
+     * 合并同一类事件，保留最大的版本号
+     *
+     * @param merged 已经合并的事件，为null时复制event
+     * @param event
+     * @return
+     */
+    private static CacheEvent merge(CacheEvent merged, CacheEvent event) {
+        if (merged == null) {
+            merged = new CacheEvent(event.getType());
+            merged.setCacheName(event.getCacheName());
+        }
+        merged.setVersion(Math.max(merged.getVersion(), event.getVersion()));
+        return merged;
+    }
+
+    public int getQueueSize() {
+        return queueSize.get();
+    }
+
+    public long getPublished() {
+        return published.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getDeduplicated() {
+        return deduplicated.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getOverflowed() {
+        return overflowed.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * 队列满时的处理方式
+     */
+    public enum OverflowPolicy {
+        /**
+         * 丢弃新的事件
+         */
+        DROP,
+        /**
+         * 由调用线程发送队列中的事件
+         */
+        CALLER_RUNS
+    }
+}
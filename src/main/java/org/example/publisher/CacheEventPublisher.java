@@ -2,6 +2,8 @@ package org.example.publisher;
 
 import org.example.CaffeineRedisCache;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * CaffeineRedisCache事件发布者接口，实现此接口以实现分布式架构的数据一致性，默认实现为：{@link DefaultCacheEventPublisher}
  * <p>如需替换为自定义Publisher，使用方法：{@link CaffeineRedisCache#setCacheEventPublisher(CacheEventPublisher)}
@@ -11,4 +13,21 @@ import org.example.CaffeineRedisCache;
  */
 public interface CacheEventPublisher {
     void publish(Object event);
+
+    /**
+     * 异步发送事件，默认在调用线程中同步发送
+     *
+     * @param event
+     * @return 发送完成时完成
+     */
+    default CompletableFuture<Void> publishAsync(Object event) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            publish(event);
+            future.complete(null);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
 }
\ No newline at end of file
@@ -1,7 +1,16 @@
 package org.example.publisher;
 
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
 import org.example.listener.Topic;
+import org.springframework.data.redis.connection.ReactiveRedisConnection;
+import org.springframework.data.redis.connection.ReactiveRedisConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 基于Redis发布订阅机制实现的分布式数据同步Publisher
@@ -11,14 +20,50 @@ import org.springframework.data.redis.core.RedisTemplate;
  */
 public class DefaultCacheEventPublisher implements CacheEventPublisher {
     private final RedisTemplate<String, Object> redisTemplate;
+    private final CacheEventCodec cacheEventCodec;
+    /**
+     * 缓存自己的事件通道
+     */
+    private final byte[] cacheChannel;
 
     public DefaultCacheEventPublisher(RedisTemplate<String, Object> redisTemplate) {
+        this(redisTemplate, null);
+    }
+
+    /**
+     * @param redisTemplate
+     * @param cacheEventCodec 为null时使用redisTemplate的序列化方式发送事件
+     */
+    public DefaultCacheEventPublisher(RedisTemplate<String, Object> redisTemplate, CacheEventCodec cacheEventCodec) {
         this.redisTemplate = redisTemplate;
+        this.cacheEventCodec = cacheEventCodec;
+        this.cacheChannel = cacheEventCodec == null ? null : RedisSerializer.string().serialize(Topic.cacheChannel(cacheEventCodec.getCacheName()));
     }
 
     @Override
     public void publish(Object event) {
         // 发送redis事件通知，更新其他节点的key
+        if (cacheEventCodec != null && event instanceof CacheEvent) {
+            byte[] message = cacheEventCodec.encode((CacheEvent) event);
+            redisTemplate.execute((RedisCallback<Long>) connection -> connection.publish(cacheChannel, message));
+            return;
+        }
         redisTemplate.convertAndSend(Topic.CACHE_CHANNEL, event);
     }
-}
\ No newline at end of file
+
+    /**
+     * 连接工厂支持响应式连接时（例如lettuce）通过非阻塞的连接发送，否则在调用线程中同步发送
+     */
+    @Override
+    public CompletableFuture<Void> publishAsync(Object event) {
+        if (cacheEventCodec == null || !(event instanceof CacheEvent) || !(redisTemplate.getConnectionFactory() instanceof ReactiveRedisConnectionFactory)) {
+            return CacheEventPublisher.super.publishAsync(event);
+        }
+        byte[] message = cacheEventCodec.encode((CacheEvent) event);
+        ReactiveRedisConnection connection = ((ReactiveRedisConnectionFactory) redisTemplate.getConnectionFactory()).getReactiveConnection();
+        return connection.pubSubCommands().publish(ByteBuffer.wrap(cacheChannel), ByteBuffer.wrap(message))
+                .doFinally(signal -> connection.close())
+                .then()
+                .toFuture();
+    }
+}
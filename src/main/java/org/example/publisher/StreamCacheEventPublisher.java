@@ -0,0 +1,57 @@
+package org.example.publisher;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
+import org.example.listener.StreamCacheEventListener;
+import org.example.listener.Topic;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.Collections;
+
+/**
+ * 基于Redis Stream实现的分布式数据同步Publisher，与{@link StreamCacheEventListener}配合使用。
+ * <p>每个缓存一个stream，通过XADD写入，按MAXLEN近似裁剪。与发布订阅不同，订阅方断开期间的事件保留在stream中，重新连接后可以补读。
+ *
+ * @author lihui
+ * @since 2024/3/13
+ */
+public class StreamCacheEventPublisher implements CacheEventPublisher {
+    /**
+     * stream中保存事件消息的字段
+     */
+    public static final byte[] FIELD = RedisSerializer.string().serialize("e");
+    private final RedisConnectionFactory redisConnectionFactory;
+    private final CacheEventCodec cacheEventCodec;
+    private final byte[] streamKey;
+    private final RedisStreamCommands.XAddOptions addOptions;
+
+    /**
+     * @param redisConnectionFactory
+     * @param cacheEventCodec
+     * @param maxLength              stream保留的最大事件消息数量，近似裁剪
+     */
+    public StreamCacheEventPublisher(RedisConnectionFactory redisConnectionFactory, CacheEventCodec cacheEventCodec, long maxLength) {
+        this.redisConnectionFactory = redisConnectionFactory;
+        this.cacheEventCodec = cacheEventCodec;
+        this.streamKey = RedisSerializer.string().serialize(Topic.cacheStream(cacheEventCodec.getCacheName()));
+        this.addOptions = RedisStreamCommands.XAddOptions.maxlen(maxLength).approximateTrimming(true);
+    }
+
+    @Override
+    public void publish(Object event) {
+        if (!(event instanceof CacheEvent)) {
+            throw new IllegalArgumentException("only CacheEvent can be published to redis stream");
+        }
+        byte[] message = cacheEventCodec.encode((CacheEvent) event);
+        RedisConnection connection = redisConnectionFactory.getConnection();
+        try {
+            connection.streamCommands().xAdd(MapRecord.create(streamKey, Collections.singletonMap(FIELD, message)), addOptions);
+        } finally {
+            connection.close();
+        }
+    }
+}
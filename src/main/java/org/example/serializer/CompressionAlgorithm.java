@@ -0,0 +1,40 @@
+package org.example.serializer;
+
+import lombok.Getter;
+
+/**
+ * redis中value的压缩算法
+ *
+ * @author lihui
+ * @since 2024/3/4
+ */
+@Getter
+public enum CompressionAlgorithm {
+    /**
+     * 不压缩
+     */
+    NONE((byte) 0),
+    /**
+     * jdk自带的deflate
+     */
+    DEFLATE((byte) 1),
+    /**
+     * lz4，需要引入org.lz4:lz4-java
+     */
+    LZ4((byte) 2);
+
+    private final byte code;
+
+    CompressionAlgorithm(byte code) {
+        this.code = code;
+    }
+
+    public static CompressionAlgorithm fromCode(byte code) {
+        for (CompressionAlgorithm algorithm : values()) {
+            if (algorithm.code == code) {
+                return algorithm;
+            }
+        }
+        throw new IllegalArgumentException("unknown compression algorithm: " + code);
+    }
+}
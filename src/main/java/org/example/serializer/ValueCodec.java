@@ -0,0 +1,279 @@
+package org.example.serializer;
+
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.jsontype.BasicPolymorphicTypeValidator;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import lombok.Getter;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+import org.example.support.ValueCodecStatistics;
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import org.springframework.data.redis.util.ByteUtils;
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * redis中value的编码，先序列化，超过阈值后压缩。
+ * <p>压缩后的value以7个字节的头开始：2个字节的魔数、1个字节的压缩算法、4个字节的原始长度，没有压缩的value与序列化结果完全一致，所以可以读取开启压缩之前写入的value。
+ * <p>压缩使用线程内复用的Deflater、Inflater和缓冲区，写入时只在最后复制一次，读取时直接解压到结果数组。
+ *
+ * @author lihui
+ * @since 2024/3/4
+ */
+public class ValueCodec implements RedisSerializer<Object> {
+    /**
+     * 0xC0不是合法的UTF-8首字节，也不是jdk序列化、json、smile的首字节
+     */
+    private static final byte MAGIC_0 = (byte) 0xC0;
+    private static final byte MAGIC_1 = (byte) 0xDE;
+    private static final int HEADER_LENGTH = 7;
+    /**
+     * 线程内保留的缓冲区的最大长度，更大的value使用临时缓冲区
+     */
+    private static final int MAX_RETAINED_BUFFER_LENGTH = 1 << 20;
+    private static final ThreadLocal<Deflater> DEFLATERS = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> INFLATERS = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> BUFFERS = ThreadLocal.withInitial(() -> new byte[8192]);
+    /**
+     * JACKSON和SMILE反序列化时总是允许的类型的包名前缀
+     */
+    private static final String[] DEFAULT_TRUSTED_PACKAGES = {"java.lang.", "java.util.", "java.time.", "java.math."};
+    private final RedisSerializer<Object> serializer;
+    @Getter
+    private final CompressionAlgorithm compression;
+    /**
+     * 序列化后超过该字节数时压缩
+     */
+    @Getter
+    private final int compressionThreshold;
+    @Getter
+    private final ValueCodecStatistics statistics = new ValueCodecStatistics();
+
+    public ValueCodec(RedisSerializer<Object> serializer, CompressionAlgorithm compression, int compressionThreshold) {
+        this.serializer = serializer;
+        this.compression = compression;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * 使用已有的序列化方式，不压缩
+     */
+    public static ValueCodec of(RedisSerializationContext.SerializationPair<Object> serializationPair) {
+        return new ValueCodec(new PairSerializer(serializationPair), CompressionAlgorithm.NONE, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param valueSerializer   序列化方式
+     * @param serializationPair {@link ValueSerializer#DEFAULT}使用的序列化方式
+     * @return
+     */
+    public static RedisSerializer<Object> createSerializer(ValueSerializer valueSerializer, RedisSerializationContext.SerializationPair<Object> serializationPair) {
+        return createSerializer(valueSerializer, serializationPair, Collections.emptySet());
+    }
+
+    /**
+     * @param valueSerializer   序列化方式
+     * @param serializationPair {@link ValueSerializer#DEFAULT}使用的序列化方式
+     * @param trustedPackages   JACKSON和SMILE反序列化时允许的类型的包名，java.lang、java.util、java.time、java.math总是允许
+     * @return
+     */
+    public static RedisSerializer<Object> createSerializer(ValueSerializer valueSerializer, RedisSerializationContext.SerializationPair<Object> serializationPair, Collection<String> trustedPackages) {
+        switch (valueSerializer) {
+            case JDK:
+                return RedisSerializer.java();
+            case JACKSON:
+                return jacksonSerializer(new ObjectMapper(), trustedPackages);
+            case SMILE:
+                return Smile.serializer(trustedPackages);
+            default:
+                return new PairSerializer(serializationPair);
+        }
+    }
+
+    /**
+     * 所有类型（包括final类、包装类型和java.time类型）都保存类型信息，读取时还原为写入时的类型。
+     * 类型信息来自redis，只允许反序列化信任的包中的类型，防止通过redis中的数据实例化任意类
+     */
+    private static RedisSerializer<Object> jacksonSerializer(ObjectMapper objectMapper, Collection<String> trustedPackages) {
+        objectMapper.registerModule(new JavaTimeModule());
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        BasicPolymorphicTypeValidator.Builder validator = BasicPolymorphicTypeValidator.builder().allowIfSubTypeIsArray();
+        for (String trustedPackage : DEFAULT_TRUSTED_PACKAGES) {
+            validator.allowIfSubType(trustedPackage);
+        }
+        for (String trustedPackage : trustedPackages) {
+            validator.allowIfSubType(trustedPackage.endsWith(".") ? trustedPackage : trustedPackage + ".");
+        }
+        objectMapper.activateDefaultTyping(validator.build(), ObjectMapper.DefaultTyping.EVERYTHING, JsonTypeInfo.As.PROPERTY);
+        return new GenericJackson2JsonRedisSerializer(objectMapper);
+    }
+
+    @Override
+    @Nullable
+    public byte[] serialize(@Nullable Object value) throws SerializationException {
+        long start = System.nanoTime();
+        byte[] raw = serializer.serialize(value);
+        if (raw == null) {
+            return null;
+        }
+        byte[] encoded = compression != CompressionAlgorithm.NONE && raw.length >= compressionThreshold ? compress(raw) : raw;
+        statistics.recordEncode(raw.length, encoded.length, System.nanoTime() - start);
+        return encoded;
+    }
+
+    @Override
+    @Nullable
+    public Object deserialize(@Nullable byte[] bytes) throws SerializationException {
+        if (bytes == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Object value = serializer.deserialize(isCompressed(bytes) ? decompress(bytes) : bytes);
+        statistics.recordDecode(System.nanoTime() - start);
+        return value;
+    }
+
+    private static boolean isCompressed(byte[] bytes) {
+        return bytes.length > HEADER_LENGTH && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    /**
+     * @return 压缩后没有变小时返回原数组
+     */
+    private byte[] compress(byte[] raw) {
+        if (raw.length <= HEADER_LENGTH) {
+            return raw;
+        }
+        // 压缩后不小于原始长度时不压缩，所以缓冲区不需要超过原始长度
+        byte[] buffer = buffer(raw.length);
+        int length = compression == CompressionAlgorithm.LZ4 ? Lz4.compress(raw, buffer, HEADER_LENGTH) : deflate(raw, buffer);
+        if (length < 0) {
+            return raw;
+        }
+        buffer[0] = MAGIC_0;
+        buffer[1] = MAGIC_1;
+        buffer[2] = compression.getCode();
+        buffer[3] = (byte) (raw.length >>> 24);
+        buffer[4] = (byte) (raw.length >>> 16);
+        buffer[5] = (byte) (raw.length >>> 8);
+        buffer[6] = (byte) raw.length;
+        return Arrays.copyOf(buffer, HEADER_LENGTH + length);
+    }
+
+    /**
+     * @return 压缩后的长度，缓冲区放不下时为-1
+     */
+    private static int deflate(byte[] raw, byte[] buffer) {
+        Deflater deflater = DEFLATERS.get();
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int length = deflater.deflate(buffer, HEADER_LENGTH, buffer.length - HEADER_LENGTH);
+        return deflater.finished() ? length : -1;
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        CompressionAlgorithm algorithm = CompressionAlgorithm.fromCode(bytes[2]);
+        int length = ((bytes[3] & 0xFF) << 24) | ((bytes[4] & 0xFF) << 16) | ((bytes[5] & 0xFF) << 8) | (bytes[6] & 0xFF);
+        byte[] raw = new byte[length];
+        if (algorithm == CompressionAlgorithm.LZ4) {
+            Lz4.decompress(bytes, HEADER_LENGTH, raw);
+            return raw;
+        }
+        Inflater inflater = INFLATERS.get();
+        inflater.reset();
+        inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+        try {
+            if (inflater.inflate(raw) != length) {
+                throw new SerializationException("inflated value is shorter than " + length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new SerializationException("cannot inflate value", e);
+        }
+        return raw;
+    }
+
+    private static byte[] buffer(int length) {
+        byte[] buffer = BUFFERS.get();
+        if (buffer.length >= length) {
+            return buffer;
+        }
+        buffer = new byte[length];
+        if (length <= MAX_RETAINED_BUFFER_LENGTH) {
+            BUFFERS.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * 通过SerializationPair序列化，读写时各复制一次
+     */
+    private static final class PairSerializer implements RedisSerializer<Object> {
+        private final RedisSerializationContext.SerializationPair<Object> serializationPair;
+
+        private PairSerializer(RedisSerializationContext.SerializationPair<Object> serializationPair) {
+            this.serializationPair = serializationPair;
+        }
+
+        @Override
+        public byte[] serialize(@Nullable Object value) throws SerializationException {
+            return ByteUtils.getBytes(serializationPair.write(value));
+        }
+
+        @Override
+        public Object deserialize(@Nullable byte[] bytes) throws SerializationException {
+            return bytes == null ? null : serializationPair.read(ByteBuffer.wrap(bytes));
+        }
+    }
+
+    /**
+     * 单独的类，没有引入jackson-dataformat-smile时不会加载
+     */
+    private static final class Smile {
+        private static RedisSerializer<Object> serializer(Collection<String> trustedPackages) {
+            return jacksonSerializer(new ObjectMapper(new SmileFactory()), trustedPackages);
+        }
+    }
+
+    /**
+     * 单独的类，没有引入lz4-java时不会加载
+     */
+    private static final class Lz4 {
+        private static final LZ4Compressor COMPRESSOR = LZ4Factory.fastestInstance().fastCompressor();
+        private static final LZ4FastDecompressor DECOMPRESSOR = LZ4Factory.fastestInstance().fastDecompressor();
+
+        /**
+         * @return 压缩后的长度，缓冲区放不下时为-1
+         */
+        private static int compress(byte[] raw, byte[] buffer, int offset) {
+            try {
+                return COMPRESSOR.compress(raw, 0, raw.length, buffer, offset, buffer.length - offset);
+            } catch (LZ4Exception e) {
+                return -1;
+            }
+        }
+
+        private static void decompress(byte[] bytes, int offset, byte[] raw) {
+            try {
+                DECOMPRESSOR.decompress(bytes, offset, raw, 0, raw.length);
+            } catch (LZ4Exception e) {
+                throw new SerializationException("cannot decompress lz4 value", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package org.example.serializer;
+
+/**
+ * redis中value的序列化方式
+ *
+ * @author lihui
+ * @since 2024/3/4
+ */
+public enum ValueSerializer {
+    /**
+     * 使用RedisCacheConfiguration中配置的序列化方式
+     */
+    DEFAULT,
+    /**
+     * jdk序列化
+     */
+    JDK,
+    /**
+     * jackson序列化为json，所有类型都保存类型信息，只反序列化信任的包中的类型
+     */
+    JACKSON,
+    /**
+     * jackson序列化为smile二进制格式，类型信息与JACKSON相同，需要引入com.fasterxml.jackson.dataformat:jackson-dataformat-smile
+     */
+    SMILE
+}
@@ -0,0 +1,85 @@
+package org.example.support;
+
+/**
+ * 缓存指标的记录方式，在读写路径上同步调用，实现类不能在记录时分配对象或阻塞。
+ * <p>一级缓存的命中率由caffeine cache自身的统计信息提供，这里只记录二级缓存、加载和缓存事件。
+ *
+ * @author lihui
+ * @since 2024/3/8
+ */
+public interface CacheMetricsRecorder {
+    /**
+     * 不记录任何指标，没有绑定指标时使用
+     */
+    CacheMetricsRecorder NOOP = new CacheMetricsRecorder() {
+    };
+
+    /**
+     * 读取redis
+     *
+     * @param hit   redis中是否存在
+     * @param nanos 耗时
+     */
+    default void recordL2Read(boolean hit, long nanos) {
+    }
+
+    /**
+     * 批量读取redis
+     *
+     * @param hits   redis中存在的key数量
+     * @param misses redis中不存在的key数量
+     * @param nanos  耗时
+     */
+    default void recordL2Reads(int hits, int misses, long nanos) {
+    }
+
+    /**
+     * 写入或删除redis
+     *
+     * @param nanos 耗时
+     */
+    default void recordL2Write(long nanos) {
+    }
+
+    /**
+     * 执行valueLoader
+     *
+     * @param success 是否加载成功
+     * @param nanos   耗时
+     */
+    default void recordLoad(boolean success, long nanos) {
+    }
+
+    /**
+     * 发送一条缓存事件消息
+     *
+     * @param events 消息中的事件数量
+     * @param bytes  消息的字节数
+     */
+    default void recordPublish(int events, int bytes) {
+    }
+
+    /**
+     * 收到缓存事件
+     *
+     * @param events 事件数量
+     */
+    default void recordEventsReceived(int events) {
+    }
+
+    /**
+     * 缓存事件已经应用到caffeine cache，从发送到应用的延迟包含节点之间的时钟偏差
+     *
+     * @param publishedAt 事件的发送时间，毫秒，旧版本节点的事件没有发送时间，为0
+     */
+    default void recordEventApplied(long publishedAt) {
+    }
+
+    /**
+     * 没有应用的缓存事件，例如本节点自己发出的事件，以及比本节点记录的版本号更早的事件
+     *
+     * @param events 事件数量
+     */
+    default void recordEventsIgnored(int events) {
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.support;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+import org.springframework.lang.NonNull;
+import org.springframework.lang.Nullable;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * caffeine cache的过期策略，每个key的过期时间与写入redis时的过期时间一致，可以按比例缩短并增加随机抖动，避免大量key同时过期。
+ * <p>没有指定过期时间的key（例如从redis加载到本地的key）使用默认过期时间。
+ *
+ * @author lihui
+ * @since 2024/2/5
+ */
+public class CaffeineExpiry implements Expiry<Object, Object> {
+    @Nullable
+    private final Duration defaultTtl;
+    @Nullable
+    private final Duration maxTtl;
+    private final double factor;
+    private final double jitter;
+
+    /**
+     * @param defaultTtl 默认过期时间，为null时不过期
+     * @param maxTtl     最长过期时间，为null时不限制
+     * @param factor     过期时间的缩放比例，取值(0, 1]
+     * @param jitter     随机缩短的最大比例，取值[0, 1)
+     */
+    public CaffeineExpiry(@Nullable Duration defaultTtl, @Nullable Duration maxTtl, double factor, double jitter) {
+        this.defaultTtl = defaultTtl;
+        this.maxTtl = maxTtl;
+        this.factor = factor;
+        this.jitter = jitter;
+    }
+
+    /**
+     * 计算caffeine cache中的过期时间
+     *
+     * @param ttl redis中的过期时间，为null、0或负数时不过期
+     * @return 纳秒
+     */
+    public long expireNanos(@Nullable Duration ttl) {
+        if (maxTtl != null && (ttl == null || ttl.isZero() || ttl.isNegative() || ttl.compareTo(maxTtl) > 0)) {
+            ttl = maxTtl;
+        }
+        if (ttl == null || ttl.isZero() || ttl.isNegative()) {
+            return Long.MAX_VALUE;
+        }
+        long nanos = (long) (ttl.toNanos() * factor);
+        if (jitter > 0) {
+            nanos -= (long) (nanos * jitter * ThreadLocalRandom.current().nextDouble());
+        }
+        return Math.max(1, nanos);
+    }
+
+    @Override
+    public long expireAfterCreate(@NonNull Object key, @NonNull Object value, long currentTime) {
+        return expireNanos(defaultTtl);
+    }
+
+    @Override
+    public long expireAfterUpdate(@NonNull Object key, @NonNull Object value, long currentTime, long currentDuration) {
+        return expireNanos(defaultTtl);
+    }
+
+    @Override
+    public long expireAfterRead(@NonNull Object key, @NonNull Object value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+}
@@ -0,0 +1,162 @@
+package org.example.support;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * redis访问的熔断器，连续失败或者超过慢调用阈值的次数达到上限后打开，打开期间不再访问redis。
+ * <p>打开超过探测间隔后由后台探测redis，探测成功后关闭。
+ *
+ * @author lihui
+ * @since 2024/2/26
+ */
+@Slf4j
+public class CircuitBreaker {
+    private final String name;
+    private final int failureThreshold;
+    /**
+     * 超过该时间的调用记为失败，为0时只按异常判断
+     */
+    private final long slowCallNanos;
+    private final long probeIntervalNanos;
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private volatile long openedAt;
+    private final LongAdder opened = new LongAdder();
+    private final LongAdder halfOpened = new LongAdder();
+    private final LongAdder closed = new LongAdder();
+    private final LongAdder failedCalls = new LongAdder();
+    private final LongAdder slowCalls = new LongAdder();
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    /**
+     * @param name              用于日志
+     * @param failureThreshold  连续失败多少次后打开
+     * @param slowCallThreshold 慢调用阈值，为null时只按异常判断
+     * @param probeInterval     打开后多久开始探测
+     */
+    public CircuitBreaker(String name, int failureThreshold, Duration slowCallThreshold, Duration probeInterval) {
+        this.name = name;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.slowCallNanos = slowCallThreshold == null ? 0 : slowCallThreshold.toNanos();
+        this.probeIntervalNanos = probeInterval.toNanos();
+    }
+
+    /**
+     * @return 为false时不能访问redis
+     */
+    public boolean allowRequest() {
+        if (state.get() == State.CLOSED) {
+            return true;
+        }
+        rejectedCalls.increment();
+        return false;
+    }
+
+    /**
+     * 记录一次成功的调用
+     *
+     * @param elapsedNanos 调用耗时
+     */
+    public void onSuccess(long elapsedNanos) {
+        if (slowCallNanos > 0 && elapsedNanos > slowCallNanos) {
+            slowCalls.increment();
+            onFailure();
+            return;
+        }
+        consecutiveFailures.set(0);
+    }
+
+    public void onFailure() {
+        failedCalls.increment();
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold && transition(State.CLOSED, State.OPEN)) {
+            log.warn("redis circuit breaker opened, cache: {}", name);
+        }
+    }
+
+    /**
+     * 打开超过探测间隔后，只有一个线程可以开始探测
+     *
+     * @return 为true时调用方需要执行探测，并调用{@link #onProbeSuccess()}或{@link #onProbeFailure()}
+     */
+    public boolean tryStartProbe() {
+        return state.get() == State.OPEN && System.nanoTime() - openedAt >= probeIntervalNanos && transition(State.OPEN, State.HALF_OPEN);
+    }
+
+    public void onProbeSuccess() {
+        if (transition(State.HALF_OPEN, State.CLOSED)) {
+            log.info("redis circuit breaker closed, cache: {}", name);
+        }
+    }
+
+    public void onProbeFailure() {
+        transition(State.HALF_OPEN, State.OPEN);
+    }
+
+    private boolean transition(State from, State to) {
+        if (!state.compareAndSet(from, to)) {
+            return false;
+        }
+        switch (to) {
+            case OPEN:
+                openedAt = System.nanoTime();
+                opened.increment();
+                break;
+            case HALF_OPEN:
+                halfOpened.increment();
+                break;
+            default:
+                consecutiveFailures.set(0);
+                closed.increment();
+        }
+        return true;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * 打开的次数
+     */
+    public long getOpened() {
+        return opened.sum();
+    }
+
+    /**
+     * 开始探测的次数
+     */
+    public long getHalfOpened() {
+        return halfOpened.sum();
+    }
+
+    /**
+     * 探测成功后关闭的次数
+     */
+    public long getClosed() {
+        return closed.sum();
+    }
+
+    public long getFailedCalls() {
+        return failedCalls.sum();
+    }
+
+    public long getSlowCalls() {
+        return slowCalls.sum();
+    }
+
+    /**
+     * 打开期间拒绝的调用次数
+     */
+    public long getRejectedCalls() {
+        return rejectedCalls.sum();
+    }
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+}
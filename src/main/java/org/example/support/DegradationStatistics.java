@@ -0,0 +1,72 @@
+package org.example.support;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * redis不可用期间的降级统计
+ *
+ * @author lihui
+ * @since 2024/2/26
+ */
+public class DegradationStatistics {
+    /**
+     * 返回已过期的caffeine cache值的次数
+     */
+    private final LongAdder staleHits = new LongAdder();
+    /**
+     * 进入重放队列的redis写入次数
+     */
+    private final LongAdder writesQueued = new LongAdder();
+    /**
+     * 重放队列已满或没有重放队列，放弃的redis写入次数
+     */
+    private final LongAdder writesDropped = new LongAdder();
+    /**
+     * redis恢复后重放的写入次数
+     */
+    private final LongAdder writesReplayed = new LongAdder();
+    /**
+     * 没有发送的缓存事件数量
+     */
+    private final LongAdder eventsDropped = new LongAdder();
+
+    public void recordStaleHit() {
+        staleHits.increment();
+    }
+
+    public void recordWriteQueued() {
+        writesQueued.increment();
+    }
+
+    public void recordWriteDropped() {
+        writesDropped.increment();
+    }
+
+    public void recordWriteReplayed() {
+        writesReplayed.increment();
+    }
+
+    public void recordEventDropped() {
+        eventsDropped.increment();
+    }
+
+    public long getStaleHits() {
+        return staleHits.sum();
+    }
+
+    public long getWritesQueued() {
+        return writesQueued.sum();
+    }
+
+    public long getWritesDropped() {
+        return writesDropped.sum();
+    }
+
+    public long getWritesReplayed() {
+        return writesReplayed.sum();
+    }
+
+    public long getEventsDropped() {
+        return eventsDropped.sum();
+    }
+}
@@ -0,0 +1,129 @@
+package org.example.support;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link org.example.CaffeineRedisCache#get(Object, java.util.concurrent.Callable)}的加载统计
+ *
+ * @author lihui
+ * @since 2024/1/26
+ */
+public class LoadStatistics {
+    /**
+     * 本节点实际执行valueLoader的次数
+     */
+    private final LongAdder loads = new LongAdder();
+    /**
+     * 本节点并发请求合并到同一次加载的次数
+     */
+    private final LongAdder coalesced = new LongAdder();
+    /**
+     * 本节点同一个key并发的异步redis读取合并到同一次读取的次数
+     */
+    private final LongAdder redisReadsCoalesced = new LongAdder();
+    /**
+     * 一级缓存未命中、二级缓存命中的次数
+     */
+    private final LongAdder redisHits = new LongAdder();
+    /**
+     * 等待其他节点加载完成后从redis获取到值的次数
+     */
+    private final LongAdder leaseWaits = new LongAdder();
+    /**
+     * 等待其他节点加载超时，由本节点自行加载的次数
+     */
+    private final LongAdder leaseTimeouts = new LongAdder();
+    /**
+     * 提前刷新的次数
+     */
+    private final LongAdder refreshes = new LongAdder();
+    /**
+     * 其他节点正在刷新，本节点放弃刷新的次数
+     */
+    private final LongAdder refreshesSkipped = new LongAdder();
+    /**
+     * 刷新线程池已满，放弃刷新的次数
+     */
+    private final LongAdder refreshesRejected = new LongAdder();
+
+    public void recordLoad() {
+        loads.increment();
+    }
+
+    public void recordCoalesced() {
+        coalesced.increment();
+    }
+
+    public void recordRedisReadCoalesced() {
+        redisReadsCoalesced.increment();
+    }
+
+    public void recordRedisHit() {
+        redisHits.increment();
+    }
+
+    public void recordLeaseWait() {
+        leaseWaits.increment();
+    }
+
+    public void recordLeaseTimeout() {
+        leaseTimeouts.increment();
+    }
+
+    public void recordRefresh() {
+        refreshes.increment();
+    }
+
+    public void recordRefreshSkipped() {
+        refreshesSkipped.increment();
+    }
+
+    public void recordRefreshRejected() {
+        refreshesRejected.increment();
+    }
+
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    public long getRedisReadsCoalesced() {
+        return redisReadsCoalesced.sum();
+    }
+
+    public long getRedisHits() {
+        return redisHits.sum();
+    }
+
+    public long getLeaseWaits() {
+        return leaseWaits.sum();
+    }
+
+    public long getLeaseTimeouts() {
+        return leaseTimeouts.sum();
+    }
+
+    public long getRefreshes() {
+        return refreshes.sum();
+    }
+
+    public long getRefreshesSkipped() {
+        return refreshesSkipped.sum();
+    }
+
+    public long getRefreshesRejected() {
+        return refreshesRejected.sum();
+    }
+
+    /**
+     * 节省的valueLoader执行次数
+     *
+     * @return
+     */
+    public long getLoadsSaved() {
+        return getCoalesced() + getRedisHits() + getLeaseWaits();
+    }
+}
@@ -0,0 +1,69 @@
+package org.example.support;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 未命中缓存的key的统计，包括本地的未命中记录和布隆过滤器
+ *
+ * @author lihui
+ * @since 2024/2/20
+ */
+public class NegativeLookupStatistics {
+    /**
+     * 命中本地未命中记录，没有访问redis的次数
+     */
+    private final LongAdder tombstoneHits = new LongAdder();
+    /**
+     * 布隆过滤器判断key一定不存在，没有访问redis的次数
+     */
+    private final LongAdder bloomNegatives = new LongAdder();
+    /**
+     * 布隆过滤器判断key可能存在，但redis中不存在的次数
+     */
+    private final LongAdder bloomFalsePositives = new LongAdder();
+    /**
+     * 布隆过滤器重建的次数
+     */
+    private final LongAdder bloomRebuilds = new LongAdder();
+
+    public void recordTombstoneHit() {
+        tombstoneHits.increment();
+    }
+
+    public void recordBloomNegative() {
+        bloomNegatives.increment();
+    }
+
+    public void recordBloomFalsePositive() {
+        bloomFalsePositives.increment();
+    }
+
+    public void recordBloomRebuild() {
+        bloomRebuilds.increment();
+    }
+
+    public long getTombstoneHits() {
+        return tombstoneHits.sum();
+    }
+
+    public long getBloomNegatives() {
+        return bloomNegatives.sum();
+    }
+
+    public long getBloomFalsePositives() {
+        return bloomFalsePositives.sum();
+    }
+
+    public long getBloomRebuilds() {
+        return bloomRebuilds.sum();
+    }
+
+    /**
+     * 实际观测到的布隆过滤器误判率，即不存在的key中被判断为可能存在的比例
+     */
+    public double getBloomFalsePositiveRate() {
+        long falsePositives = getBloomFalsePositives();
+        long total = falsePositives + getBloomNegatives();
+        return total == 0 ? 0 : (double) falsePositives / total;
+    }
+}
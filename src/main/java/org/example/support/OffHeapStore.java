@@ -0,0 +1,353 @@
+package org.example.support;
+
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+
+/**
+ * caffeine cache的堆外存储，caffeine cache中只保存{@link Slot}，序列化后的value保存在直接内存中。
+ * <p>直接内存按1MB的页分配，总量不超过容量；每页按分配时的大小等级切分为相同大小的块（64B到1MB，2的幂），释放的块进入该等级的空闲列表复用。
+ * 某个等级没有空闲块且页已经用完时，回收使用的块最少的页并重新切分，该页中原来的value全部失效，读取时视为未命中，并通过{@link #setReclaimListener(Consumer)}通知，
+ * caffeine cache删除对应的key，不再计算它们的权重。超过{@link #MAX_VALUE_LENGTH}的value不保存。
+ * <p>每个块以分配时的代数开始，每页有回收次数，{@link Slot}记录两者，块或页被重新使用后旧的{@link Slot}读取不到数据，释放时也会被忽略。
+ * 分配、释放和回收持有写锁，读取先乐观读，期间有写入时再持有读锁重新读取。
+ *
+ * @author lihui
+ * @since 2024/3/15
+ */
+public class OffHeapStore {
+    public static final int PAGE_SIZE = 1 << 20;
+    private static final int MIN_CHUNK_SHIFT = 6;
+    private static final int HEADER_LENGTH = 8;
+    public static final int MAX_VALUE_LENGTH = PAGE_SIZE - HEADER_LENGTH;
+    private final long capacity;
+    private final ByteBuffer[] pages;
+    /**
+     * 每页的大小等级
+     */
+    private final int[] pageClasses;
+    /**
+     * 每页被回收的次数
+     */
+    private final int[] pageEpochs;
+    /**
+     * 每页已经使用的块数量
+     */
+    private final int[] pageUsed;
+    /**
+     * 每页中正在使用的块，按页内的块序号索引
+     */
+    private final Slot[][] pageSlots;
+    /**
+     * 每个大小等级的空闲块，块的地址为 页序号(高32位) | 页内偏移(低32位)
+     */
+    private final long[][] freeChunks;
+    private final int[] freeCounts;
+    private final StampedLock lock = new StampedLock();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder reclaims = new LongAdder();
+    private volatile int pageCount;
+    private long generation;
+    private volatile long usedBytes;
+    @Nullable
+    private volatile Consumer<Slot> reclaimListener;
+
+    /**
+     * @param capacity 直接内存的最大字节数，向上取整为页大小的整数倍
+     */
+    public OffHeapStore(long capacity) {
+        long pages = Math.max(1, (capacity + PAGE_SIZE - 1) / PAGE_SIZE);
+        if (pages > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("off-heap capacity is too large: " + capacity);
+        }
+        this.capacity = pages * PAGE_SIZE;
+        this.pages = new ByteBuffer[(int) pages];
+        this.pageClasses = new int[(int) pages];
+        this.pageEpochs = new int[(int) pages];
+        this.pageUsed = new int[(int) pages];
+        this.pageSlots = new Slot[(int) pages][];
+        int classes = Integer.numberOfTrailingZeros(PAGE_SIZE) - MIN_CHUNK_SHIFT + 1;
+        this.freeChunks = new long[classes][];
+        this.freeCounts = new int[classes];
+        for (int i = 0; i < classes; i++) {
+            this.freeChunks[i] = new long[0];
+        }
+    }
+
+    /**
+     * caffeine cache的权重：堆外保存的value为占用的块大小，其他value为1
+     */
+    public static int weigh(Object key, Object value) {
+        return value instanceof Slot ? ((Slot) value).chunkSize : 1;
+    }
+
+    /**
+     * 设置回收页时的回调，参数是页中失效的每个{@link Slot}，在释放锁之后调用
+     *
+     * @param reclaimListener
+     */
+    public void setReclaimListener(@Nullable Consumer<Slot> reclaimListener) {
+        this.reclaimListener = reclaimListener;
+    }
+
+    /**
+     * 保存序列化后的value
+     *
+     * @param key   value在caffeine cache中的key，回收页时通过{@link Slot#getKey()}获取
+     * @param value
+     * @return 保存的位置，value过大时为null
+     */
+    @Nullable
+    public Slot put(Object key, byte[] value) {
+        if (value.length > MAX_VALUE_LENGTH) {
+            rejections.increment();
+            return null;
+        }
+        int sizeClass = sizeClass(value.length + HEADER_LENGTH);
+        List<Slot> reclaimed = Collections.emptyList();
+        Slot slot;
+        long stamp = lock.writeLock();
+        try {
+            if (freeCounts[sizeClass] == 0) {
+                int page;
+                if (pageCount < pages.length) {
+                    page = allocatePage();
+                } else {
+                    page = reclaimPage();
+                    reclaimed = releaseSlots(page);
+                }
+                carve(page, sizeClass);
+            }
+            long address = freeChunks[sizeClass][--freeCounts[sizeClass]];
+            int page = (int) (address >>> 32);
+            int offset = (int) address;
+            long slotGeneration = ++generation;
+            ByteBuffer buffer = pages[page].duplicate();
+            buffer.position(offset);
+            buffer.putLong(slotGeneration).put(value);
+            int chunkSize = 1 << (sizeClass + MIN_CHUNK_SHIFT);
+            pageUsed[page]++;
+            usedBytes += chunkSize;
+            slot = new Slot(key, page, pageEpochs[page], offset, value.length, chunkSize, slotGeneration);
+            pageSlots[page][offset >>> (sizeClass + MIN_CHUNK_SHIFT)] = slot;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+        Consumer<Slot> listener = this.reclaimListener;
+        if (listener != null) {
+            for (Slot reclaimedSlot : reclaimed) {
+                listener.accept(reclaimedSlot);
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * 读取保存的value
+     *
+     * @param slot
+     * @return 块或页已经被重新使用时为null
+     */
+    @Nullable
+    public byte[] get(Slot slot) {
+        long stamp = lock.tryOptimisticRead();
+        byte[] value = read(slot);
+        if (lock.validate(stamp)) {
+            return value;
+        }
+        stamp = lock.readLock();
+        try {
+            return read(slot);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    @Nullable
+    private byte[] read(Slot slot) {
+        if (!isLive(slot)) {
+            return null;
+        }
+        ByteBuffer buffer = pages[slot.page].duplicate();
+        buffer.position(slot.offset + HEADER_LENGTH);
+        byte[] value = new byte[slot.length];
+        buffer.get(value);
+        return value;
+    }
+
+    private boolean isLive(Slot slot) {
+        return pageEpochs[slot.page] == slot.epoch && pages[slot.page].getLong(slot.offset) == slot.generation;
+    }
+
+    /**
+     * 释放块，caffeine cache删除该value之后调用，块或页已经被重新使用时忽略
+     *
+     * @param slot
+     */
+    public void free(Slot slot) {
+        long stamp = lock.writeLock();
+        try {
+            if (!isLive(slot)) {
+                return;
+            }
+            // 清除代数，重复释放时忽略
+            pages[slot.page].putLong(slot.offset, 0);
+            pageSlots[slot.page][slot.offset / slot.chunkSize] = null;
+            push(pageClasses[slot.page], ((long) slot.page << 32) | slot.offset);
+            pageUsed[slot.page]--;
+            usedBytes -= slot.chunkSize;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private int allocatePage() {
+        int page = pageCount;
+        pages[page] = ByteBuffer.allocateDirect(PAGE_SIZE);
+        pageCount = page + 1;
+        return page;
+    }
+
+    /**
+     * 回收使用的块最少的页，页中原来的value全部失效
+     */
+    private int reclaimPage() {
+        int page = 0;
+        for (int i = 1; i < pageCount; i++) {
+            if (pageUsed[i] < pageUsed[page]) {
+                page = i;
+            }
+        }
+        int sizeClass = pageClasses[page];
+        long[] chunks = freeChunks[sizeClass];
+        int count = 0;
+        for (int i = 0; i < freeCounts[sizeClass]; i++) {
+            if ((int) (chunks[i] >>> 32) != page) {
+                chunks[count++] = chunks[i];
+            }
+        }
+        freeCounts[sizeClass] = count;
+        usedBytes -= (long) pageUsed[page] << (sizeClass + MIN_CHUNK_SHIFT);
+        pageUsed[page] = 0;
+        pageEpochs[page]++;
+        reclaims.increment();
+        return page;
+    }
+
+    /**
+     * 取出回收的页中正在使用的块
+     */
+    private List<Slot> releaseSlots(int page) {
+        List<Slot> slots = new ArrayList<>();
+        for (Slot slot : pageSlots[page]) {
+            if (slot != null) {
+                slots.add(slot);
+            }
+        }
+        return slots;
+    }
+
+    private void carve(int page, int sizeClass) {
+        pageClasses[page] = sizeClass;
+        int chunkSize = 1 << (sizeClass + MIN_CHUNK_SHIFT);
+        pageSlots[page] = new Slot[PAGE_SIZE / chunkSize];
+        for (int offset = PAGE_SIZE - chunkSize; offset >= 0; offset -= chunkSize) {
+            push(sizeClass, ((long) page << 32) | offset);
+        }
+    }
+
+    private void push(int sizeClass, long address) {
+        long[] chunks = freeChunks[sizeClass];
+        int count = freeCounts[sizeClass];
+        if (count == chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(16, count * 2));
+            freeChunks[sizeClass] = chunks;
+        }
+        chunks[count] = address;
+        freeCounts[sizeClass] = count + 1;
+    }
+
+    private static int sizeClass(int length) {
+        int shift = 32 - Integer.numberOfLeadingZeros(length - 1);
+        return Math.max(shift, MIN_CHUNK_SHIFT) - MIN_CHUNK_SHIFT;
+    }
+
+    /**
+     * 直接内存的最大字节数
+     */
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * 已经分配的直接内存字节数
+     */
+    public long getAllocatedBytes() {
+        return (long) pageCount * PAGE_SIZE;
+    }
+
+    /**
+     * 已经使用的块的字节数
+     */
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * 因为value过大而没有保存的次数
+     */
+    public long getRejections() {
+        return rejections.sum();
+    }
+
+    /**
+     * 为了其他大小等级回收页的次数
+     */
+    public long getReclaims() {
+        return reclaims.sum();
+    }
+
+    /**
+     * value在堆外存储中的位置
+     */
+    public static final class Slot {
+        private final Object key;
+        private final int page;
+        private final int epoch;
+        private final int offset;
+        private final int length;
+        private final int chunkSize;
+        private final long generation;
+
+        private Slot(Object key, int page, int epoch, int offset, int length, int chunkSize, long generation) {
+            this.key = key;
+            this.page = page;
+            this.epoch = epoch;
+            this.offset = offset;
+            this.length = length;
+            this.chunkSize = chunkSize;
+            this.generation = generation;
+        }
+
+        /**
+         * value在caffeine cache中的key
+         */
+        public Object getKey() {
+            return key;
+        }
+
+        /**
+         * 序列化后的value的字节数
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package org.example.support;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按key分段的锁，锁的数量固定，不会为每个key分配锁对象。
+ * <p>不同的key可能映射到同一把锁，所以持有锁期间只能做本地内存操作，不能做redis等网络操作。
+ * <p>redis写入在锁外执行，每个分段另外记录正在执行的写入数量和一个序号，写入开始和结束时序号加1。写入结束时，
+ * 期间同一分段没有其他写入才能按这次写入修改本地缓存；读取redis时，期间同一分段没有写入或修改才能把读取的值写入本地缓存。
+ *
+ * @author lihui
+ * @since 2024/1/25
+ */
+public class StripedLock {
+    private final ReentrantLock[] locks;
+    private final int mask;
+    /**
+     * 每个分段的序号，写入开始、写入结束和本地缓存被其他节点的事件修改时加1
+     */
+    private final AtomicLongArray sequences;
+    /**
+     * 每个分段正在执行的写入数量
+     */
+    private final AtomicIntegerArray writers;
+
+    public StripedLock() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    public StripedLock(int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        this.writers = new AtomicIntegerArray(size);
+    }
+
+    public ReentrantLock get(Object key) {
+        return locks[indexOf(key)];
+    }
+
+    public int size() {
+        return locks.length;
+    }
+
+    /**
+     * 开始一次写入，在写入redis之前调用，之后必须调用{@link #endWrite(Object, long)}
+     *
+     * @return 写入的序号
+     */
+    public long beginWrite(Object key) {
+        int index = indexOf(key);
+        writers.incrementAndGet(index);
+        return sequences.incrementAndGet(index);
+    }
+
+    /**
+     * 结束一次写入，在redis写入完成或失败后持有key的锁时调用
+     *
+     * @param ticket {@link #beginWrite(Object)}返回的序号
+     * @return 这次写入期间同一分段是否没有其他写入，是则可以按这次写入修改本地缓存，否则本地缓存的值与redis可能不一致
+     */
+    public boolean endWrite(Object key, long ticket) {
+        int index = indexOf(key);
+        boolean exclusive = sequences.get(index) == ticket && writers.get(index) == 1;
+        writers.decrementAndGet(index);
+        sequences.incrementAndGet(index);
+        return exclusive;
+    }
+
+    /**
+     * 开始清空全部key，期间所有分段的写入和读取都不会修改本地缓存，之后必须调用{@link #endWriteAll()}
+     */
+    public void beginWriteAll() {
+        for (int i = 0; i < locks.length; i++) {
+            writers.incrementAndGet(i);
+            sequences.incrementAndGet(i);
+        }
+    }
+
+    public void endWriteAll() {
+        for (int i = 0; i < locks.length; i++) {
+            writers.decrementAndGet(i);
+            sequences.incrementAndGet(i);
+        }
+    }
+
+    /**
+     * 开始读取redis，在读取之前调用
+     *
+     * @return 当前的序号，同一分段有正在执行的写入时为-1
+     */
+    public long readTicket(Object key) {
+        int index = indexOf(key);
+        // 先读取序号，写入开始时先增加写入数量，读取到的写入数量为0时序号一定早于这次写入
+        long sequence = sequences.get(index);
+        return writers.get(index) > 0 ? -1 : sequence;
+    }
+
+    /**
+     * 检查读取redis期间同一分段是否没有写入或修改，持有key的锁时调用
+     *
+     * @param ticket {@link #readTicket(Object)}返回的序号
+     */
+    public boolean unchangedSince(Object key, long ticket) {
+        int index = indexOf(key);
+        return ticket >= 0 && sequences.get(index) == ticket && writers.get(index) == 0;
+    }
+
+    /**
+     * 本地缓存被其他节点的事件修改，持有key的锁时调用，期间开始的读取不再写入本地缓存
+     */
+    public void advance(Object key) {
+        sequences.incrementAndGet(indexOf(key));
+    }
+
+    /**
+     * 本地缓存被清空，期间开始的读取不再写入本地缓存
+     */
+    public void advanceAll() {
+        for (int i = 0; i < locks.length; i++) {
+            sequences.incrementAndGet(i);
+        }
+    }
+
+    private int indexOf(Object key) {
+        int h = key.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
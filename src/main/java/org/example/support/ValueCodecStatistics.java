@@ -0,0 +1,81 @@
+package org.example.support;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * redis中value的编码统计，包括压缩比例和编解码耗时
+ *
+ * @author lihui
+ * @since 2024/3/4
+ */
+public class ValueCodecStatistics {
+    private final LongAdder encodes = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodes = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    /**
+     * 序列化后、压缩前的字节数
+     */
+    private final LongAdder rawBytes = new LongAdder();
+    /**
+     * 写入redis的字节数
+     */
+    private final LongAdder encodedBytes = new LongAdder();
+    /**
+     * 压缩的value数量
+     */
+    private final LongAdder compressed = new LongAdder();
+
+    public void recordEncode(int rawLength, int encodedLength, long nanos) {
+        encodes.increment();
+        encodeNanos.add(nanos);
+        rawBytes.add(rawLength);
+        encodedBytes.add(encodedLength);
+        if (encodedLength != rawLength) {
+            compressed.increment();
+        }
+    }
+
+    public void recordDecode(long nanos) {
+        decodes.increment();
+        decodeNanos.add(nanos);
+    }
+
+    public long getEncodes() {
+        return encodes.sum();
+    }
+
+    public long getDecodes() {
+        return decodes.sum();
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    /**
+     * 压缩比例，压缩前的字节数除以写入redis的字节数
+     */
+    public double getCompressionRatio() {
+        long encoded = getEncodedBytes();
+        return encoded == 0 ? 1 : (double) getRawBytes() / encoded;
+    }
+
+    public double getAverageEncodeNanos() {
+        long count = getEncodes();
+        return count == 0 ? 0 : (double) encodeNanos.sum() / count;
+    }
+
+    public double getAverageDecodeNanos() {
+        long count = getDecodes();
+        return count == 0 ? 0 : (double) decodeNanos.sum() / count;
+    }
+}
@@ -0,0 +1,90 @@
+package org.example;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.lang.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 使用{@link FakeRedisConnectionFactory}创建缓存管理器，配置与自动配置一致，不启动事件订阅
+ *
+ * @author lihui
+ * @since 2024/3/16
+ */
+public final class CacheFixture implements AutoCloseable {
+    public final FakeRedisConnectionFactory redisConnectionFactory = new FakeRedisConnectionFactory();
+    public final RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+    public final CaffeineRedisCacheManager cacheManager;
+
+    public CacheFixture(String name, CaffeineRedisCacheSpec cacheSpec) {
+        this(Collections.singletonMap(name, cacheSpec));
+    }
+
+    /**
+     * @param cacheSpecs 缓存名称和配置
+     */
+    public CacheFixture(Map<String, CaffeineRedisCacheSpec> cacheSpecs) {
+        this(RedisCacheConfiguration.defaultCacheConfig(), cacheSpecs);
+    }
+
+    /**
+     * @param redisCacheConfiguration 全局的redis配置，key统一使用字符串序列化
+     * @param cacheSpecs              缓存名称和配置
+     */
+    public CacheFixture(RedisCacheConfiguration redisCacheConfiguration, Map<String, CaffeineRedisCacheSpec> cacheSpecs) {
+        this(redisCacheConfiguration, cacheSpecs, null);
+    }
+
+    /**
+     * @param redisCacheConfiguration 全局的redis配置，key统一使用字符串序列化
+     * @param cacheSpecs              缓存名称和配置
+     * @param keyExpirationChannel    key过期事件通道，为null时不处理key过期事件
+     */
+    public CacheFixture(RedisCacheConfiguration redisCacheConfiguration, Map<String, CaffeineRedisCacheSpec> cacheSpecs, @Nullable String keyExpirationChannel) {
+        redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setHashKeySerializer(new StringRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+        RedisMessageListenerContainer redisMessageListenerContainer = new RedisMessageListenerContainer();
+        redisMessageListenerContainer.setConnectionFactory(redisConnectionFactory);
+        this.cacheManager = new CaffeineRedisCacheManager(redisCacheConfiguration.serializeKeysWith(RedisSerializationContext.SerializationPair.fromSerializer(new StringRedisSerializer())), redisConnectionFactory, redisTemplate, redisMessageListenerContainer, keyExpirationChannel);
+        this.cacheManager.setCacheSpecs(cacheSpecs);
+    }
+
+    public CaffeineRedisCache getCache(String name) {
+        return (CaffeineRedisCache) cacheManager.getCache(name);
+    }
+
+    /**
+     * 读取caffeine cache中的值，不访问redis
+     */
+    public static Object localValue(CaffeineRedisCache cache, Object key) {
+        return cache.getCaffeineCache().getNativeCache().getIfPresent(key);
+    }
+
+    /**
+     * 按其他节点发出的事件编码，用于模拟其他节点的消息
+     */
+    public static byte[] remoteMessage(CaffeineRedisCache cache, CacheEvent event, long version) {
+        event.setVersion(version);
+        byte[] message = cache.getCacheEventCodec().encode(event);
+        UUID origin = UUID.randomUUID();
+        ByteBuffer.wrap(message).putLong(CacheEventCodec.ORIGIN_OFFSET, origin.getMostSignificantBits()).putLong(CacheEventCodec.ORIGIN_OFFSET + 8, origin.getLeastSignificantBits());
+        return message;
+    }
+
+    @Override
+    public void close() {
+        cacheManager.destroy();
+        redisConnectionFactory.flushAll();
+    }
+}
@@ -0,0 +1,148 @@
+package org.example;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheAsyncTest {
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().build());
+        cache = fixture.getCache("user");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void getAsyncReadsRedisAndFillsLocal() throws Exception {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+
+        assertEquals("v1", cache.getAsync("k1", String.class).get(5, TimeUnit.SECONDS));
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertNull(cache.getAsync("k2", String.class).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void concurrentReadsOfSameKeyAreCoalesced() throws Exception {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+        CountDownLatch reading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger reads = new AtomicInteger();
+        fixture.redisConnectionFactory.setInterceptor((name, args) -> {
+            if (name.equals("get")) {
+                reads.incrementAndGet();
+                reading.countDown();
+                await(release);
+            }
+        });
+
+        CompletableFuture<String> first = cache.getAsync("k1", String.class);
+        assertTrue(reading.await(5, TimeUnit.SECONDS));
+        CompletableFuture<String> second = cache.getAsync("k1", String.class);
+        release.countDown();
+
+        assertEquals("v1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("v1", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, reads.get());
+        assertEquals(1, cache.getLoadStatistics().getRedisReadsCoalesced());
+    }
+
+    @Test
+    void getAsyncLoadsOnceAndWritesBothTiers() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CompletableFuture<String> loaded = new CompletableFuture<>();
+        CompletableFuture<String> first = cache.getAsync("k1", () -> {
+            loads.incrementAndGet();
+            return loaded;
+        });
+        CompletableFuture<String> second = cache.getAsync("k1", () -> {
+            loads.incrementAndGet();
+            return CompletableFuture.completedFuture("other");
+        });
+        loaded.complete("v1");
+
+        assertEquals("v1", first.get(5, TimeUnit.SECONDS));
+        assertEquals("v1", second.get(5, TimeUnit.SECONDS));
+        assertEquals(1, loads.get());
+        cache.evictLocal("k1");
+        assertEquals("v1", cache.get("k1", String.class));
+    }
+
+    @Test
+    void getAllAsync() throws Exception {
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+        cache.evictLocal("k2");
+
+        Map<Object, String> values = cache.getAllAsync(Arrays.asList("k1", "k2", "k3"), String.class).get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, values.size());
+        assertEquals("v1", values.get("k1"));
+        assertEquals("v2", values.get("k2"));
+    }
+
+    @Test
+    void putAsyncAndEvictAsync() throws Exception {
+        cache.putAsync("k1", "v1", null).get(5, TimeUnit.SECONDS);
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertEquals(CacheEventEnum.UPDATE_KEY.name(), lastEvent().getType());
+
+        cache.evictAsync("k1").get(5, TimeUnit.SECONDS);
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        assertNull(fixture.redisConnectionFactory.get("user::k1"));
+        assertEquals(CacheEventEnum.EVICT_KEY.name(), lastEvent().getType());
+    }
+
+    @Test
+    void failedPutAsyncLeavesNoLocalValue() {
+        cache.put("k1", "v1");
+        fixture.redisConnectionFactory.setAvailable(false);
+
+        assertThrows(ExecutionException.class, () -> cache.putAsync("k1", "v2", null).get(5, TimeUnit.SECONDS));
+        fixture.redisConnectionFactory.setAvailable(true);
+        // 本地缓存不保留可能与redis不一致的值
+        assertNull(CacheFixture.localValue(cache, "k1"));
+    }
+
+    private CacheEvent lastEvent() {
+        List<byte[]> published = fixture.redisConnectionFactory.getPublished();
+        List<CacheEvent> events = cache.getCacheEventCodec().decode(published.get(published.size() - 1));
+        return events.get(events.size() - 1);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package org.example;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheBulkTest {
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+    private final Map<String, AtomicInteger> commands = new ConcurrentHashMap<>();
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().build());
+        cache = fixture.getCache("user");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void getAllReadsMissingKeysWithOneMGet() {
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+        cache.put("k3", "v3");
+        cache.evictLocal("k2");
+        cache.evictLocal("k3");
+        countCommands();
+
+        Map<Object, String> values = cache.getAll(Arrays.asList("k1", "k2", "k3", "k4"), String.class);
+
+        Map<Object, String> expected = new LinkedHashMap<>();
+        expected.put("k1", "v1");
+        expected.put("k2", "v2");
+        expected.put("k3", "v3");
+        assertEquals(expected, values);
+        assertEquals(1, count("mGet"));
+        assertEquals(0, count("get"));
+        assertEquals("v2", CacheFixture.localValue(cache, "k2"));
+        assertEquals("v3", CacheFixture.localValue(cache, "k3"));
+    }
+
+    @Test
+    void getAllHitsLocalWithoutRedis() {
+        cache.put("k1", "v1");
+        countCommands();
+
+        assertEquals("v1", cache.getAll(Arrays.asList("k1"), String.class).get("k1"));
+        assertEquals(0, count("mGet"));
+    }
+
+    @Test
+    void putAllPipelinesWritesAndPublishesOneEvent() {
+        Map<Object, Object> values = new LinkedHashMap<>();
+        values.put("k1", "v1");
+        values.put("k2", "v2");
+        countCommands();
+
+        cache.putAll(values, Duration.ofMinutes(1));
+
+        assertEquals(1, count("openPipeline"));
+        assertEquals(2, count("set"));
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertEquals("v2", cache.get("k2", String.class));
+        List<CacheEvent> events = publishedEvents();
+        assertEquals(1, events.size());
+        assertEquals(CacheEventEnum.EVICT_KEYS.name(), events.get(0).getType());
+        assertEquals(Arrays.asList("k1", "k2"), events.get(0).getKeys());
+    }
+
+    @Test
+    void evictAllDeletesWithOneDel() {
+        Map<Object, Object> values = new LinkedHashMap<>();
+        values.put("k1", "v1");
+        values.put("k2", "v2");
+        values.put("k3", "v3");
+        cache.putAll(values, (Duration) null);
+        fixture.redisConnectionFactory.getPublished().clear();
+        countCommands();
+
+        cache.evictAll(Arrays.asList("k1", "k2"));
+
+        assertEquals(1, count("del"));
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        assertNull(fixture.redisConnectionFactory.get("user::k2"));
+        assertEquals("v3", CacheFixture.localValue(cache, "k3"));
+        List<CacheEvent> events = publishedEvents();
+        assertEquals(1, events.size());
+        assertEquals(Arrays.asList("k1", "k2"), events.get(0).getKeys());
+    }
+
+    private void countCommands() {
+        fixture.redisConnectionFactory.setInterceptor((name, args) -> commands.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet());
+    }
+
+    private int count(String command) {
+        AtomicInteger count = commands.get(command);
+        return count == null ? 0 : count.get();
+    }
+
+    private List<CacheEvent> publishedEvents() {
+        List<byte[]> published = fixture.redisConnectionFactory.getPublished();
+        assertEquals(1, published.size());
+        return cache.getCacheEventCodec().decode(published.get(0));
+    }
+}
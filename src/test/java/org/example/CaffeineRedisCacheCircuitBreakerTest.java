@@ -0,0 +1,148 @@
+package org.example;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.example.support.CircuitBreaker;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * redis不可用时的降级：写入进入重放队列，读取返回过期保留的旧值，redis恢复后按顺序重放
+ *
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheCircuitBreakerTest {
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder()
+                .circuitBreakerFailureThreshold(1)
+                .circuitBreakerProbeInterval(Duration.ofMillis(50))
+                .replayQueueCapacity(100)
+                .staleGracePeriod(Duration.ofMinutes(1))
+                .build());
+        cache = fixture.getCache("user");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void putIsReplayed() throws InterruptedException {
+        fixture.redisConnectionFactory.setAvailable(false);
+        cache.put("k1", "v1");
+
+        assertEquals(CircuitBreaker.State.OPEN, cache.getCircuitBreaker().getState());
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertEquals(1, cache.getPendingWriteCount());
+
+        fixture.redisConnectionFactory.setAvailable(true);
+        awaitReplayed(1);
+        assertNotNull(fixture.redisConnectionFactory.get(cache.createRedisKey("k1")));
+        CacheEvent event = lastEvent();
+        assertEquals(CacheEventEnum.UPDATE_KEY.name(), event.getType());
+        assertEquals("k1", event.getKey());
+    }
+
+    @Test
+    void evictIsReplayed() throws InterruptedException {
+        cache.put("k1", "v1");
+        fixture.redisConnectionFactory.setAvailable(false);
+        cache.evict("k1");
+
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        fixture.redisConnectionFactory.setAvailable(true);
+        awaitReplayed(1);
+        assertNull(fixture.redisConnectionFactory.get(cache.createRedisKey("k1")));
+        assertEquals(CacheEventEnum.EVICT_KEY.name(), lastEvent().getType());
+    }
+
+    @Test
+    void clearIsReplayedBeforeLaterWrites() throws InterruptedException {
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+        fixture.redisConnectionFactory.setAvailable(false);
+        cache.put("k1", "v1-new");
+        cache.clear();
+        cache.put("k3", "v3");
+
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        assertEquals("v3", CacheFixture.localValue(cache, "k3"));
+        // 清空之前的写入不再重放
+        assertEquals(2, cache.getPendingWriteCount());
+        // 清空事件在熔断期间也会尝试发送
+        assertTrue(cache.getDegradationStatistics().getEventsDropped() > 0);
+
+        fixture.redisConnectionFactory.setAvailable(true);
+        awaitReplayed(2);
+        assertNull(fixture.redisConnectionFactory.get(cache.createRedisKey("k1")));
+        assertNull(fixture.redisConnectionFactory.get(cache.createRedisKey("k2")));
+        assertNotNull(fixture.redisConnectionFactory.get(cache.createRedisKey("k3")));
+        List<CacheEvent> events = events();
+        assertEquals(CacheEventEnum.CLEAR.name(), events.get(events.size() - 2).getType());
+        assertEquals("k3", events.get(events.size() - 1).getKey());
+        assertEquals("v3", cache.get("k3", String.class));
+    }
+
+    @Test
+    void lookupReturnsStaleValue() {
+        cache.put("k1", "v1");
+        cache.retainStale("k1", "v1");
+        cache.evictLocal("k1");
+        fixture.redisConnectionFactory.setAvailable(false);
+
+        assertEquals("v1", cache.get("k1", String.class));
+        assertNull(cache.get("k2"));
+        assertEquals(1, cache.getDegradationStatistics().getStaleHits());
+    }
+
+    @Test
+    void loaderRunsWhenRedisIsDown() {
+        fixture.redisConnectionFactory.setAvailable(false);
+
+        assertEquals("loaded", cache.get("k1", () -> "loaded"));
+        assertEquals("loaded", CacheFixture.localValue(cache, "k1"));
+        assertEquals(1, cache.getPendingWriteCount());
+    }
+
+    /**
+     * 等待探测成功并重放count次写入，读取会在熔断器打开超过探测间隔后触发探测
+     */
+    private void awaitReplayed(long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.getDegradationStatistics().getWritesReplayed() < count && System.currentTimeMillis() < deadline) {
+            cache.get("probe");
+            Thread.sleep(20);
+        }
+        assertEquals(count, cache.getDegradationStatistics().getWritesReplayed());
+    }
+
+    private List<CacheEvent> events() {
+        List<byte[]> published = fixture.redisConnectionFactory.getPublished();
+        List<CacheEvent> events = new ArrayList<>();
+        for (byte[] message : published) {
+            events.addAll(cache.getCacheEventCodec().decode(message));
+        }
+        return events;
+    }
+
+    private CacheEvent lastEvent() {
+        List<CacheEvent> events = events();
+        return events.get(events.size() - 1);
+    }
+}
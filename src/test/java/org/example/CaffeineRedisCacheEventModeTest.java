@@ -0,0 +1,62 @@
+package org.example;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheEventMode;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheEventModeTest {
+    @Test
+    void updateModeBroadcastsValues() {
+        try (CacheFixture fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().eventMode(CacheEventMode.UPDATE).build())) {
+            CaffeineRedisCache cache = fixture.getCache("user");
+            cache.put("k1", "v1");
+            CacheEvent put = lastEvent(fixture, cache);
+            assertEquals(CacheEventEnum.UPDATE_KEY.name(), put.getType());
+            assertEquals("v1", put.getValue());
+
+            // 二级缓存命中时也通知其他节点
+            cache.evictLocal("k1");
+            fixture.redisConnectionFactory.getPublished().clear();
+            assertEquals("v1", cache.get("k1", String.class));
+            CacheEvent hit = lastEvent(fixture, cache);
+            assertEquals(CacheEventEnum.UPDATE_KEY.name(), hit.getType());
+            assertEquals("v1", hit.getValue());
+        }
+    }
+
+    @Test
+    void invalidateModeBroadcastsKeysOnly() {
+        try (CacheFixture fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().eventMode(CacheEventMode.INVALIDATE).build())) {
+            CaffeineRedisCache cache = fixture.getCache("user");
+            cache.put("k1", "v1");
+            CacheEvent put = lastEvent(fixture, cache);
+            assertEquals(CacheEventEnum.EVICT_KEY.name(), put.getType());
+            assertEquals("k1", put.getKey());
+            assertNull(put.getValue());
+            assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+
+            // 二级缓存命中时redis中的值没有变化，不发送事件
+            cache.evictLocal("k1");
+            fixture.redisConnectionFactory.getPublished().clear();
+            assertEquals("v1", cache.get("k1", String.class));
+            assertTrue(fixture.redisConnectionFactory.getPublished().isEmpty());
+        }
+    }
+
+    private static CacheEvent lastEvent(CacheFixture fixture, CaffeineRedisCache cache) {
+        List<byte[]> published = fixture.redisConnectionFactory.getPublished();
+        List<CacheEvent> events = cache.getCacheEventCodec().decode(published.get(published.size() - 1));
+        return events.get(events.size() - 1);
+    }
+}
@@ -0,0 +1,113 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.Cache;
+import org.springframework.data.redis.util.ByteUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheLoadTest {
+    private static final String LEASE_KEY = "user::k1::lease";
+
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().build());
+        cache = fixture.getCache("user");
+        cache.setLoadPollInterval(Duration.ofMillis(10));
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void concurrentLoadsRunLoaderOnce() throws Exception {
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return cache.get("k1", () -> {
+                    loads.incrementAndGet();
+                    Thread.sleep(100);
+                    return "v1";
+                });
+            }));
+        }
+        start.countDown();
+        for (Future<String> result : results) {
+            assertEquals("v1", result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        assertEquals(1, loads.get());
+        assertNull(fixture.redisConnectionFactory.get(LEASE_KEY));
+    }
+
+    @Test
+    void waitsForLeaseHolder() throws Exception {
+        // 其他节点持有租约，正在加载
+        fixture.redisConnectionFactory.set(LEASE_KEY, "other".getBytes(StandardCharsets.UTF_8));
+        AtomicInteger loads = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<String> result = executor.submit(() -> cache.get("k1", () -> {
+            loads.incrementAndGet();
+            return "local";
+        }));
+        Thread.sleep(50);
+        fixture.redisConnectionFactory.set("user::k1", ByteUtils.getBytes(cache.getRedisCache().getCacheConfiguration().getValueSerializationPair().write("v1")));
+        fixture.redisConnectionFactory.delete(LEASE_KEY);
+
+        assertEquals("v1", result.get(5, TimeUnit.SECONDS));
+        executor.shutdown();
+        assertEquals(0, loads.get());
+        assertEquals(1, cache.getLoadStatistics().getLeaseWaits());
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void leaseTimeoutLoadsLocally() {
+        cache.setLoadLeaseTime(Duration.ofMillis(100));
+        fixture.redisConnectionFactory.set(LEASE_KEY, "other".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("local", cache.get("k1", () -> "local"));
+        assertEquals(1, cache.getLoadStatistics().getLeaseTimeouts());
+        // 其他节点的租约不被释放
+        assertEquals("other", new String(fixture.redisConnectionFactory.get(LEASE_KEY), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void failedLoadReleasesLease() {
+        assertThrows(Cache.ValueRetrievalException.class, () -> cache.get("k1", () -> {
+            throw new IllegalStateException("load failed");
+        }));
+
+        assertNull(fixture.redisConnectionFactory.get(LEASE_KEY));
+        assertEquals("v1", cache.get("k1", () -> "v1"));
+    }
+}
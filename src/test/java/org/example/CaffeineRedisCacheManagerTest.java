@@ -0,0 +1,99 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheManagerTest {
+    @Test
+    void cacheNullValuesOverridesGlobal() {
+        Map<String, CaffeineRedisCacheSpec> cacheSpecs = new HashMap<>();
+        cacheSpecs.put("nullable", CaffeineRedisCacheSpec.builder().cacheNullValues(true).build());
+        cacheSpecs.put("default", CaffeineRedisCacheSpec.builder().build());
+        RedisCacheConfiguration redisCacheConfiguration = RedisCacheConfiguration.defaultCacheConfig().disableCachingNullValues().prefixCacheNameWith("app:").entryTtl(Duration.ofMinutes(5));
+        try (CacheFixture fixture = new CacheFixture(redisCacheConfiguration, cacheSpecs)) {
+            CaffeineRedisCache nullable = fixture.getCache("nullable");
+            RedisCacheConfiguration configuration = nullable.getRedisCache().getCacheConfiguration();
+            assertTrue(configuration.getAllowCacheNullValues());
+            assertTrue(nullable.getCaffeineCache().isAllowNullValues());
+            // 重新开启缓存null值时保留全局的其他配置
+            assertEquals(Duration.ofMinutes(5), configuration.getTtl());
+            assertEquals("app:nullable::", configuration.getKeyPrefixFor("nullable"));
+
+            nullable.put("k1", null);
+            assertNotNull(nullable.get("k1"));
+            assertNull(nullable.get("k1").get());
+            assertNotNull(fixture.redisConnectionFactory.get("app:nullable::k1"));
+
+            assertFalse(fixture.getCache("default").getRedisCache().getCacheConfiguration().getAllowCacheNullValues());
+        }
+    }
+
+    @Test
+    void cacheNullValuesDisablesGlobal() {
+        try (CacheFixture fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().cacheNullValues(false).build())) {
+            assertFalse(fixture.getCache("user").getRedisCache().getCacheConfiguration().getAllowCacheNullValues());
+        }
+    }
+
+    @Test
+    void localExpiryFollowsPutDuration() {
+        CaffeineRedisCacheSpec cacheSpec = CaffeineRedisCacheSpec.builder().redisTtl(Duration.ofHours(1)).l1Ttl(Duration.ofMinutes(10)).build();
+        try (CacheFixture fixture = new CacheFixture("user", cacheSpec)) {
+            CaffeineRedisCache cache = fixture.getCache("user");
+            cache.put("k1", "v1", Duration.ofSeconds(30));
+            cache.put("k2", "v2");
+            cache.put("k3", "v3", Duration.ofHours(2));
+
+            assertTrue(expiresAfter(cache, "k1") <= 30);
+            // 默认使用redis的过期时间，不超过l1Ttl
+            assertTrue(expiresAfter(cache, "k2") <= 600 && expiresAfter(cache, "k2") > 590);
+            assertTrue(expiresAfter(cache, "k3") <= 600);
+        }
+    }
+
+    private static long expiresAfter(CaffeineRedisCache cache, Object key) {
+        return cache.getCaffeineCache().getNativeCache().policy().expireVariably().get().getExpiresAfter(key, TimeUnit.SECONDS).getAsLong();
+    }
+
+    @Test
+    void refreshRunsOnCaffeineExecutor() throws InterruptedException {
+        CaffeineRedisCacheSpec cacheSpec = CaffeineRedisCacheSpec.builder().refreshAfterWrite(Duration.ofMillis(10)).build();
+        try (CacheFixture fixture = new CacheFixture(Collections.singletonMap("user", cacheSpec))) {
+            CaffeineRedisCache cache = fixture.getCache("user");
+            cache.put("k1", "v1");
+            Thread.sleep(50);
+            CopyOnWriteArrayList<String> threads = new CopyOnWriteArrayList<>();
+            fixture.redisConnectionFactory.setInterceptor((command, args) -> {
+                if ("get".equals(command)) {
+                    threads.add(Thread.currentThread().getName());
+                }
+            });
+
+            // 超过refreshAfterWrite后读取触发异步刷新
+            assertEquals("v1", cache.get("k1", String.class));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (threads.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(threads.isEmpty());
+            assertTrue(threads.get(0).startsWith("caffeine-redis-caffeine-"), threads.get(0));
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheRefreshAheadTest {
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        // 加载100ms后再次读取时提前刷新
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().redisTtl(Duration.ofSeconds(2)).refreshAheadFactor(0.05).build());
+        cache = fixture.getCache("user");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void refreshesHotKeyInBackground() throws InterruptedException {
+        assertEquals("v1", load());
+        assertEquals("v1", load());
+        assertEquals(0, cache.getLoadStatistics().getRefreshes());
+
+        Thread.sleep(150);
+        // 超过提前刷新的时间后，当前读取返回旧值，后台重新加载
+        assertEquals("v1", load());
+        await(() -> cache.getLoadStatistics().getRefreshes() == 1);
+        assertEquals("v2", CacheFixture.localValue(cache, "k1"));
+        cache.evictLocal("k1");
+        assertEquals("v2", cache.get("k1", String.class));
+    }
+
+    @Test
+    void skipsKeyRefreshedByOtherNode() throws InterruptedException {
+        assertEquals("v1", load());
+        fixture.redisConnectionFactory.set("user::k1::lease", "other".getBytes(StandardCharsets.UTF_8));
+
+        Thread.sleep(150);
+        assertEquals("v1", load());
+        await(() -> cache.getLoadStatistics().getRefreshesSkipped() == 1);
+        assertEquals(1, loads.get());
+    }
+
+    private String load() {
+        return cache.get("k1", () -> "v" + loads.incrementAndGet());
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
@@ -0,0 +1,104 @@
+package org.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheSnapshotTest {
+    @TempDir
+    Path dir;
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().build());
+        cache = fixture.getCache("user");
+        cache.put("k1", "v1");
+        cache.put("k2", "v2");
+        cache.put("k3", "v3");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void restoreKeys() throws IOException {
+        CaffeineRedisCacheSnapshot snapshot = new CaffeineRedisCacheSnapshot(fixture.cacheManager, dir.resolve("cache.snapshot"), 100, false, Duration.ofMinutes(5));
+        assertEquals(3, snapshot.save());
+        cache.getCaffeineCache().clear();
+
+        assertEquals(3, snapshot.restore());
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertEquals("v3", CacheFixture.localValue(cache, "k3"));
+    }
+
+    @Test
+    void restoreValuesComparesWithRedis() throws IOException {
+        CaffeineRedisCacheSnapshot snapshot = new CaffeineRedisCacheSnapshot(fixture.cacheManager, dir.resolve("cache.snapshot"), 100, true, Duration.ofMinutes(5));
+        assertEquals(3, snapshot.save());
+        // 停止期间其他节点修改和删除的key
+        cache.put("k2", "v2-new");
+        fixture.redisConnectionFactory.delete(cache.createRedisKey("k3"));
+        cache.getCaffeineCache().clear();
+
+        assertEquals(2, snapshot.restore());
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertEquals("v2-new", CacheFixture.localValue(cache, "k2"));
+        assertNull(CacheFixture.localValue(cache, "k3"));
+    }
+
+    @Test
+    void restoreValuesWithoutRedis() throws IOException {
+        CacheFixture local = new CacheFixture("local", CaffeineRedisCacheSpec.builder().mode(CacheMode.L1_ONLY).build());
+        try {
+            CaffeineRedisCache localCache = local.getCache("local");
+            localCache.put("k1", "v1");
+            CaffeineRedisCacheSnapshot snapshot = new CaffeineRedisCacheSnapshot(local.cacheManager, dir.resolve("local.snapshot"), 100, true, Duration.ofMinutes(5));
+            assertEquals(1, snapshot.save());
+            localCache.getCaffeineCache().clear();
+
+            assertEquals(1, snapshot.restore());
+            assertEquals("v1", CacheFixture.localValue(localCache, "k1"));
+            assertEquals(0, local.redisConnectionFactory.size());
+        } finally {
+            local.close();
+        }
+    }
+
+    @Test
+    void expiredSnapshotRestoresKeysOnly() throws IOException, InterruptedException {
+        CaffeineRedisCacheSnapshot snapshot = new CaffeineRedisCacheSnapshot(fixture.cacheManager, dir.resolve("cache.snapshot"), 100, true, Duration.ofMillis(10));
+        assertEquals(3, snapshot.save());
+        cache.put("k1", "v1-new");
+        cache.getCaffeineCache().clear();
+        Thread.sleep(50);
+
+        // 超过有效时间后只使用其中的key从redis预热
+        assertEquals(3, snapshot.restore());
+        assertEquals("v1-new", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void invalidFileIsIgnored() throws IOException {
+        Path path = dir.resolve("cache.snapshot");
+        Files.write(path, new byte[]{1, 2, 3});
+
+        assertEquals(0, new CaffeineRedisCacheSnapshot(fixture.cacheManager, path, 100, true, Duration.ofMinutes(5)).restore());
+    }
+}
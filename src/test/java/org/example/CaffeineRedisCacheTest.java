@@ -0,0 +1,194 @@
+package org.example;
+
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.example.listener.DefaultCacheEventListener;
+import org.example.support.CacheMetricsRecorder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheTest {
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().build());
+        cache = fixture.getCache("user");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void lookupFillsLocal() {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        assertEquals("v1", cache.get("k1", String.class));
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void lookupDoesNotOverwriteNewerUpdate() {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+        // 读取redis期间收到其他节点更新的事件，读取到的旧值不能覆盖
+        onceBefore("get", () -> DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()), CacheNode.nextVersion())));
+
+        assertEquals("v1", cache.get("k1", String.class));
+        assertEquals("v2", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void lookupDoesNotRecordReadVersion() {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+        // 读取前开始、读取后才写入redis的其他节点的修改仍然要应用
+        long version = CacheNode.nextVersion();
+
+        assertEquals("v1", cache.get("k1", String.class));
+        DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()), version));
+        assertEquals("v2", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void putDuringNewerUpdateEvictsLocal() {
+        // 写入redis期间收到其他节点更新的事件，本节点较早的写入不能覆盖，无法确定redis中最后写入的值时删除本地缓存
+        onceBefore("set", () -> DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()), CacheNode.nextVersion())));
+
+        cache.put("k1", "v1");
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        assertEquals("v1", cache.get("k1", String.class));
+    }
+
+    @Test
+    void evictKeepsNewerVersion() {
+        cache.put("k1", "v1");
+        long older = CacheNode.nextVersion();
+        long[] newer = new long[1];
+        onceBefore("del", () -> {
+            newer[0] = CacheNode.nextVersion();
+            DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()), newer[0]));
+        });
+
+        cache.evict("k1");
+        assertNull(CacheFixture.localValue(cache, "k1"));
+        // 删除记录的版本号不能小于已经应用的事件
+        DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v3", CacheEventEnum.UPDATE_KEY.name()), newer[0]));
+        DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v0", CacheEventEnum.UPDATE_KEY.name()), older));
+        assertNull(CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void overlappingPutsDoNotDiverge() throws InterruptedException {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread first = new Thread(() -> cache.put("k1", "v1"));
+        blockSet(first, writing, release);
+        first.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+        // 后开始的写入先写入redis，先开始的写入最后写入redis
+        cache.put("k1", "v2");
+        release.countDown();
+        first.join(5000);
+
+        Object local = CacheFixture.localValue(cache, "k1");
+        assertTrue(local == null || local.equals(cache.get("k1", String.class)));
+        assertEquals("v1", cache.get("k1", String.class));
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void lookupDoesNotFillDuringConcurrentPut() throws InterruptedException {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread writer = new Thread(() -> cache.put("k1", "v2"));
+        blockSet(writer, writing, release);
+        writer.start();
+        assertTrue(writing.await(5, TimeUnit.SECONDS));
+        // 读取到旧值之后、写入本地缓存之前，先开始的写入完成
+        AtomicBoolean done = new AtomicBoolean();
+        cache.setMetricsRecorder(new CacheMetricsRecorder() {
+            @Override
+            public void recordL2Read(boolean hit, long nanos) {
+                if (done.compareAndSet(false, true)) {
+                    release.countDown();
+                    try {
+                        writer.join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        });
+
+        assertEquals("v1", cache.get("k1", String.class));
+        assertEquals("v2", CacheFixture.localValue(cache, "k1"));
+        assertEquals("v2", cache.get("k1", String.class));
+    }
+
+    @Test
+    void failedPutEndsWrite() {
+        cache.put("k1", "v1");
+        fixture.redisConnectionFactory.setAvailable(false);
+        assertThrows(RuntimeException.class, () -> cache.put("k1", "v2"));
+        // redis可能已经执行了写入，不保留本地缓存中的旧值
+        assertNull(CacheFixture.localValue(cache, "k1"));
+
+        fixture.redisConnectionFactory.setAvailable(true);
+        assertEquals("v1", cache.get("k1", String.class));
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        cache.put("k1", "v3");
+        assertEquals("v3", CacheFixture.localValue(cache, "k1"));
+    }
+
+    /**
+     * thread执行SET时先通知writing，再等待release
+     */
+    private void blockSet(Thread thread, CountDownLatch writing, CountDownLatch release) {
+        fixture.redisConnectionFactory.setInterceptor((name, args) -> {
+            if (name.equals("set") && Thread.currentThread() == thread) {
+                writing.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+    }
+
+    /**
+     * 下一次执行指定的redis命令前执行一次action
+     */
+    private void onceBefore(String command, Runnable action) {
+        AtomicBoolean done = new AtomicBoolean();
+        fixture.redisConnectionFactory.setInterceptor((name, args) -> {
+            if (name.equals(command) && done.compareAndSet(false, true)) {
+                action.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,411 @@
+package org.example;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisSentinelConnection;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.stream.ByteRecord;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.lang.Nullable;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+/**
+ * 测试用的进程内redis替身，只实现缓存用到的命令：GET、SET、SETNX、MGET、DEL、EXISTS、KEYS、PTTL、PUBLISH、释放租约的EVAL、PING、
+ * pipeline，以及XADD、XRANGE、XREVRANGE、XREAD。
+ * <p>过期时间在读取时检查；{@link #setAvailable(boolean)}模拟redis不可用，{@link #setInterceptor(BiConsumer)}在执行命令前回调，用于控制并发顺序。
+ *
+ * @author lihui
+ * @since 2024/3/16
+ */
+public class FakeRedisConnectionFactory implements RedisConnectionFactory {
+    private final Map<ByteBuffer, Entry> data = new ConcurrentHashMap<>();
+    private final Map<ByteBuffer, List<ByteRecord>> streams = new ConcurrentHashMap<>();
+    private final List<byte[]> published = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<List<Object>> pipeline = new ThreadLocal<>();
+    private final RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{RedisConnection.class}, new Handler());
+    private volatile boolean available = true;
+    @Nullable
+    private volatile BiConsumer<String, Object[]> interceptor;
+    private long streamSequence;
+
+    @Override
+    public RedisConnection getConnection() {
+        return connection;
+    }
+
+    @Override
+    public RedisClusterConnection getClusterConnection() {
+        throw new UnsupportedOperationException("cluster is not supported");
+    }
+
+    @Override
+    public boolean getConvertPipelineAndTxResults() {
+        return false;
+    }
+
+    @Override
+    public RedisSentinelConnection getSentinelConnection() {
+        throw new UnsupportedOperationException("sentinel is not supported");
+    }
+
+    @Override
+    public DataAccessException translateExceptionIfPossible(RuntimeException ex) {
+        return null;
+    }
+
+    /**
+     * @param available 为false时所有命令抛出{@link RedisConnectionFailureException}
+     */
+    public void setAvailable(boolean available) {
+        this.available = available;
+    }
+
+    /**
+     * @param interceptor 执行命令前回调，参数是命令名称和参数
+     */
+    public void setInterceptor(@Nullable BiConsumer<String, Object[]> interceptor) {
+        this.interceptor = interceptor;
+    }
+
+    @Nullable
+    public byte[] get(String key) {
+        Entry entry = live(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)));
+        return entry == null ? null : entry.value;
+    }
+
+    public void set(String key, byte[] value) {
+        data.put(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)), new Entry(value, 0));
+    }
+
+    public void delete(String key) {
+        data.remove(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * 设置key的剩余过期时间
+     */
+    public void expire(String key, long millis) {
+        ByteBuffer buffer = ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8));
+        Entry entry = live(buffer);
+        if (entry != null) {
+            data.put(buffer, new Entry(entry.value, System.currentTimeMillis() + millis));
+        }
+    }
+
+    /**
+     * 当前保存的key数量，包括已经过期但还没有被读取的key
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * 通过PUBLISH发送的消息
+     */
+    public List<byte[]> getPublished() {
+        return published;
+    }
+
+    /**
+     * 只保留stream最新的length条消息
+     */
+    public void trimStream(String key, int length) {
+        List<ByteRecord> records = streams.get(ByteBuffer.wrap(key.getBytes(StandardCharsets.UTF_8)));
+        if (records != null) {
+            synchronized (records) {
+                while (records.size() > length) {
+                    records.remove(0);
+                }
+            }
+        }
+    }
+
+    public void flushAll() {
+        data.clear();
+        streams.clear();
+        published.clear();
+    }
+
+    @Nullable
+    private Entry live(ByteBuffer key) {
+        Entry entry = data.get(key);
+        if (entry != null && entry.expireAt > 0 && entry.expireAt <= System.currentTimeMillis()) {
+            data.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private static final class Entry {
+        private final byte[] value;
+        /**
+         * 过期的时间戳，为0时不过期
+         */
+        private final long expireAt;
+
+        private Entry(byte[] value, long expireAt) {
+            this.value = value;
+            this.expireAt = expireAt;
+        }
+    }
+
+    /**
+     * 按方法名称分发命令，stringCommands()等方法返回连接自身
+     */
+    private final class Handler implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "stringCommands":
+                case "keyCommands":
+                case "scriptingCommands":
+                case "serverCommands":
+                case "streamCommands":
+                    return proxy;
+                case "close":
+                    return null;
+                case "isPipelined":
+                    return pipeline.get() != null;
+                case "isQueueing":
+                case "isClosed":
+                    return false;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "FakeRedisConnection";
+                default:
+                    break;
+            }
+            BiConsumer<String, Object[]> interceptor = FakeRedisConnectionFactory.this.interceptor;
+            if (interceptor != null) {
+                interceptor.accept(method.getName(), args);
+            }
+            if (!available) {
+                if ("closePipeline".equals(method.getName())) {
+                    pipeline.remove();
+                }
+                throw new RedisConnectionFailureException("redis is not available");
+            }
+            switch (method.getName()) {
+                case "openPipeline":
+                    pipeline.set(new ArrayList<>());
+                    return null;
+                case "closePipeline":
+                    List<Object> results = pipeline.get();
+                    pipeline.remove();
+                    return results == null ? new ArrayList<>() : results;
+                default:
+                    break;
+            }
+            Object result = execute(method, args);
+            List<Object> results = pipeline.get();
+            if (results != null) {
+                results.add(result);
+                return null;
+            }
+            return result;
+        }
+
+        private Object execute(Method method, Object[] args) {
+            switch (method.getName()) {
+                case "get":
+                    Entry entry = live(ByteBuffer.wrap((byte[]) args[0]));
+                    return entry == null ? null : entry.value;
+                case "set":
+                    return set((byte[]) args[0], (byte[]) args[1], args.length > 2 ? (Expiration) args[2] : Expiration.persistent(), args.length > 3 ? (RedisStringCommands.SetOption) args[3] : RedisStringCommands.SetOption.upsert());
+                case "setNX":
+                    return set((byte[]) args[0], (byte[]) args[1], Expiration.persistent(), RedisStringCommands.SetOption.ifAbsent());
+                case "mGet":
+                    return mGet((byte[][]) args[0]);
+                case "del":
+                    return del(args[0] instanceof byte[][] ? (byte[][]) args[0] : new byte[][]{(byte[]) args[0]});
+                case "exists":
+                    if (args[0] instanceof byte[]) {
+                        return live(ByteBuffer.wrap((byte[]) args[0])) != null;
+                    }
+                    long count = 0;
+                    for (byte[] key : (byte[][]) args[0]) {
+                        count += live(ByteBuffer.wrap(key)) != null ? 1 : 0;
+                    }
+                    return count;
+                case "keys":
+                    return keys((byte[]) args[0]);
+                case "pTtl":
+                    return pTtl((byte[]) args[0]);
+                case "publish":
+                    published.add((byte[]) args[1]);
+                    return 1L;
+                case "eval":
+                    return releaseLease((byte[][]) args[3]);
+                case "ping":
+                    return "PONG";
+                case "xAdd":
+                    return xAdd((MapRecord<byte[], byte[], byte[]>) args[0], args.length > 1 ? (RedisStreamCommands.XAddOptions) args[1] : RedisStreamCommands.XAddOptions.none());
+                case "xRange":
+                    return range((byte[]) args[0], (RedisZSetCommands.Limit) args[2], false);
+                case "xRevRange":
+                    return range((byte[]) args[0], (RedisZSetCommands.Limit) args[2], true);
+                case "xRead":
+                    return xRead((StreamReadOptions) args[0], (StreamOffset<byte[]>[]) args[1]);
+                default:
+                    throw new UnsupportedOperationException("command is not supported: " + method.getName());
+            }
+        }
+
+        private Boolean set(byte[] key, byte[] value, Expiration expiration, RedisStringCommands.SetOption option) {
+            ByteBuffer buffer = ByteBuffer.wrap(key);
+            Entry entry = new Entry(value, expiration == null || expiration.isPersistent() ? 0 : System.currentTimeMillis() + expiration.getExpirationTimeInMilliseconds());
+            if (option == RedisStringCommands.SetOption.SET_IF_ABSENT) {
+                live(buffer);
+                return data.putIfAbsent(buffer, entry) == null;
+            }
+            data.put(buffer, entry);
+            return true;
+        }
+
+        private List<byte[]> mGet(byte[][] keys) {
+            List<byte[]> values = new ArrayList<>(keys.length);
+            for (byte[] key : keys) {
+                Entry entry = live(ByteBuffer.wrap(key));
+                values.add(entry == null ? null : entry.value);
+            }
+            return values;
+        }
+
+        private Long del(byte[][] keys) {
+            long deleted = 0;
+            for (byte[] key : keys) {
+                if (live(ByteBuffer.wrap(key)) != null && data.remove(ByteBuffer.wrap(key)) != null) {
+                    deleted++;
+                }
+            }
+            return deleted;
+        }
+
+        private Set<byte[]> keys(byte[] pattern) {
+            Pattern regex = Pattern.compile(Pattern.quote(new String(pattern, StandardCharsets.UTF_8)).replace("*", "\\E.*\\Q"));
+            Set<byte[]> keys = new LinkedHashSet<>();
+            for (ByteBuffer key : data.keySet()) {
+                byte[] bytes = Arrays.copyOfRange(key.array(), key.arrayOffset(), key.arrayOffset() + key.remaining());
+                if (live(key) != null && regex.matcher(new String(bytes, StandardCharsets.UTF_8)).matches()) {
+                    keys.add(bytes);
+                }
+            }
+            return keys;
+        }
+
+        private Long pTtl(byte[] key) {
+            Entry entry = live(ByteBuffer.wrap(key));
+            if (entry == null) {
+                return -2L;
+            }
+            return entry.expireAt == 0 ? -1L : Math.max(0, entry.expireAt - System.currentTimeMillis());
+        }
+
+        /**
+         * 只支持释放加载租约的脚本：key和token一致时删除
+         */
+        private Long releaseLease(byte[][] keysAndArgs) {
+            ByteBuffer key = ByteBuffer.wrap(keysAndArgs[0]);
+            Entry entry = live(key);
+            return entry != null && Arrays.equals(entry.value, keysAndArgs[1]) && data.remove(key, entry) ? 1L : 0L;
+        }
+
+        private RecordId xAdd(MapRecord<byte[], byte[], byte[]> record, RedisStreamCommands.XAddOptions options) {
+            List<ByteRecord> records = streams.computeIfAbsent(ByteBuffer.wrap(record.getStream()), k -> new ArrayList<>());
+            synchronized (records) {
+                RecordId id = RecordId.of(System.currentTimeMillis(), nextSequence());
+                Map<byte[], byte[]> value = new HashMap<>();
+                record.getValue().forEach(value::put);
+                records.add(StreamRecords.rawBytes(value).withStreamKey(record.getStream()).withId(id));
+                if (options.hasMaxlen()) {
+                    while (records.size() > options.getMaxlen()) {
+                        records.remove(0);
+                    }
+                }
+                return id;
+            }
+        }
+
+        private List<ByteRecord> range(byte[] key, RedisZSetCommands.Limit limit, boolean reverse) {
+            List<ByteRecord> records = streams.get(ByteBuffer.wrap(key));
+            if (records == null) {
+                return new ArrayList<>();
+            }
+            synchronized (records) {
+                List<ByteRecord> result = new ArrayList<>(records);
+                if (reverse) {
+                    java.util.Collections.reverse(result);
+                }
+                return limit.isUnlimited() ? result : new ArrayList<>(result.subList(0, Math.min(limit.getCount(), result.size())));
+            }
+        }
+
+        private List<ByteRecord> xRead(StreamReadOptions options, StreamOffset<byte[]>[] offsets) {
+            List<ByteRecord> result = new ArrayList<>();
+            for (StreamOffset<byte[]> offset : offsets) {
+                List<ByteRecord> records = streams.get(ByteBuffer.wrap(offset.getKey()));
+                if (records == null) {
+                    continue;
+                }
+                RecordId from = RecordId.of(offset.getOffset().getOffset());
+                int count = 0;
+                synchronized (records) {
+                    for (ByteRecord record : records) {
+                        if (compare(record.getId(), from) > 0 && (options.getCount() == null || count < options.getCount())) {
+                            result.add(record);
+                            count++;
+                        }
+                    }
+                }
+            }
+            if (result.isEmpty() && options.getBlock() != null && options.getBlock() > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(Math.min(options.getBlock(), 20));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RedisConnectionFailureException("interrupted", e);
+                }
+            }
+            return result;
+        }
+    }
+
+    private synchronized long nextSequence() {
+        return ++streamSequence;
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int result = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return result != 0 ? result : Long.compare(a.getSequence(), b.getSequence());
+    }
+}
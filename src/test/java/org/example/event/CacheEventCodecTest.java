@@ -0,0 +1,78 @@
+package org.example.event;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.interceptor.SimpleKey;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CacheEventCodecTest {
+    private final CacheEventCodec codec = new CacheEventCodec("user", RedisSerializationContext.SerializationPair.fromSerializer(RedisSerializer.java()));
+
+    @Test
+    void roundTrip() {
+        CacheEvent update = new CacheEvent("k1", "v1", CacheEventEnum.UPDATE_KEY.name());
+        update.setVersion(3);
+        CacheEvent evict = new CacheEvent(42L, CacheEventEnum.EVICT_KEY.name());
+        evict.setVersion(4);
+        CacheEvent evictKeys = new CacheEvent(Arrays.asList("k2", 7, new SimpleKey("a", 1)), CacheEventEnum.EVICT_KEYS.name());
+        evictKeys.setVersion(5);
+        CacheEvent clear = new CacheEvent(CacheEventEnum.CLEAR.name());
+        clear.setVersion(6);
+
+        List<CacheEvent> events = codec.decode(codec.encode(Arrays.asList(update, evict, evictKeys, clear)));
+
+        assertEquals(4, events.size());
+        assertEquals("k1", events.get(0).getKey());
+        assertEquals("v1", events.get(0).getValue());
+        assertEquals(CacheEventEnum.UPDATE_KEY.name(), events.get(0).getType());
+        assertEquals(3, events.get(0).getVersion());
+        assertEquals(42L, events.get(1).getKey());
+        assertEquals(4, events.get(1).getVersion());
+        assertEquals(Arrays.asList("k2", 7, new SimpleKey("a", 1)), events.get(2).getKeys());
+        assertEquals(5, events.get(2).getVersion());
+        assertEquals(CacheEventEnum.CLEAR.name(), events.get(3).getType());
+        assertEquals(6, events.get(3).getVersion());
+        for (CacheEvent event : events) {
+            assertEquals("user", event.getCacheName());
+            assertEquals(CacheNode.ID, event.getOrigin());
+        }
+    }
+
+    @Test
+    void nullValue() {
+        byte[] message = codec.encode(new CacheEvent("k1", null, CacheEventEnum.UPDATE_KEY.name()));
+
+        assertNull(codec.decode(message).get(0).getValue());
+    }
+
+    @Test
+    void readHeader() {
+        byte[] message = codec.encode(Arrays.asList(new CacheEvent("k1", CacheEventEnum.EVICT_KEY.name()), new CacheEvent("k2", CacheEventEnum.EVICT_KEY.name())));
+
+        assertTrue(CacheEventCodec.isEncoded(message));
+        assertTrue(CacheEventCodec.isLocalOrigin(message));
+        assertEquals("user", CacheEventCodec.readCacheName(message));
+        assertEquals(2, CacheEventCodec.readEventCount(message));
+    }
+
+    @Test
+    void rejectOtherMessages() {
+        byte[] message = RedisSerializer.java().serialize(new CacheEvent("k1", CacheEventEnum.EVICT_KEY.name()));
+
+        assertFalse(CacheEventCodec.isEncoded(message));
+        assertThrows(IllegalArgumentException.class, () -> codec.decode(message));
+    }
+}
@@ -0,0 +1,72 @@
+package org.example.event;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CacheNodeTest {
+    @Test
+    void nextVersionIsMonotonic() {
+        long previous = CacheNode.nextVersion();
+        for (int i = 0; i < 100000; i++) {
+            long version = CacheNode.nextVersion();
+            assertTrue(version > previous);
+            previous = version;
+        }
+    }
+
+    @Test
+    void nextVersionIsUniqueAcrossThreads() throws InterruptedException {
+        int threads = 4;
+        int perThread = 10000;
+        Set<Long> versions = ConcurrentHashMap.newKeySet();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < perThread; j++) {
+                    versions.add(CacheNode.nextVersion());
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(threads * perThread, versions.size());
+    }
+
+    @Test
+    void observeMovesClockForward() {
+        // 时钟领先一分钟的节点发出的版本号
+        long remote = CacheNode.nextVersion() + (60000L << 20);
+        CacheNode.observe(remote);
+
+        assertTrue(CacheNode.nextVersion() > remote);
+    }
+
+    @Test
+    void timestampOf() {
+        long before = System.currentTimeMillis();
+        long version = CacheNode.nextVersion();
+
+        assertTrue(CacheNode.timestampOf(version) >= before);
+    }
+}
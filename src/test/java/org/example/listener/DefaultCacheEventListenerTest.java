@@ -0,0 +1,167 @@
+package org.example.listener;
+
+import org.example.CacheFixture;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.cache.RedisCacheConfiguration;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class DefaultCacheEventListenerTest {
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().build());
+        cache = fixture.getCache("user");
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void newerUpdateIsApplied() {
+        cache.put("k1", "v1");
+        receive(new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()), CacheNode.nextVersion());
+
+        assertEquals("v2", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void staleUpdateIsIgnored() {
+        // 其他节点先发出、本节点写入后才到达的事件
+        long stale = CacheNode.nextVersion();
+        cache.put("k1", "v1");
+        receive(new CacheEvent("k1", "v0", CacheEventEnum.UPDATE_KEY.name()), stale);
+
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void staleEvictIsIgnored() {
+        long stale = CacheNode.nextVersion();
+        cache.put("k1", "v1");
+        receive(new CacheEvent("k1", CacheEventEnum.EVICT_KEY.name()), stale);
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+
+        receive(new CacheEvent("k1", CacheEventEnum.EVICT_KEY.name()), CacheNode.nextVersion());
+        assertNull(CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void evictKeysComparesEachKey() {
+        cache.put("k2", "v2");
+        long version = CacheNode.nextVersion();
+        cache.put("k1", "v1");
+        receive(new CacheEvent(Arrays.asList("k1", "k2"), CacheEventEnum.EVICT_KEYS.name()), version);
+
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+        assertNull(CacheFixture.localValue(cache, "k2"));
+    }
+
+    @Test
+    void eventsOlderThanClearAreIgnored() {
+        long stale = CacheNode.nextVersion();
+        cache.put("k1", "v1");
+        receive(new CacheEvent(CacheEventEnum.CLEAR.name()), CacheNode.nextVersion());
+        assertNull(CacheFixture.localValue(cache, "k1"));
+
+        receive(new CacheEvent("k1", "v0", CacheEventEnum.UPDATE_KEY.name()), stale);
+        assertNull(CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void clearOlderThanLastClearIsIgnored() {
+        // 清空事件只与上一次清空比较，早于本地写入的清空仍然会清空，只会多一次从redis加载
+        long stale = CacheNode.nextVersion();
+        receive(new CacheEvent(CacheEventEnum.CLEAR.name()), CacheNode.nextVersion());
+        cache.put("k1", "v1");
+        receive(new CacheEvent(CacheEventEnum.CLEAR.name()), stale);
+
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void localOriginIsIgnored() {
+        cache.put("k1", "v1");
+        CacheEvent event = new CacheEvent("k1", CacheEventEnum.EVICT_KEY.name());
+        event.setVersion(CacheNode.nextVersion());
+        DefaultCacheEventListener.onCacheMessage(cache, cache.getCacheEventCodec().encode(event));
+
+        assertEquals("v1", CacheFixture.localValue(cache, "k1"));
+    }
+
+    @Test
+    void eventsAreRoutedByCacheName() {
+        Map<String, CaffeineRedisCacheSpec> cacheSpecs = new HashMap<>();
+        cacheSpecs.put("user", CaffeineRedisCacheSpec.builder().build());
+        cacheSpecs.put("order", CaffeineRedisCacheSpec.builder().build());
+        try (CacheFixture fixture = new CacheFixture(cacheSpecs)) {
+            CaffeineRedisCache user = fixture.getCache("user");
+            CaffeineRedisCache order = fixture.getCache("order");
+            user.put("k1", "v1");
+            order.put("k1", "v1");
+            byte[] message = CacheFixture.remoteMessage(order, new CacheEvent("k1", CacheEventEnum.EVICT_KEY.name()), CacheNode.nextVersion());
+            fixture.cacheManager.getCacheEventListener().onMessage(new DefaultMessage(RedisSerializer.string().serialize(Topic.cacheChannel("order")), message), null);
+
+            assertNull(CacheFixture.localValue(order, "k1"));
+            assertEquals("v1", CacheFixture.localValue(user, "k1"));
+        }
+    }
+
+    @Test
+    void keyExpirationEvictsOnlyMatchingCache() {
+        Map<String, CaffeineRedisCacheSpec> cacheSpecs = new HashMap<>();
+        cacheSpecs.put("user", CaffeineRedisCacheSpec.builder().build());
+        cacheSpecs.put("order", CaffeineRedisCacheSpec.builder().build());
+        String channel = Topic.keyExpirationChannel(0);
+        try (CacheFixture fixture = new CacheFixture(RedisCacheConfiguration.defaultCacheConfig(), cacheSpecs, channel)) {
+            CaffeineRedisCache user = fixture.getCache("user");
+            CaffeineRedisCache order = fixture.getCache("order");
+            user.put("k1", "v1");
+            user.put(1L, "v1");
+            order.put("k1", "v1");
+            DefaultCacheEventListener listener = fixture.cacheManager.getCacheEventListener();
+
+            listener.onMessage(expired(channel, "user::k1"), null);
+            assertNull(CacheFixture.localValue(user, "k1"));
+            assertEquals("v1", CacheFixture.localValue(order, "k1"));
+
+            // 非String的key还原为写入时的key
+            listener.onMessage(expired(channel, "user::1"), null);
+            assertNull(CacheFixture.localValue(user, 1L));
+
+            listener.onMessage(expired(channel, "session::k1"), null);
+            assertEquals("v1", CacheFixture.localValue(order, "k1"));
+            assertNull(order.toCacheKey(RedisSerializer.string().serialize("user::k1")));
+        }
+    }
+
+    private static DefaultMessage expired(String channel, String redisKey) {
+        return new DefaultMessage(RedisSerializer.string().serialize(channel), RedisSerializer.string().serialize(redisKey));
+    }
+
+    private void receive(CacheEvent event, long version) {
+        DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, event, version));
+    }
+}
@@ -0,0 +1,118 @@
+package org.example.listener;
+
+import org.example.CacheFixture;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.example.publisher.StreamCacheEventPublisher;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class StreamCacheEventListenerTest {
+    private CacheFixture fixture;
+    private StreamCacheEventListener listener;
+    private CaffeineRedisCache user;
+    private CaffeineRedisCache order;
+
+    @BeforeEach
+    void setUp() {
+        Map<String, CaffeineRedisCacheSpec> cacheSpecs = new HashMap<>();
+        cacheSpecs.put("user", CaffeineRedisCacheSpec.builder().build());
+        cacheSpecs.put("order", CaffeineRedisCacheSpec.builder().build());
+        fixture = new CacheFixture(cacheSpecs);
+        user = fixture.getCache("user");
+        order = fixture.getCache("order");
+        // 读取失败后等待200ms重试，期间模拟断开时的写入
+        listener = new StreamCacheEventListener(fixture.cacheManager, fixture.redisConnectionFactory, 100, 10, Duration.ofMillis(200));
+        listener.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        listener.stop();
+        fixture.close();
+    }
+
+    @Test
+    void appliesRemoteEvents() {
+        user.put("k1", "v1");
+        append(user, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()));
+
+        await(() -> "v2".equals(CacheFixture.localValue(user, "k1")));
+    }
+
+    @Test
+    void replaysEventsAfterReconnect() throws InterruptedException {
+        user.put("k1", "v1");
+        disconnect();
+        append(user, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()));
+
+        await(() -> "v2".equals(CacheFixture.localValue(user, "k1")));
+        assertEquals(0, listener.getGapClearCount());
+    }
+
+    @Test
+    void trimmedStreamClearsOnlyItsCache() throws InterruptedException {
+        user.put("k1", "v1");
+        order.put("k1", "v1");
+        // 等待读取到本节点的事件，最后读取的消息id指向它们
+        Thread.sleep(100);
+        disconnect();
+        append(user, new CacheEvent("k2", "v1", CacheEventEnum.UPDATE_KEY.name()));
+        append(user, new CacheEvent("k2", "v2", CacheEventEnum.UPDATE_KEY.name()));
+        fixture.redisConnectionFactory.trimStream(Topic.cacheStream("user"), 1);
+
+        await(() -> listener.getGapClearCount() == 1);
+        await(() -> "v2".equals(CacheFixture.localValue(user, "k2")));
+        assertNull(CacheFixture.localValue(user, "k1"));
+        assertEquals("v1", CacheFixture.localValue(order, "k1"));
+    }
+
+    /**
+     * 读取线程读取失败后恢复连接，返回后读取线程还在等待重试
+     */
+    private void disconnect() throws InterruptedException {
+        fixture.redisConnectionFactory.setAvailable(false);
+        Thread.sleep(100);
+        fixture.redisConnectionFactory.setAvailable(true);
+    }
+
+    private void append(CaffeineRedisCache cache, CacheEvent event) {
+        byte[] message = CacheFixture.remoteMessage(cache, event, CacheNode.nextVersion());
+        byte[] streamKey = RedisSerializer.string().serialize(Topic.cacheStream(cache.getName()));
+        fixture.redisTemplate.execute((RedisCallback<Object>) connection -> connection.streamCommands().xAdd(MapRecord.create(streamKey, Collections.singletonMap(StreamCacheEventPublisher.FIELD, message))));
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
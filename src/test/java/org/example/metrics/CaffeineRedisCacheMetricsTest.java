@@ -0,0 +1,89 @@
+package org.example.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.example.CacheFixture;
+import org.example.CaffeineRedisCache;
+import org.example.CaffeineRedisCacheSpec;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventEnum;
+import org.example.event.CacheNode;
+import org.example.listener.DefaultCacheEventListener;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineRedisCacheMetricsTest {
+    private final MeterRegistry registry = new SimpleMeterRegistry();
+    private CacheFixture fixture;
+    private CaffeineRedisCache cache;
+
+    @BeforeEach
+    void setUp() {
+        fixture = new CacheFixture("user", CaffeineRedisCacheSpec.builder().recordStats(true).build());
+        cache = fixture.getCache("user");
+        new CaffeineRedisCacheMetrics(fixture.cacheManager).bindTo(registry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        fixture.close();
+    }
+
+    @Test
+    void recordsTierReadsAndWrites() {
+        cache.put("k1", "v1");
+        cache.evictLocal("k1");
+        assertEquals("v1", cache.get("k1", String.class));
+        assertNull(cache.get("k2"));
+        assertEquals("v1", cache.get("k1", String.class));
+
+        assertEquals(1, registry.get("caffeine.redis.cache.l2.gets").tags("cache", "user", "result", "hit").counter().count());
+        assertEquals(1, registry.get("caffeine.redis.cache.l2.gets").tags("cache", "user", "result", "miss").counter().count());
+        assertEquals(2, registry.get("caffeine.redis.cache.l2.latency").tags("cache", "user", "operation", "read").timer().count());
+        assertEquals(1, registry.get("caffeine.redis.cache.l2.latency").tags("cache", "user", "operation", "write").timer().count());
+        assertTrue(registry.get("caffeine.redis.cache.events.published").tags("cache", "user").counter().count() >= 1);
+        // caffeine cache自身的统计信息
+        assertTrue(registry.get("cache.gets").tags("cache", "user", "result", "hit").functionCounter().count() >= 1);
+        assertTrue(registry.get("cache.gets").tags("cache", "user", "result", "miss").functionCounter().count() >= 2);
+    }
+
+    @Test
+    void recordsLoads() {
+        assertEquals("v1", cache.get("k1", () -> "v1"));
+        assertEquals("v1", cache.get("k1", () -> "v2"));
+
+        assertEquals(1, registry.get("caffeine.redis.cache.loads").tags("cache", "user", "result", "success").timer().count());
+    }
+
+    @Test
+    void recordsReceivedEvents() {
+        long stale = CacheNode.nextVersion();
+        cache.put("k1", "v1");
+        DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v0", CacheEventEnum.UPDATE_KEY.name()), stale));
+        DefaultCacheEventListener.onCacheMessage(cache, CacheFixture.remoteMessage(cache, new CacheEvent("k1", "v2", CacheEventEnum.UPDATE_KEY.name()), CacheNode.nextVersion()));
+
+        assertEquals(2, registry.get("caffeine.redis.cache.events").tags("cache", "user", "result", "received").counter().count());
+        assertEquals(1, registry.get("caffeine.redis.cache.events").tags("cache", "user", "result", "applied").counter().count());
+        assertEquals(1, registry.get("caffeine.redis.cache.events").tags("cache", "user", "result", "ignored").counter().count());
+        assertEquals(1, registry.get("caffeine.redis.cache.events.lag").tags("cache", "user").timer().count());
+    }
+
+    @Test
+    void bindsCachesCreatedLater() {
+        CaffeineRedisCache order = (CaffeineRedisCache) fixture.cacheManager.getCache("order");
+        assertNotNull(order);
+        order.put("k1", "v1");
+
+        assertEquals(1, registry.get("caffeine.redis.cache.l2.latency").tags("cache", "order", "operation", "write").timer().count());
+    }
+}
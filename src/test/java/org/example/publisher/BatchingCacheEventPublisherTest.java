@@ -0,0 +1,143 @@
+package org.example.publisher;
+
+import org.example.FakeRedisConnectionFactory;
+import org.example.event.CacheEvent;
+import org.example.event.CacheEventCodec;
+import org.example.event.CacheEventEnum;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class BatchingCacheEventPublisherTest {
+    private final FakeRedisConnectionFactory redisConnectionFactory = new FakeRedisConnectionFactory();
+    private final RedisTemplate<String, Object> redisTemplate = new RedisTemplate<>();
+    private final CacheEventCodec codec = new CacheEventCodec("user", RedisSerializationContext.SerializationPair.fromSerializer(RedisSerializer.java()));
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.setConnectionFactory(redisConnectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        redisConnectionFactory.flushAll();
+    }
+
+    @Test
+    void mergesEventsOfSameKey() {
+        // 后台线程不主动发送，shutdown时一次取出全部事件
+        BatchingCacheEventPublisher publisher = publisher(100, BatchingCacheEventPublisher.OverflowPolicy.DROP);
+        publisher.publish(event("k1", "v1", CacheEventEnum.UPDATE_KEY, 1));
+        publisher.publish(event("k2", null, CacheEventEnum.EVICT_KEY, 3));
+        publisher.publish(event("k1", "v2", CacheEventEnum.UPDATE_KEY, 2));
+        CacheEvent evictKeys = new CacheEvent(Arrays.asList("k3", "k4"), CacheEventEnum.EVICT_KEYS.name());
+        evictKeys.setVersion(7);
+        publisher.publish(evictKeys);
+        publisher.publish(event("k5", null, CacheEventEnum.EVICT_KEY, 4));
+        publisher.shutdown();
+
+        List<CacheEvent> events = publishedEvents();
+        assertEquals(2, events.size());
+        assertEquals(CacheEventEnum.UPDATE_KEY.name(), events.get(0).getType());
+        assertEquals("v2", events.get(0).getValue());
+        assertEquals(2, events.get(0).getVersion());
+        // 删除事件合并为一个，使用最大的版本号
+        assertEquals(CacheEventEnum.EVICT_KEYS.name(), events.get(1).getType());
+        assertEquals(Arrays.asList("k2", "k3", "k4", "k5"), events.get(1).getKeys());
+        assertEquals(7, events.get(1).getVersion());
+        assertEquals(2, publisher.getPublished());
+        assertEquals(1, publisher.getBatches());
+    }
+
+    @Test
+    void clearReplacesEarlierEvents() {
+        BatchingCacheEventPublisher publisher = publisher(100, BatchingCacheEventPublisher.OverflowPolicy.DROP);
+        publisher.publish(event("k1", "v1", CacheEventEnum.UPDATE_KEY, 1));
+        publisher.publish(clear(5));
+        publisher.publish(clear(3));
+        publisher.publish(event("k2", "v2", CacheEventEnum.UPDATE_KEY, 6));
+        publisher.shutdown();
+
+        List<CacheEvent> events = publishedEvents();
+        assertEquals(2, events.size());
+        assertEquals(CacheEventEnum.CLEAR.name(), events.get(0).getType());
+        assertEquals(5, events.get(0).getVersion());
+        assertEquals("k2", events.get(1).getKey());
+        assertEquals(2, publisher.getDeduplicated());
+    }
+
+    @Test
+    void dropsWhenFull() {
+        BatchingCacheEventPublisher publisher = publisher(2, BatchingCacheEventPublisher.OverflowPolicy.DROP);
+        publisher.publish(event("k1", "v1", CacheEventEnum.UPDATE_KEY, 1));
+        publisher.publish(event("k2", "v2", CacheEventEnum.UPDATE_KEY, 2));
+        publisher.publish(event("k3", "v3", CacheEventEnum.UPDATE_KEY, 3));
+
+        assertEquals(1, publisher.getDropped());
+        assertEquals(0, redisConnectionFactory.getPublished().size());
+        publisher.shutdown();
+        assertEquals(2, publishedEvents().size());
+    }
+
+    @Test
+    void callerRunsWhenFull() {
+        BatchingCacheEventPublisher publisher = publisher(2, BatchingCacheEventPublisher.OverflowPolicy.CALLER_RUNS);
+        publisher.publish(event("k1", "v1", CacheEventEnum.UPDATE_KEY, 1));
+        publisher.publish(event("k2", "v2", CacheEventEnum.UPDATE_KEY, 2));
+        publisher.publish(event("k3", "v3", CacheEventEnum.UPDATE_KEY, 3));
+
+        // 调用线程发送了队列中的全部事件
+        assertEquals(0, publisher.getDropped());
+        assertEquals(1, publisher.getOverflowed());
+        assertEquals(3, publishedEvents().size());
+        assertEquals(0, publisher.getQueueSize());
+        publisher.shutdown();
+    }
+
+    @Test
+    void publishesAfterShutdown() {
+        BatchingCacheEventPublisher publisher = publisher(100, BatchingCacheEventPublisher.OverflowPolicy.DROP);
+        publisher.shutdown();
+        publisher.publish(event("k1", "v1", CacheEventEnum.UPDATE_KEY, 1));
+
+        assertEquals(1, publishedEvents().size());
+    }
+
+    private BatchingCacheEventPublisher publisher(int capacity, BatchingCacheEventPublisher.OverflowPolicy overflowPolicy) {
+        return new BatchingCacheEventPublisher(redisTemplate, codec, capacity, 1000, Duration.ofHours(1), overflowPolicy);
+    }
+
+    private List<CacheEvent> publishedEvents() {
+        List<byte[]> published = redisConnectionFactory.getPublished();
+        assertEquals(1, published.size());
+        return codec.decode(published.get(0));
+    }
+
+    private static CacheEvent event(Object key, Object value, CacheEventEnum type, long version) {
+        CacheEvent event = new CacheEvent(key, value, type.name());
+        event.setVersion(version);
+        return event;
+    }
+
+    private static CacheEvent clear(long version) {
+        CacheEvent event = new CacheEvent(CacheEventEnum.CLEAR.name());
+        event.setVersion(version);
+        return event;
+    }
+}
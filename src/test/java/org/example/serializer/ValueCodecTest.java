@@ -0,0 +1,126 @@
+package org.example.serializer;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.serializer.RedisSerializationContext;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class ValueCodecTest {
+    private static final List<String> TRUSTED_PACKAGES = Collections.singletonList("org.example.serializer");
+
+    @Test
+    void jacksonRoundTrip() {
+        assertRoundTrip(codec(ValueSerializer.JACKSON, CompressionAlgorithm.NONE));
+    }
+
+    @Test
+    void smileRoundTrip() {
+        assertRoundTrip(codec(ValueSerializer.SMILE, CompressionAlgorithm.NONE));
+    }
+
+    @Test
+    void compressedRoundTrip() {
+        for (CompressionAlgorithm compression : Arrays.asList(CompressionAlgorithm.DEFLATE, CompressionAlgorithm.LZ4)) {
+            ValueCodec codec = codec(ValueSerializer.JACKSON, compression);
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                users.add(new User(i, "user-" + i, Instant.ofEpochMilli(i)));
+            }
+            byte[] bytes = codec.serialize(users);
+
+            assertEquals(users, codec.deserialize(bytes));
+            assertTrue(codec.getStatistics().getEncodedBytes() < codec.getStatistics().getRawBytes());
+        }
+    }
+
+    @Test
+    void uncompressedValuesAreReadable() {
+        RedisSerializer<Object> serializer = ValueCodec.createSerializer(ValueSerializer.JACKSON, null, TRUSTED_PACKAGES);
+        byte[] raw = serializer.serialize(new User(1, "a", Instant.EPOCH));
+
+        assertArrayEquals(raw, codec(ValueSerializer.JACKSON, CompressionAlgorithm.NONE).serialize(new User(1, "a", Instant.EPOCH)));
+        assertEquals(new User(1, "a", Instant.EPOCH), codec(ValueSerializer.JACKSON, CompressionAlgorithm.LZ4).deserialize(raw));
+    }
+
+    @Test
+    void untrustedTypesAreRejected() {
+        ValueCodec writer = codec(ValueSerializer.JACKSON, CompressionAlgorithm.NONE);
+        ValueCodec reader = new ValueCodec(ValueCodec.createSerializer(ValueSerializer.JACKSON, null), CompressionAlgorithm.NONE, Integer.MAX_VALUE);
+        byte[] bytes = writer.serialize(new User(1, "a", Instant.EPOCH));
+
+        assertThrows(SerializationException.class, () -> reader.deserialize(bytes));
+    }
+
+    @Test
+    void defaultSerializerUsesPair() {
+        ValueCodec codec = new ValueCodec(ValueCodec.createSerializer(ValueSerializer.DEFAULT, RedisSerializationContext.SerializationPair.fromSerializer(RedisSerializer.java())), CompressionAlgorithm.NONE, Integer.MAX_VALUE);
+
+        assertEquals(5L, codec.deserialize(codec.serialize(5L)));
+    }
+
+    private static ValueCodec codec(ValueSerializer valueSerializer, CompressionAlgorithm compression) {
+        return new ValueCodec(ValueCodec.createSerializer(valueSerializer, null, TRUSTED_PACKAGES), compression, 64);
+    }
+
+    /**
+     * 写入后读取的值与写入的值类型相同
+     */
+    private static void assertRoundTrip(ValueCodec codec) {
+        Map<String, Object> nested = new LinkedHashMap<>();
+        nested.put("long", 1L);
+        nested.put("instant", Instant.ofEpochSecond(1700000000, 123456789));
+        List<Object> values = Arrays.asList(
+                "text", 1, 5L, Long.MAX_VALUE, 1.5d, 2.5f, (short) 3, (byte) 4, true, 'c', new BigDecimal("12345.6789"),
+                Instant.ofEpochSecond(1700000000, 123456789), LocalDate.of(2024, 3, 16), LocalDateTime.of(2024, 3, 16, 12, 30), Duration.ofSeconds(90),
+                new User(1, "a", Instant.EPOCH), new ArrayList<>(Arrays.asList(1L, 2L)), new HashSet<>(Arrays.asList(Instant.EPOCH, Instant.ofEpochMilli(1))),
+                new HashMap<>(Collections.singletonMap("k", 7L)), nested, new ArrayList<>(Arrays.asList(new User(2, "b", Instant.EPOCH))), new long[]{1, 2}, new String[]{"a", "b"});
+        for (Object value : values) {
+            Object result = codec.deserialize(codec.serialize(value));
+            if (value.getClass().isArray()) {
+                assertEquals(value.getClass(), result.getClass());
+                assertTrue(Arrays.deepEquals(new Object[]{value}, new Object[]{result}), () -> "value: " + value);
+            } else {
+                assertEquals(value, result, () -> "value: " + value);
+                assertEquals(value.getClass(), result.getClass(), () -> "value: " + value);
+            }
+        }
+        // 不可修改的集合读取为对应的可修改集合，内容相同
+        assertEquals(Arrays.asList(1L, 2L), codec.deserialize(codec.serialize(Arrays.asList(1L, 2L))));
+        assertEquals(Collections.singletonList(Instant.EPOCH), codec.deserialize(codec.serialize(Collections.singletonList(Instant.EPOCH))));
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static final class User {
+        private long id;
+        private String name;
+        private Instant createdAt;
+    }
+}
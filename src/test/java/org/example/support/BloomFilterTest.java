@@ -0,0 +1,57 @@
+package org.example.support;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class BloomFilterTest {
+    @Test
+    void noFalseNegatives() {
+        BloomFilter bloomFilter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bloomFilter.put("user::" + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(bloomFilter.mightContain("user::" + i));
+        }
+    }
+
+    @Test
+    void falsePositiveRateIsNearConfigured() {
+        BloomFilter bloomFilter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            bloomFilter.put("user::" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (bloomFilter.mightContain("missing::" + i)) {
+                falsePositives++;
+            }
+        }
+        // 误判率不超过配置的两倍
+        assertTrue(falsePositives < 2000, "false positives: " + falsePositives);
+        assertTrue(bloomFilter.expectedFpp() < 0.02, "expected fpp: " + bloomFilter.expectedFpp());
+    }
+
+    @Test
+    void emptyFilter() {
+        BloomFilter bloomFilter = new BloomFilter(1000, 0.01);
+
+        assertEquals(0, bloomFilter.bitCount());
+        assertEquals(0.0, bloomFilter.expectedFpp());
+        assertEquals(bloomFilter.bitSize() / 8, bloomFilter.memoryBytes());
+    }
+
+    @Test
+    void invalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(0, 0.01));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(1000, 0));
+        assertThrows(IllegalArgumentException.class, () -> new BloomFilter(1000, 1));
+    }
+}
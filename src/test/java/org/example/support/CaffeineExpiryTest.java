@@ -0,0 +1,51 @@
+package org.example.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CaffeineExpiryTest {
+    @Test
+    void followsRedisTtl() {
+        CaffeineExpiry expiry = new CaffeineExpiry(Duration.ofMinutes(10), null, 1.0, 0);
+
+        assertEquals(Duration.ofSeconds(30).toNanos(), expiry.expireNanos(Duration.ofSeconds(30)));
+        assertEquals(Long.MAX_VALUE, expiry.expireNanos(null));
+        assertEquals(Long.MAX_VALUE, expiry.expireNanos(Duration.ZERO));
+    }
+
+    @Test
+    void maxTtlCapsLongerAndPersistentTtl() {
+        CaffeineExpiry expiry = new CaffeineExpiry(null, Duration.ofSeconds(5), 1.0, 0);
+
+        assertEquals(Duration.ofSeconds(5).toNanos(), expiry.expireNanos(Duration.ofMinutes(1)));
+        assertEquals(Duration.ofSeconds(5).toNanos(), expiry.expireNanos(null));
+        assertEquals(Duration.ofSeconds(1).toNanos(), expiry.expireNanos(Duration.ofSeconds(1)));
+    }
+
+    @Test
+    void factorAndJitterShortenTtl() {
+        CaffeineExpiry expiry = new CaffeineExpiry(null, null, 0.5, 0.2);
+        long half = Duration.ofSeconds(10).toNanos();
+        for (int i = 0; i < 100; i++) {
+            long nanos = expiry.expireNanos(Duration.ofSeconds(20));
+            assertTrue(nanos <= half && nanos >= half * 0.8, String.valueOf(nanos));
+        }
+    }
+
+    @Test
+    void createUsesDefaultTtl() {
+        CaffeineExpiry expiry = new CaffeineExpiry(Duration.ofMinutes(1), null, 1.0, 0);
+
+        assertEquals(Duration.ofMinutes(1).toNanos(), expiry.expireAfterCreate("k1", "v1", 0));
+        assertEquals(Duration.ofMinutes(1).toNanos(), expiry.expireAfterUpdate("k1", "v1", 0, 1));
+        assertEquals(7, expiry.expireAfterRead("k1", "v1", 0, 7));
+    }
+}
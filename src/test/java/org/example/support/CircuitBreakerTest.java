@@ -0,0 +1,98 @@
+package org.example.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class CircuitBreakerTest {
+    @Test
+    void opensAfterConsecutiveFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 3, null, Duration.ofMinutes(1));
+        circuitBreaker.onFailure();
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.allowRequest());
+
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getOpened());
+        assertEquals(3, circuitBreaker.getFailedCalls());
+        assertEquals(1, circuitBreaker.getRejectedCalls());
+    }
+
+    @Test
+    void successResetsFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 2, null, Duration.ofMinutes(1));
+        circuitBreaker.onFailure();
+        circuitBreaker.onSuccess(0);
+        circuitBreaker.onFailure();
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+    }
+
+    @Test
+    void slowCallsCountAsFailures() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 2, Duration.ofMillis(100), Duration.ofMinutes(1));
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(50));
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(150));
+        circuitBreaker.onSuccess(TimeUnit.MILLISECONDS.toNanos(150));
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getSlowCalls());
+    }
+
+    @Test
+    void probeWaitsForInterval() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, null, Duration.ofMinutes(1));
+        circuitBreaker.onFailure();
+
+        assertFalse(circuitBreaker.tryStartProbe());
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+    }
+
+    @Test
+    void probeSuccessCloses() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, null, Duration.ZERO);
+        circuitBreaker.onFailure();
+
+        assertTrue(circuitBreaker.tryStartProbe());
+        // 同一时间只有一个线程探测
+        assertFalse(circuitBreaker.tryStartProbe());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, circuitBreaker.getState());
+        assertFalse(circuitBreaker.allowRequest());
+
+        circuitBreaker.onProbeSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+        assertTrue(circuitBreaker.allowRequest());
+        assertEquals(1, circuitBreaker.getHalfOpened());
+        assertEquals(1, circuitBreaker.getClosed());
+        // 关闭后重新计算连续失败次数
+        circuitBreaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpened());
+    }
+
+    @Test
+    void probeFailureReopens() {
+        CircuitBreaker circuitBreaker = new CircuitBreaker("test", 1, null, Duration.ZERO);
+        circuitBreaker.onFailure();
+        assertTrue(circuitBreaker.tryStartProbe());
+
+        circuitBreaker.onProbeFailure();
+
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+        assertEquals(2, circuitBreaker.getOpened());
+        assertEquals(0, circuitBreaker.getClosed());
+    }
+}
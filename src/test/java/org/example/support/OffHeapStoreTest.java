@@ -0,0 +1,104 @@
+package org.example.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class OffHeapStoreTest {
+    @Test
+    void putAndGet() {
+        OffHeapStore store = new OffHeapStore(OffHeapStore.PAGE_SIZE);
+        byte[] value = bytes(100, 1);
+
+        OffHeapStore.Slot slot = store.put("k1", value);
+
+        assertNotNull(slot);
+        assertEquals("k1", slot.getKey());
+        assertEquals(100, slot.getLength());
+        assertArrayEquals(value, store.get(slot));
+        // 100字节加上8字节的代数占用一个128字节的块
+        assertEquals(128, store.getUsedBytes());
+        assertEquals(128, OffHeapStore.weigh("k1", slot));
+        assertEquals(1, OffHeapStore.weigh("k1", "on-heap"));
+        assertEquals(OffHeapStore.PAGE_SIZE, store.getAllocatedBytes());
+    }
+
+    @Test
+    void freeIgnoresStaleSlots() {
+        OffHeapStore store = new OffHeapStore(OffHeapStore.PAGE_SIZE);
+        OffHeapStore.Slot first = store.put("k1", bytes(100, 1));
+        store.free(first);
+
+        assertNull(store.get(first));
+        assertEquals(0, store.getUsedBytes());
+
+        // 复用同一个块，旧的slot读取不到新的value，再次释放也不影响新的value
+        OffHeapStore.Slot second = store.put("k2", bytes(100, 2));
+        assertNull(store.get(first));
+        store.free(first);
+        assertArrayEquals(bytes(100, 2), store.get(second));
+        assertEquals(128, store.getUsedBytes());
+    }
+
+    @Test
+    void rejectOversizedValues() {
+        OffHeapStore store = new OffHeapStore(OffHeapStore.PAGE_SIZE);
+
+        assertNull(store.put("k1", new byte[OffHeapStore.MAX_VALUE_LENGTH + 1]));
+        assertEquals(1, store.getRejections());
+        assertNotNull(store.put("k2", new byte[OffHeapStore.MAX_VALUE_LENGTH]));
+    }
+
+    @Test
+    void reclaimNotifiesLiveSlots() {
+        OffHeapStore store = new OffHeapStore(OffHeapStore.PAGE_SIZE);
+        List<OffHeapStore.Slot> reclaimed = new ArrayList<>();
+        store.setReclaimListener(reclaimed::add);
+        // 唯一的一页切分为64字节的块并全部使用
+        int chunks = OffHeapStore.PAGE_SIZE / 64;
+        List<OffHeapStore.Slot> slots = new ArrayList<>(chunks);
+        for (int i = 0; i < chunks; i++) {
+            slots.add(store.put(i, bytes(50, i)));
+        }
+        store.free(slots.get(0));
+
+        // 没有128字节的块，回收该页
+        OffHeapStore.Slot large = store.put("large", bytes(100, 1));
+
+        assertEquals(1, store.getReclaims());
+        assertArrayEquals(bytes(100, 1), store.get(large));
+        assertEquals(128, store.getUsedBytes());
+        // 已经释放的块不通知
+        assertEquals(chunks - 1, reclaimed.size());
+        Set<Object> keys = new HashSet<>();
+        for (OffHeapStore.Slot slot : reclaimed) {
+            keys.add(slot.getKey());
+            assertNull(store.get(slot));
+        }
+        assertEquals(chunks - 1, keys.size());
+        assertFalse(keys.contains(0));
+        assertTrue(keys.contains(1));
+        assertTrue(keys.contains(chunks - 1));
+    }
+
+    private static byte[] bytes(int length, int seed) {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, (byte) seed);
+        return bytes;
+    }
+}
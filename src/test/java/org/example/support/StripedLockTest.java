@@ -0,0 +1,122 @@
+package org.example.support;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author lihui
+ * @since 2024/3/16
+ */
+class StripedLockTest {
+    @Test
+    void sizeIsPowerOfTwo() {
+        assertEquals(1, new StripedLock(1).size());
+        assertEquals(8, new StripedLock(5).size());
+        assertEquals(16, new StripedLock(16).size());
+    }
+
+    @Test
+    void sameKeySameLock() {
+        StripedLock stripedLock = new StripedLock(16);
+
+        assertSame(stripedLock.get("user::1"), stripedLock.get(new String("user::1")));
+        assertSame(stripedLock.get(1L), stripedLock.get(1L));
+    }
+
+    @Test
+    void keysSpreadAcrossStripes() {
+        StripedLock stripedLock = new StripedLock(16);
+        Set<ReentrantLock> locks = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 1000; i++) {
+            locks.add(stripedLock.get("key-" + i));
+        }
+
+        assertEquals(16, locks.size());
+    }
+
+    @Test
+    void mutualExclusion() throws InterruptedException {
+        StripedLock stripedLock = new StripedLock(4);
+        int[] counter = new int[1];
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4; i++) {
+            executor.execute(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    ReentrantLock lock = stripedLock.get("same");
+                    lock.lock();
+                    try {
+                        counter[0]++;
+                    } finally {
+                        lock.unlock();
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(40000, counter[0]);
+    }
+
+    @Test
+    void sequentialWritesAreExclusive() {
+        StripedLock stripedLock = new StripedLock(4);
+
+        assertTrue(stripedLock.endWrite("k1", stripedLock.beginWrite("k1")));
+        assertTrue(stripedLock.endWrite("k1", stripedLock.beginWrite("k1")));
+    }
+
+    @Test
+    void overlappingWritesAreNotExclusive() {
+        StripedLock stripedLock = new StripedLock(4);
+        long first = stripedLock.beginWrite("k1");
+        long second = stripedLock.beginWrite("k1");
+
+        assertFalse(stripedLock.endWrite("k1", second));
+        assertFalse(stripedLock.endWrite("k1", first));
+        assertTrue(stripedLock.endWrite("k1", stripedLock.beginWrite("k1")));
+    }
+
+    @Test
+    void writeAllOverlapsEveryStripe() {
+        StripedLock stripedLock = new StripedLock(4);
+        long ticket = stripedLock.beginWrite("k1");
+        stripedLock.beginWriteAll();
+        stripedLock.endWriteAll();
+
+        assertFalse(stripedLock.endWrite("k1", ticket));
+    }
+
+    @Test
+    void readTicket() {
+        StripedLock stripedLock = new StripedLock(4);
+        long ticket = stripedLock.readTicket("k1");
+        assertTrue(stripedLock.unchangedSince("k1", ticket));
+
+        // 读取期间开始并结束的写入
+        stripedLock.endWrite("k1", stripedLock.beginWrite("k1"));
+        assertFalse(stripedLock.unchangedSince("k1", ticket));
+
+        // 读取前开始、读取期间结束的写入
+        long write = stripedLock.beginWrite("k1");
+        ticket = stripedLock.readTicket("k1");
+        assertEquals(-1, ticket);
+        stripedLock.endWrite("k1", write);
+        assertFalse(stripedLock.unchangedSince("k1", ticket));
+
+        ticket = stripedLock.readTicket("k1");
+        stripedLock.advance("k1");
+        assertFalse(stripedLock.unchangedSince("k1", ticket));
+    }
+}